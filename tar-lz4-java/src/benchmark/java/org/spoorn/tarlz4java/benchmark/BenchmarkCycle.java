@@ -0,0 +1,110 @@
+package org.spoorn.tarlz4java.benchmark;
+
+import org.spoorn.tarlz4java.api.TarLz4CompressorBuilder;
+import org.spoorn.tarlz4java.api.TarLz4DecompressorBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a single compress or decompress cycle and writes its {@link BenchmarkResult} to a file.  It is the main class
+ * of the child JVMs started by {@link ScaleBenchmark}, so peak RSS and GC time are those of the cycle alone.
+ *
+ * Arguments: shape, phase ("compress" or "decompress"), threads, source bytes, input path, output directory, and
+ * result file.  Compression reads a source directory and writes an archive into the output directory.  Decompression
+ * reads an archive and extracts it into the output directory.
+ */
+public class BenchmarkCycle {
+
+    static final String ARCHIVE_NAME = "archive";
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkResult result = new BenchmarkResult();
+        result.shape = args[0];
+        result.phase = args[1];
+        result.threads = Integer.parseInt(args[2]);
+        result.bytes = Long.parseLong(args[3]);
+        Path input = Path.of(args[4]);
+        Path outputDirectory = Path.of(args[5]);
+        Path resultFile = Path.of(args[6]);
+        Files.createDirectories(outputDirectory);
+
+        long gcStart = gcMillis();
+        long start = System.nanoTime();
+        if ("compress".equals(result.phase)) {
+            // Temporary slices and the archive are all written next to each other in the output directory
+            AtomicLong tempDiskPeak = new AtomicLong();
+            Thread sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        tempDiskPeak.accumulateAndGet(BenchmarkFiles.sizeOfFiles(outputDirectory), Math::max);
+                        Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        // Sampled again on the next interval
+                    }
+                }
+            }, "benchmark-disk-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+            // The default thread pool isn't daemon, and would keep this JVM alive
+            ExecutorService executorService = Executors.newFixedThreadPool(result.threads);
+            try {
+                new TarLz4CompressorBuilder().numThreads(result.threads).executorService(executorService).build()
+                        .compress(input.toString(), outputDirectory.toString(), ARCHIVE_NAME);
+                result.elapsedNanos = System.nanoTime() - start;
+            } finally {
+                executorService.shutdown();
+            }
+            sampler.interrupt();
+            sampler.join();
+            result.tempDiskPeakBytes = Math.max(tempDiskPeak.get(), BenchmarkFiles.sizeOfFiles(outputDirectory));
+        } else if ("decompress".equals(result.phase)) {
+            new TarLz4DecompressorBuilder().build().decompress(input, outputDirectory);
+            result.elapsedNanos = System.nanoTime() - start;
+        } else {
+            throw new IllegalArgumentException("Unknown phase " + result.phase);
+        }
+        result.gcMillis = gcMillis() - gcStart;
+        result.peakRssBytes = peakRssBytes();
+
+        try (OutputStream out = Files.newOutputStream(resultFile)) {
+            result.toProperties().store(out, null);
+        }
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    /**
+     * @return High-water mark of the resident set size of this process, or -1 where /proc isn't available
+     */
+    private static long peakRssBytes() {
+        try {
+            List<String> status = Files.readAllLines(Path.of("/proc/self/status"));
+            for (String line : status) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+}
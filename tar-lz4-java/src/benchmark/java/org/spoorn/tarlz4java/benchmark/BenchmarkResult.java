@@ -0,0 +1,92 @@
+package org.spoorn.tarlz4java.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Measurements of one compress or decompress cycle, measured in its own JVM so memory and GC numbers only cover it.
+ */
+public class BenchmarkResult {
+
+    static final String THROUGHPUT = "throughputMBps";
+    static final String PEAK_RSS = "peakRssBytes";
+    static final String GC_TIME = "gcMillis";
+    static final String TEMP_DISK_PEAK = "tempDiskPeakBytes";
+
+    String shape;
+    String phase;
+    int threads;
+    long bytes;  // Uncompressed bytes of the source
+    long elapsedNanos;
+    long peakRssBytes = -1;  // -1 where the OS doesn't report it
+    long gcMillis;
+    long tempDiskPeakBytes = -1;  // -1 for phases that don't write temporary files
+
+    /**
+     * @return Uncompressed MB processed per second
+     */
+    public double getThroughputMBps() {
+        return bytes / (1024.0 * 1024.0) / Math.max(elapsedNanos / 1e9, 1e-9);
+    }
+
+    /**
+     * @return Metrics compared against baselines, by name
+     */
+    public Map<String, Double> getMetrics() {
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put(THROUGHPUT, getThroughputMBps());
+        if (peakRssBytes >= 0) {
+            metrics.put(PEAK_RSS, (double) peakRssBytes);
+        }
+        metrics.put(GC_TIME, (double) gcMillis);
+        if (tempDiskPeakBytes >= 0) {
+            metrics.put(TEMP_DISK_PEAK, (double) tempDiskPeakBytes);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return Prefix of this cycle's keys in a baselines file, such as "mixed.compress.t4."
+     */
+    public String getBaselinePrefix() {
+        return shape.toLowerCase() + "." + phase + ".t" + threads + ".";
+    }
+
+    Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("shape", shape);
+        properties.setProperty("phase", phase);
+        properties.setProperty("threads", String.valueOf(threads));
+        properties.setProperty("bytes", String.valueOf(bytes));
+        properties.setProperty("elapsedNanos", String.valueOf(elapsedNanos));
+        properties.setProperty(PEAK_RSS, String.valueOf(peakRssBytes));
+        properties.setProperty(GC_TIME, String.valueOf(gcMillis));
+        properties.setProperty(TEMP_DISK_PEAK, String.valueOf(tempDiskPeakBytes));
+        return properties;
+    }
+
+    static BenchmarkResult fromProperties(Properties properties) {
+        BenchmarkResult result = new BenchmarkResult();
+        result.shape = properties.getProperty("shape");
+        result.phase = properties.getProperty("phase");
+        result.threads = Integer.parseInt(properties.getProperty("threads"));
+        result.bytes = Long.parseLong(properties.getProperty("bytes"));
+        result.elapsedNanos = Long.parseLong(properties.getProperty("elapsedNanos"));
+        result.peakRssBytes = Long.parseLong(properties.getProperty(PEAK_RSS));
+        result.gcMillis = Long.parseLong(properties.getProperty(GC_TIME));
+        result.tempDiskPeakBytes = Long.parseLong(properties.getProperty(TEMP_DISK_PEAK));
+        return result;
+    }
+
+    /**
+     * @return One line JSON object of this result
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"shape\": \"%s\", \"phase\": \"%s\", \"threads\": %d, \"bytes\": %d, "
+                        + "\"seconds\": %.3f, \"%s\": %.2f, \"%s\": %d, \"%s\": %d, \"%s\": %d}",
+                shape, phase, threads, bytes, elapsedNanos / 1e9, THROUGHPUT, getThroughputMBps(), PEAK_RSS,
+                peakRssBytes, GC_TIME, gcMillis, TEMP_DISK_PEAK, tempDiskPeakBytes);
+    }
+}
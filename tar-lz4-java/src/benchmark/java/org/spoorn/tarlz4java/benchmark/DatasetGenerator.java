@@ -0,0 +1,147 @@
+package org.spoorn.tarlz4java.benchmark;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Generates reproducible synthetic source trees.  The same shape, seed and scale always generate the same names,
+ * sizes and contents, so results of runs on different machines or commits are comparable.
+ *
+ * Generated datasets are kept in the work directory and reused by later runs, as the larger shapes take a long time
+ * to write.
+ */
+public class DatasetGenerator {
+
+    private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(DatasetGenerator.class);
+    private static final int CHUNK_SIZE = 1024 * 1024;  // Content is written, and switches compressibility, per chunk
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final int NESTING_DEPTH = 512;
+    private static final String[] WORDS = ("the quick brown fox jumps over lazy dog archive tar lz4 block frame entry "
+            + "header slice thread merge offset buffer stream compress decompress source destination file directory")
+            .split(" ");
+
+    private final Path workDirectory;
+
+    /**
+     * @param workDirectory Directory datasets are generated under
+     */
+    public DatasetGenerator(Path workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * Generates a dataset, or reuses it if it was already completely generated.
+     *
+     * @param shape Shape of the dataset
+     * @param seed Seed of all names, sizes and contents
+     * @param scale Multiplier of the shape's file counts and sizes, such as 0.001 for a quick run
+     * @return Source directory of the dataset
+     * @throws IOException If writing the dataset fails
+     */
+    public Path generate(DatasetShape shape, long seed, double scale) throws IOException {
+        String name = shape.name().toLowerCase() + "-" + seed + "-" + scale;
+        Path source = workDirectory.resolve("datasets").resolve(name);
+        // Written last, so an interrupted generation is started over instead of being reused
+        Path marker = workDirectory.resolve("datasets").resolve(name + ".complete");
+        if (Files.exists(marker)) {
+            logger.info("Reusing dataset {}", source);
+            return source;
+        }
+        if (Files.exists(source)) {
+            BenchmarkFiles.deleteRecursively(source);
+        }
+        Files.createDirectories(source);
+        logger.info("Generating dataset {}", source);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long count = Math.max(1, (long) (shape.count * scale));
+        long size = (long) (shape.size * scale);
+        switch (shape) {
+            case EMPTY_FILES:
+                for (long i = 0; i < count; i++) {
+                    Path dir = source.resolve("d" + i / FILES_PER_DIRECTORY);
+                    if (i % FILES_PER_DIRECTORY == 0) {
+                        Files.createDirectories(dir);
+                    }
+                    Files.createFile(dir.resolve("f" + i));
+                }
+                break;
+            case DEEP_NESTING:
+                // Depth is kept as is, as it is the point of the shape
+                for (long i = 0; i < count; i++) {
+                    Path dir = source.resolve("chain" + i);
+                    for (int depth = 0; depth < NESTING_DEPTH; depth++) {
+                        dir = dir.resolve("n" + depth % 10);
+                        Files.createDirectories(dir);
+                        writeFile(dir.resolve("f.txt"), size, random.split());
+                    }
+                }
+                break;
+            case LARGE_FILES:
+                for (long i = 0; i < count; i++) {
+                    writeFile(source.resolve("large" + i + ".bin"), size, random.split());
+                }
+                break;
+            case MIXED:
+                for (long i = 0; i < count; i++) {
+                    Path dir = source.resolve("d" + i / FILES_PER_DIRECTORY);
+                    if (i % FILES_PER_DIRECTORY == 0) {
+                        Files.createDirectories(dir);
+                    }
+                    // Log-uniform, so there are many more small files than large ones
+                    long min = Math.max(1, (long) (1024 * scale));
+                    long fileSize = (long) (min * Math.pow((double) Math.max(size, min) / min, random.nextDouble()));
+                    writeFile(dir.resolve("f" + i + ".dat"), fileSize, random.split());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown dataset shape " + shape);
+        }
+        Files.createFile(marker);
+        return source;
+    }
+
+    /**
+     * Writes a file whose chunks are each random, zeroed or text-like, picked at random.
+     */
+    private static void writeFile(Path file, long size, SplittableRandom random) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, size)];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int n = (int) Math.min(chunk.length, remaining);
+                int kind = random.nextInt(3);
+                if (kind == 0) {
+                    for (int i = 0; i < n; i += 8) {
+                        long bits = random.nextLong();
+                        for (int j = i; j < Math.min(i + 8, n); j++, bits >>>= 8) {
+                            chunk[j] = (byte) bits;
+                        }
+                    }
+                } else if (kind == 1) {
+                    Arrays.fill(chunk, 0, n, (byte) 0);
+                } else {
+                    int i = 0;
+                    while (i < n) {
+                        byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+                        for (int j = 0; j < word.length && i < n; j++) {
+                            chunk[i++] = word[j];
+                        }
+                        if (i < n) {
+                            chunk[i++] = ' ';
+                        }
+                    }
+                }
+                out.write(chunk, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+}
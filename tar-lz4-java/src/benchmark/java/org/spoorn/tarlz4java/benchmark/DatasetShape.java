@@ -0,0 +1,36 @@
+package org.spoorn.tarlz4java.benchmark;
+
+/**
+ * Shapes of synthetic source trees, each stressing a different part of compression and extraction.  Sizes are at
+ * scale 1.0, and are multiplied by the scale a dataset is generated at.
+ */
+public enum DatasetShape {
+
+    /**
+     * 10 million empty files, 1000 per directory.  Stresses scanning, tar headers and per-file overhead.
+     */
+    EMPTY_FILES(10_000_000L, 0),
+
+    /**
+     * 64 chains of 512 nested directories with a small file at each level.  Stresses long names and deep walks.
+     */
+    DEEP_NESTING(64, 4 * 1024),
+
+    /**
+     * 3 files of 50GB each, of mixed compressibility.  Stresses slicing, merging and streaming throughput.
+     */
+    LARGE_FILES(3, 50L * 1024 * 1024 * 1024),
+
+    /**
+     * 20000 files with sizes spread from 1KB to 64MB, each random, zeroed or text-like.  Resembles real sources.
+     */
+    MIXED(20_000, 64L * 1024 * 1024);
+
+    final long count;  // Number of files, or of directory chains for DEEP_NESTING
+    final long size;  // Size of each file, or the largest file for MIXED
+
+    DatasetShape(long count, long size) {
+        this.count = count;
+        this.size = size;
+    }
+}
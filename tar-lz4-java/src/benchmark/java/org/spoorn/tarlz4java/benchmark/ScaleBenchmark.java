@@ -0,0 +1,251 @@
+package org.spoorn.tarlz4java.benchmark;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end benchmark of full compress and decompress cycles over synthetic datasets, across thread counts.
+ *
+ * Each cycle runs in its own JVM, and measures throughput, peak RSS, GC time, and the high-water mark of disk used
+ * by temporary files while compressing.  Results are written as a JSON array, and compared against a baselines file
+ * of the same seed and scale.  Throughput may not drop, and the other metrics may not grow, by more than the
+ * tolerance, else the run exits with status 1.
+ *
+ * Options, all optional:
+ * <pre>
+ * --shapes MIXED,LARGE_FILES   Dataset shapes to run, all by default
+ * --threads 1,4,8              Compression thread counts
+ * --seed 42                    Seed of the datasets
+ * --scale 1.0                  Multiplier of dataset file counts and sizes
+ * --work build/benchmark       Directory of datasets and cycle outputs, which needs room for several copies of them
+ * --results results.json       Results file, under the work directory by default
+ * --baselines baselines.properties
+ * --tolerance 0.15             Allowed regression, as a fraction of the baseline
+ * --update-baselines           Write the results as the new baselines instead of comparing against them
+ * --jvm-args "-Xmx2g"          Arguments of the cycle JVMs
+ * </pre>
+ */
+public class ScaleBenchmark {
+
+    private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(ScaleBenchmark.class);
+    private static final double GC_SLACK_MILLIS = 100;  // GC time is noisy when it is this small
+
+    public static void main(String[] args) throws Exception {
+        List<DatasetShape> shapes = new ArrayList<>(Arrays.asList(DatasetShape.values()));
+        int[] threadCounts = {1, 4, 8};
+        long seed = 42;
+        double scale = 1.0;
+        Path work = Path.of("build", "benchmark");
+        Path results = null;
+        Path baselines = null;
+        double tolerance = 0.15;
+        boolean updateBaselines = false;
+        List<String> jvmArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--shapes":
+                    shapes = Arrays.stream(args[++i].split(",")).map(s -> DatasetShape.valueOf(s.trim().toUpperCase()))
+                            .collect(Collectors.toList());
+                    break;
+                case "--threads":
+                    threadCounts = Arrays.stream(args[++i].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--scale":
+                    scale = Double.parseDouble(args[++i]);
+                    break;
+                case "--work":
+                    work = Path.of(args[++i]);
+                    break;
+                case "--results":
+                    results = Path.of(args[++i]);
+                    break;
+                case "--baselines":
+                    baselines = Path.of(args[++i]);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "--update-baselines":
+                    updateBaselines = true;
+                    break;
+                case "--jvm-args":
+                    jvmArgs.addAll(Arrays.asList(args[++i].trim().split("\\s+")));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        work = work.toAbsolutePath();
+        if (results == null) {
+            results = work.resolve("results.json");
+        }
+
+        DatasetGenerator generator = new DatasetGenerator(work);
+        List<BenchmarkResult> measured = new ArrayList<>();
+        for (DatasetShape shape : shapes) {
+            Path source = generator.generate(shape, seed, scale);
+            long sourceBytes = sizeOfTree(source);
+            Path runs = work.resolve("runs").resolve(shape.name().toLowerCase());
+            for (int threads : threadCounts) {
+                Path archiveDirectory = runs.resolve("archive-t" + threads);
+                Path extractDirectory = runs.resolve("extract-t" + threads);
+                BenchmarkFiles.deleteRecursively(archiveDirectory);
+                BenchmarkFiles.deleteRecursively(extractDirectory);
+                try {
+                    measured.add(runCycle(jvmArgs, shape, "compress", threads, sourceBytes, source, archiveDirectory, runs));
+                    Path archive = archiveDirectory.resolve(BenchmarkCycle.ARCHIVE_NAME + ".tar.lz4");
+                    measured.add(runCycle(jvmArgs, shape, "decompress", threads, sourceBytes, archive, extractDirectory, runs));
+                } finally {
+                    BenchmarkFiles.deleteRecursively(archiveDirectory);
+                    BenchmarkFiles.deleteRecursively(extractDirectory);
+                }
+            }
+        }
+
+        writeResults(results, measured);
+        logger.info("Wrote {} results to {}", measured.size(), results);
+        if (baselines == null) {
+            return;
+        }
+        if (updateBaselines) {
+            writeBaselines(baselines, measured, seed, scale);
+            logger.info("Updated baselines {}", baselines);
+            return;
+        }
+        if (Files.notExists(baselines)) {
+            logger.warn("No baselines at {} to compare against, run with --update-baselines to create them", baselines);
+            return;
+        }
+        List<String> regressions = compare(baselines, measured, seed, scale, tolerance);
+        if (!regressions.isEmpty()) {
+            regressions.forEach(logger::error);
+            System.exit(1);
+        }
+        logger.info("No regressions against {}", baselines);
+    }
+
+    private static BenchmarkResult runCycle(List<String> jvmArgs, DatasetShape shape, String phase, int threads,
+                                            long sourceBytes, Path input, Path output, Path runs) throws IOException, InterruptedException {
+        logger.info("Running {} of {} with {} threads", phase, shape, threads);
+        Path resultFile = runs.resolve(phase + "-t" + threads + ".properties");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), BenchmarkCycle.class.getName(),
+                shape.name(), phase, String.valueOf(threads), String.valueOf(sourceBytes), input.toString(),
+                output.toString(), resultFile.toString()));
+        int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException(phase + " of " + shape + " with " + threads + " threads exited with " + exitCode);
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(resultFile)) {
+            properties.load(in);
+        }
+        Files.delete(resultFile);
+        BenchmarkResult result = BenchmarkResult.fromProperties(properties);
+        logger.info(result.toJson());
+        return result;
+    }
+
+    /**
+     * @return Messages of every metric that regressed past the tolerance
+     */
+    private static List<String> compare(Path baselinesPath, List<BenchmarkResult> measured, long seed, double scale,
+                                        double tolerance) throws IOException {
+        Properties baselines = new Properties();
+        try (InputStream in = Files.newInputStream(baselinesPath)) {
+            baselines.load(in);
+        }
+        if (!String.valueOf(seed).equals(baselines.getProperty("seed")) || !String.valueOf(scale).equals(baselines.getProperty("scale"))) {
+            throw new IllegalArgumentException("Baselines " + baselinesPath + " are for seed " + baselines.getProperty("seed")
+                    + " and scale " + baselines.getProperty("scale") + ", not seed " + seed + " and scale " + scale);
+        }
+
+        List<String> regressions = new ArrayList<>();
+        for (BenchmarkResult result : measured) {
+            for (Map.Entry<String, Double> metric : result.getMetrics().entrySet()) {
+                String key = result.getBaselinePrefix() + metric.getKey();
+                String baseline = baselines.getProperty(key);
+                if (baseline == null) {
+                    logger.warn("No baseline for {}", key);
+                    continue;
+                }
+                double expected = Double.parseDouble(baseline);
+                double actual = metric.getValue();
+                boolean regressed;
+                if (BenchmarkResult.THROUGHPUT.equals(metric.getKey())) {
+                    regressed = actual < expected * (1 - tolerance);
+                } else if (BenchmarkResult.GC_TIME.equals(metric.getKey())) {
+                    regressed = actual > expected * (1 + tolerance) + GC_SLACK_MILLIS;
+                } else {
+                    regressed = actual > expected * (1 + tolerance);
+                }
+                if (regressed) {
+                    regressions.add(String.format("Regression in %s: %.2f against baseline %.2f", key, actual, expected));
+                }
+            }
+        }
+        return regressions;
+    }
+
+    private static void writeBaselines(Path baselinesPath, List<BenchmarkResult> measured, long seed, double scale) throws IOException {
+        Properties baselines = new Properties();
+        if (Files.exists(baselinesPath)) {
+            // Baselines of shapes and thread counts that weren't run are kept
+            try (InputStream in = Files.newInputStream(baselinesPath)) {
+                baselines.load(in);
+            }
+            if (!String.valueOf(seed).equals(baselines.getProperty("seed")) || !String.valueOf(scale).equals(baselines.getProperty("scale"))) {
+                baselines.clear();
+            }
+        }
+        baselines.setProperty("seed", String.valueOf(seed));
+        baselines.setProperty("scale", String.valueOf(scale));
+        for (BenchmarkResult result : measured) {
+            for (Map.Entry<String, Double> metric : result.getMetrics().entrySet()) {
+                baselines.setProperty(result.getBaselinePrefix() + metric.getKey(), String.valueOf(metric.getValue()));
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(baselinesPath)) {
+            baselines.store(out, "tar-lz4-java scale benchmark baselines");
+        }
+    }
+
+    private static void writeResults(Path resultsPath, List<BenchmarkResult> measured) throws IOException {
+        if (resultsPath.getParent() != null) {
+            Files.createDirectories(resultsPath.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(resultsPath, StandardCharsets.UTF_8)) {
+            writer.write("[\n");
+            for (int i = 0; i < measured.size(); i++) {
+                writer.write("  " + measured.get(i).toJson() + (i < measured.size() - 1 ? ",\n" : "\n"));
+            }
+            writer.write("]\n");
+        }
+    }
+
+    private static long sizeOfTree(Path source) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
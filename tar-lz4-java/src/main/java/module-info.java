@@ -4,7 +4,12 @@ module org.spoorn.tarlz4java {
     requires static lombok;
     requires org.apache.logging.log4j;
     requires org.apache.logging.log4j.core;
+    requires java.management;
+    requires jdk.unsupported;
+    requires jdk.jfr;
     exports org.spoorn.tarlz4java.api;
+    exports org.spoorn.tarlz4java.fs;
     exports org.spoorn.tarlz4java.logging;
     exports org.spoorn.tarlz4java.util.concurrent;
+    provides java.nio.file.spi.FileSystemProvider with org.spoorn.tarlz4java.fs.TarLz4FileSystemProvider;
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package org.spoorn.tarlz4java.api;
+
+import lombok.Getter;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.spoorn.tarlz4java.io.TarLz4Index;
+import org.spoorn.tarlz4java.io.TarStreamReader;
+
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Metadata of a single entry in a .tar.lz4 archive, as returned when listing an archive.
+ */
+@Getter
+public class TarLz4ArchiveEntry {
+
+    /**
+     * Type of archive entry.
+     */
+    public enum Type {
+        FILE,
+        DIRECTORY,
+        SYMLINK,
+        HARDLINK,
+        OTHER
+    }
+
+    private final String name;  // Entry name/path inside the archive
+    private final long size;  // Size of the entry's content in bytes
+    private final FileTime lastModifiedTime;
+    private final int mode;  // Unix permission and file type bits
+    private final Type type;
+
+    public TarLz4ArchiveEntry(String name, long size, FileTime lastModifiedTime, int mode, Type type) {
+        this.name = name;
+        this.size = size;
+        this.lastModifiedTime = lastModifiedTime;
+        this.mode = mode;
+        this.type = type;
+    }
+
+    public boolean isDirectory() {
+        return this.type == Type.DIRECTORY;
+    }
+
+    public boolean isFile() {
+        return this.type == Type.FILE;
+    }
+
+    static TarLz4ArchiveEntry fromTarArchiveEntry(TarArchiveEntry entry) {
+        Type type;
+        if (entry.isDirectory()) {
+            type = Type.DIRECTORY;
+        } else if (entry.isSymbolicLink()) {
+            type = Type.SYMLINK;
+        } else if (entry.isLink()) {
+            type = Type.HARDLINK;
+        } else if (entry.isFile()) {
+            type = Type.FILE;
+        } else {
+            type = Type.OTHER;
+        }
+        return new TarLz4ArchiveEntry(entry.getName(), entry.getRealSize(), FileTime.from(entry.getLastModifiedDate().toInstant()),
+                entry.getMode(), type);
+    }
+
+    static TarLz4ArchiveEntry fromIndexEntry(TarLz4Index.Entry entry) {
+        Type type;
+        if (entry.isDirectory()) {
+            type = Type.DIRECTORY;
+        } else if (entry.getTypeFlag() == TarStreamReader.TYPE_SYMBOLIC_LINK) {
+            type = Type.SYMLINK;
+        } else if (entry.getTypeFlag() == TarStreamReader.TYPE_HARD_LINK) {
+            type = Type.HARDLINK;
+        } else if (entry.isFile()) {
+            type = Type.FILE;
+        } else {
+            type = Type.OTHER;
+        }
+        return new TarLz4ArchiveEntry(entry.getName(), entry.getSize(), FileTime.fromMillis(entry.getLastModifiedMillis()),
+                entry.getMode(), type);
+    }
+
+    @Override
+    public String toString() {
+        return "TarLz4ArchiveEntry{name=" + name + ", size=" + size + ", type=" + type + "}";
+    }
+}
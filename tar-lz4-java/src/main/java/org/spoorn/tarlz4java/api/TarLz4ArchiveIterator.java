@@ -0,0 +1,80 @@
+package org.spoorn.tarlz4java.api;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the entries of a .tar.lz4 archive.  Entries are read from the archive only as they are requested,
+ * and entry contents are skipped over without being extracted.  Archives with an embedded
+ * {@link org.spoorn.tarlz4java.io.TarLz4Index} are listed from their index instead, which is read up front.
+ *
+ * The underlying archive file is closed automatically once the last entry has been read, or can be closed early via
+ * {@link #close()}.  IO failures while reading the archive are thrown as {@link UncheckedIOException}.
+ */
+public class TarLz4ArchiveIterator implements Iterator<TarLz4ArchiveEntry>, Closeable {
+
+    private final TarArchiveInputStream tais;  // null if listing from an index
+    private final Iterator<TarLz4ArchiveEntry> indexed;  // null if listing from the tar headers
+    private TarLz4ArchiveEntry next;
+    private boolean done;
+
+    TarLz4ArchiveIterator(TarArchiveInputStream tais) {
+        this.tais = tais;
+        this.indexed = null;
+    }
+
+    TarLz4ArchiveIterator(List<TarLz4ArchiveEntry> indexed) {
+        this.tais = null;
+        this.indexed = indexed.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done && indexed != null) {
+            if (indexed.hasNext()) {
+                next = indexed.next();
+            } else {
+                done = true;
+            }
+        } else if (next == null && !done) {
+            try {
+                TarArchiveEntry entry = tais.getNextTarEntry();
+                if (entry == null) {
+                    close();
+                } else {
+                    next = TarLz4ArchiveEntry.fromTarArchiveEntry(entry);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public TarLz4ArchiveEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TarLz4ArchiveEntry res = next;
+        next = null;
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!done) {
+            done = true;
+            if (tais != null) {
+                tais.close();
+            }
+        }
+    }
+}
@@ -1,27 +1,56 @@
 package org.spoorn.tarlz4java.api;
 
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.utils.IOUtils;
 import org.apache.logging.log4j.Logger;
+import org.spoorn.tarlz4java.core.CompressTaskOptions;
+import org.spoorn.tarlz4java.core.SliceCheckpoint;
+import org.spoorn.tarlz4java.core.SourceEntry;
 import org.spoorn.tarlz4java.core.TarLz4CompressTask;
+import org.spoorn.tarlz4java.core.SourceFilter;
+import org.spoorn.tarlz4java.core.SourceManifest;
+import org.spoorn.tarlz4java.core.WorkloadProfile;
+import org.spoorn.tarlz4java.io.AdaptiveLz4FrameOutputStream;
+import org.spoorn.tarlz4java.io.CustomTarArchiveOutputStream;
+import org.spoorn.tarlz4java.io.DirectFileInputStream;
+import org.spoorn.tarlz4java.io.DirectFileOutputStream;
+import org.spoorn.tarlz4java.io.DirectIO;
+import org.spoorn.tarlz4java.io.SeekableLz4FrameInputStream;
 import org.spoorn.tarlz4java.logging.TarLz4Logger;
+import org.spoorn.tarlz4java.logging.TarLz4MergeEvent;
 import org.spoorn.tarlz4java.logging.Verbosity;
 import org.spoorn.tarlz4java.util.TarLz4Util;
+import org.spoorn.tarlz4java.util.concurrent.CpuThrottle;
+import org.spoorn.tarlz4java.util.concurrent.MemoryBudget;
 import org.spoorn.tarlz4java.util.concurrent.NamedThreadFactory;
+import org.spoorn.tarlz4java.util.concurrent.RateLimiter;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -31,19 +60,37 @@ public class TarLz4Compressor {
     
     public static final String TAR_LZ4_EXTENSION = ".tar.lz4";
     private static final String TMP_SUFFIX = ".tmp";
+    private static final String PART_SUFFIX = ".part";  // Suffix of hidden files that outputs are written to before being published
     private static final String THREAD_NAME = "TarLz4CompressTask";
+    private static final int MIN_BLOCK_SIZE = 64 * 1024;  // Smallest LZ4 block size
+    // Decoding and re-encoding the last frame of an archive when appending, with up to 4 MB blocks on both sides
+    private static final long REENCODE_MEMORY = 4L * AdaptiveLz4FrameOutputStream.DEFAULT_BLOCK_SIZE;
     private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(TarLz4Compressor.class);
 
     private final ExecutorService executorService;
     private final int bufferSize;
-    private final int numThreads;
+    private final int numThreads;  // Max threads when auto tuning
     private final boolean shouldLogProgress;
     private final int logProgressPercentInterval;
     private final Verbosity verbosity;
     private final TarLz4Logger log;
-    private final Set<String> excludeFiles = new HashSet<>();
+    private final SourceFilter sourceFilter;
+    private final boolean adaptiveCompression;
+    private final int prefetchDepth;
+    private final boolean resumable;
+    private final RateLimiter readLimiter;  // null if reads are not limited
+    private final RateLimiter writeLimiter;  // null if writes are not limited
+    private final double cpuBudget;
+    private final MemoryBudget memoryBudget;  // null if memory is not limited
+    private final int blockSize;  // LZ4 block size, lowered to fit the memory budget
+    private final long taskMemory;  // Memory reserved by each compression task
+    private final boolean autoTune;
+    private final boolean directIO;
+    private final boolean fsync;
+    private final boolean sparseFiles;
     
     private final List<String> resourcesCreated = new ArrayList<>();
+    private TarLz4CompressorStats lastStats = new TarLz4CompressorStats();
 
     public TarLz4Compressor(int numThreads, int bufferSize, boolean shouldLogProgress, int logProgressPercentInterval, Verbosity verbosity) {
         // We'll submit our runnable tasks using an executor service with `numThreads` threads in the pool
@@ -56,16 +103,57 @@ public class TarLz4Compressor {
     }
 
     public TarLz4Compressor(int numThreads, int bufferSize, boolean shouldLogProgress, int logProgressPercentInterval, Verbosity verbosity, ExecutorService executorService, Set<String> excludeFiles) {
-        this.numThreads = numThreads;
-        this.bufferSize = bufferSize;
-        this.executorService = executorService;
-        this.shouldLogProgress = shouldLogProgress;
-        this.logProgressPercentInterval = logProgressPercentInterval;
-        this.verbosity = verbosity;
+        this(new TarLz4CompressorBuilder().numThreads(numThreads).bufferSize(bufferSize).shouldLogProgress(shouldLogProgress)
+                .logProgressPercentInterval(logProgressPercentInterval).verbosity(verbosity).executorService(executorService)
+                .excludeFiles(excludeFiles));
+    }
+
+    TarLz4Compressor(TarLz4CompressorBuilder builder) {
+        this.autoTune = builder.autoTune;
+        // When auto tuning, numThreads is only an upper bound so the pool is sized for the whole machine
+        this.numThreads = autoTune ? Math.max(builder.numThreads, Runtime.getRuntime().availableProcessors()) : builder.numThreads;
+        this.bufferSize = builder.bufferSize;
+        // We'll submit our runnable tasks using an executor service with `numThreads` threads in the pool
+        this.executorService = builder.executorService != null ? builder.executorService 
+                : Executors.newFixedThreadPool(numThreads, new NamedThreadFactory(THREAD_NAME));
+        this.shouldLogProgress = builder.shouldLogProgress;
+        this.logProgressPercentInterval = builder.logProgressPercentInterval;
+        this.verbosity = builder.verbosity;
+        this.adaptiveCompression = builder.adaptiveCompression;
+        this.prefetchDepth = builder.prefetchDepth;
+        this.resumable = builder.resumable;
+        // Rate limiters are shared by all tasks, so limits apply to the whole compressor rather than per thread
+        this.readLimiter = builder.readBytesPerSecond > 0 ? new RateLimiter(builder.readBytesPerSecond) : null;
+        this.writeLimiter = builder.writeBytesPerSecond > 0 ? new RateLimiter(builder.writeBytesPerSecond) : null;
+        this.cpuBudget = builder.cpuBudget;
         this.log = new TarLz4Logger(logger, this.verbosity);
-        if (excludeFiles != null && !excludeFiles.isEmpty()) {
-            this.excludeFiles.addAll(excludeFiles);
-        }
+        this.memoryBudget = builder.memoryBudget;
+        this.directIO = builder.directIO;
+        this.fsync = builder.fsync;
+        this.sparseFiles = builder.sparseFiles;
+        this.blockSize = chooseBlockSize();
+        this.taskMemory = TarLz4CompressTask.memoryEstimate(bufferSize, blockSize, adaptiveCompression, prefetchDepth, directIO, sparseFiles);
+        this.sourceFilter = new SourceFilter(builder.excludeFiles != null ? builder.excludeFiles : Set.of(), 
+                builder.includes, builder.excludes);
+    }
+
+    /**
+     * Statistics of the last {@link #compress(Path, Path)} or {@link #append(Path, Path...)} run.
+     *
+     * @return Statistics of the last run
+     */
+    public TarLz4CompressorStats getLastStats() {
+        return lastStats;
+    }
+
+    /**
+     * The memory budget buffers are reserved from.  Its current reservation shows how much memory is held in buffers by
+     * this compressor, and any others sharing the budget.
+     *
+     * @return Memory budget, or null if memory is not limited
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
     /**
@@ -77,21 +165,48 @@ public class TarLz4Compressor {
      * @return Path to the output file, else a RuntimeException would have been thrown
      */
     public Path compress(Path sourcePath, Path destinationPath) {
-        return compress(sourcePath.toString(), destinationPath.toString());
+        return compress(sourcePath, destinationPath, sourcePath.getFileName().toString());
     }
 
     /**
      * Compresses a source path into a Tar Archive using LZ4 compression.  Outputs a .tar.lz4 file to the destination path.
      * The .tar.lz4 file name will be the same as the source directory.
      *
+     * The source can be on any {@link java.nio.file.FileSystem}, such as a zip or in-memory file system.  The output is
+     * always written to the default file system.
+     *
      * @param sourcePath Source path.  Should be the path to the directory to compress.
      * @param destinationPath Destination path.  Should be the path to a directory where the .tar.lz4 will go.
      * @param outputFileBaseName Output file base name, excluding the extension.  This wraps the source
      *                           under a new directory with this base name in the archive.
      * @return Path to the output file, else a RuntimeException would have been thrown
      */
-    public Path compress(Path sourcePath, Path destinationPath, String outputFileBaseName) {
-        return compress(sourcePath.toString(), destinationPath.toString(), outputFileBaseName);
+    public synchronized Path compress(Path sourcePath, Path destinationPath, String outputFileBaseName) {
+        boolean success = false;
+        Path archivePath = destinationPath.resolve(outputFileBaseName + TAR_LZ4_EXTENSION);
+        try {
+            // TODO: If destination path does not exist, but is a directory, create the path
+            assert Files.isDirectory(sourcePath) : "source path [" + sourcePath + "] is not a valid directory";
+            lastStats = new TarLz4CompressorStats();
+            long throttleWaitStart = getThrottleWaitNanos();
+
+            // The archive is written under a hidden name, and only shows up under its real name once complete
+            Path partPath = partPath(archivePath);
+            resourcesCreated.add(partPath.toString());
+            long offset = writeSource(sourcePath, partPath.toString(), 0, resumable);
+            writeTrailer(partPath, offset);
+            publish(partPath, archivePath);
+            lastStats.setThrottleWaitNanos(getThrottleWaitNanos() - throttleWaitStart);
+
+            success = true;
+            return archivePath;
+        } catch (Exception e) {
+            log.error("Could not lz4 compress source=[" + sourcePath + "] to destination=[" + archivePath + "]", e);
+            throw new RuntimeException(e);
+        } finally {
+            // In resumable mode, completed slices are kept around for the next run if we failed
+            deleteResourcesCreated(!success && resumable);
+        }
     }
 
     /**
@@ -116,36 +231,396 @@ public class TarLz4Compressor {
      *                           under a new directory with this base name in the archive.
      * @return Path to the output file
      */
-    public synchronized Path compress(String sourcePath, String destinationPath, String outputFileBaseName) {
+    public Path compress(String sourcePath, String destinationPath, String outputFileBaseName) {
+        return compress(Path.of(sourcePath), Path.of(destinationPath), outputFileBaseName);
+    }
+
+    /**
+     * Compresses entries into a Tar Archive using LZ4 compression, without them having to be staged as files on disk.
+     * Outputs a .tar.lz4 file to the destination path.
+     *
+     * Entries can hold content in memory, or read it from a channel or from any {@link java.nio.file.FileSystem}.  They
+     * are archived in order under their own names, with directory entries added for their parent directories.  Same as
+     * for a source directory, entries are split into slices of about equal size which are compressed in parallel.
+     * Resumable mode doesn't apply, as there is no source to check checkpointed slices against.
+     *
+     * @param entries Entries to archive.  Names should be unique.
+     * @param destinationPath Destination path.  Should be the path to a directory where the .tar.lz4 will go.
+     * @param outputFileBaseName Output file base name, excluding the extension
+     * @return Path to the output file, else a RuntimeException would have been thrown
+     */
+    public synchronized Path compress(List<TarLz4EntrySource> entries, Path destinationPath, String outputFileBaseName) {
+        Path archivePath = destinationPath.resolve(outputFileBaseName + TAR_LZ4_EXTENSION);
         try {
-            File sourceFile = new File(sourcePath);
-            // TODO: If destination path does not exist, but is a directory, create the path
-            assert sourceFile.exists() && sourceFile.isDirectory() : "source path [" + sourcePath + "] is not a valid directory";
-            destinationPath = Path.of(destinationPath, outputFileBaseName + TAR_LZ4_EXTENSION).toString();
-            
-            // Get our file count
-            long fileCount = TarLz4Util.fileCount(Path.of(sourcePath));
-            log.debug("Compressing {} files from source={} to destination={}", fileCount, sourcePath, destinationPath);
+            lastStats = new TarLz4CompressorStats();
+            long throttleWaitStart = getThrottleWaitNanos();
+
+            Path partPath = partPath(archivePath);
+            resourcesCreated.add(partPath.toString());
+            long offset = writeEntries(entries, partPath.toString());
+            writeTrailer(partPath, offset);
+            publish(partPath, archivePath);
+            lastStats.setThrottleWaitNanos(getThrottleWaitNanos() - throttleWaitStart);
+
+            return archivePath;
+        } catch (Exception e) {
+            log.error("Could not lz4 compress " + entries.size() + " entries to destination=[" + archivePath + "]", e);
+            throw new RuntimeException(e);
+        } finally {
+            deleteResourcesCreated(false);
+        }
+    }
+
+    /**
+     * Appends files or directories to an existing .tar.lz4 archive, without recompressing what is already in it.
+     *
+     * The archive's entries are left untouched.  Only the final LZ4 frame holding the tar end-of-archive records is
+     * replaced by new frames for the appended sources, followed by a new end-of-archive frame.  For archives that do not
+     * keep the end-of-archive records in their own frame (such as archives created by older versions of this library),
+     * the last frame is re-encoded once without them.
+     *
+     * Each source is added at the root of the archive under its own file name, same as {@link #compress(Path, Path)}.
+     *
+     * @param archivePath Path to an existing .tar.lz4 archive
+     * @param newSources Paths to files or directories to add to the archive
+     * @return Path to the archive, else a RuntimeException would have been thrown
+     */
+    public synchronized Path append(Path archivePath, Path... newSources) {
+        try {
+            assert Files.isRegularFile(archivePath) : "archive path [" + archivePath + "] is not a valid .tar.lz4";
+            String destinationPath = archivePath.toString();
+            lastStats = new TarLz4CompressorStats();
+            long throttleWaitStart = getThrottleWaitNanos();
+
+            long offset = truncateTrailer(archivePath);
+            for (Path source : newSources) {
+                assert Files.exists(source) : "source path [" + source + "] does not exist";
+                offset = writeSource(source, destinationPath, offset, false);
+            }
+            writeTrailer(archivePath, offset);
+            if (fsync) {
+                sync(archivePath);
+            }
+            lastStats.setThrottleWaitNanos(getThrottleWaitNanos() - throttleWaitStart);
+
+            log.debug("Finished appending {} sources to archive={}", newSources.length, archivePath);
+            return archivePath;
+        } catch (Exception e) {
+            log.error("Could not append to archive=[" + archivePath + "]", e);
+            throw new RuntimeException(e);
+        } finally {
+            deleteResourcesCreated(false);
+        }
+    }
+
+    /**
+     * Compresses a source path into multiple .tar.lz4 volumes, each a complete archive that can be decompressed on its
+     * own.  Volumes are named after the source directory, numbered from 000 as in "name.000.tar.lz4".
+     *
+     * @param sourcePath Source path.  Should be the path to the directory to compress.
+     * @param destinationPath Destination path.  Should be the path to a directory where the volumes will go.
+     * @param volumeSize Target number of source bytes per volume
+     * @return Paths to the volumes in order, else a RuntimeException would have been thrown
+     * @see #compressVolumes(Path, Path, String, long)
+     */
+    public List<Path> compressVolumes(Path sourcePath, Path destinationPath, long volumeSize) {
+        return compressVolumes(sourcePath, destinationPath, sourcePath.getFileName().toString(), volumeSize);
+    }
+
+    /**
+     * Compresses a source path into multiple .tar.lz4 volumes, each a complete archive that can be decompressed on its
+     * own, so volumes can be uploaded and restored independently.
+     *
+     * Volumes are split along the same size balanced file intervals used to slice work across threads, so entries are
+     * never split across volumes, and every volume holds all directories of the source.  The volume size is a target for
+     * uncompressed source bytes.  A single file larger than it makes its volume larger, and compressed volumes are
+     * usually smaller.  Volumes are compressed in parallel, each on one thread.
+     *
+     * @param sourcePath Source path.  Should be the path to the directory to compress.
+     * @param destinationPath Destination path.  Should be the path to a directory where the volumes will go.
+     * @param outputFileBaseName Output file base name, excluding the volume number and extension
+     * @param volumeSize Target number of source bytes per volume
+     * @return Paths to the volumes in order, else a RuntimeException would have been thrown
+     */
+    public synchronized List<Path> compressVolumes(Path sourcePath, Path destinationPath, String outputFileBaseName, long volumeSize) {
+        List<Path> volumes = new ArrayList<>();
+        boolean success = false;
+        try {
+            assert Files.isDirectory(sourcePath) : "source path [" + sourcePath + "] is not a valid directory";
+            if (volumeSize <= 0) {
+                throw new IllegalArgumentException("volumeSize must be positive, got " + volumeSize);
+            }
+            lastStats = new TarLz4CompressorStats();
+            long throttleWaitStart = getThrottleWaitNanos();
+
+            SourceManifest manifest = SourceManifest.scan(sourcePath, sourceFilter);
+            long totalBytes = manifest.getTotalBytes();
+            int numVolumes = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 2, (totalBytes + volumeSize - 1) / volumeSize));
+            long[] fileNumIntervals = manifest.getIntervals(numVolumes);
+            // As with threads, there may be fewer intervals than requested if files can't be split that finely
+            int actualNumVolumes = (int) fileNumIntervals[fileNumIntervals.length - 2];
+            long fileCount = manifest.getFileCount();
+            log.debug("Compressing {} files from source={} into {} volumes", fileCount, sourcePath, actualNumVolumes);
+
+            lastStats.addTuning(Math.min(numThreads, actualNumVolumes), bufferSize);
+            CpuThrottle cpuThrottle = createCpuThrottle();
+            try {
+                writeVolumes(manifest, destinationPath, outputFileBaseName, fileCount, totalBytes, fileNumIntervals, 
+                        actualNumVolumes, volumes, cpuThrottle);
+            } finally {
+                if (cpuThrottle != null) {
+                    cpuThrottle.close();
+                    lastStats.addCpuThrottle(cpuThrottle);
+                }
+            }
+            lastStats.setThrottleWaitNanos(getThrottleWaitNanos() - throttleWaitStart);
+
+            success = true;
+            log.debug("Finished compressing source={} into {} volumes", sourcePath, volumes.size());
+            return volumes;
+        } catch (Exception e) {
+            log.error("Could not lz4 compress source=[" + sourcePath + "] to volumes in destination=[" + destinationPath + "]", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (!success) {
+                // Volumes published before the failure are an incomplete set
+                for (Path volume : volumes) {
+                    try {
+                        Files.deleteIfExists(volume);
+                    } catch (IOException e) {
+                        log.error("Failed to delete volume at " + volume, e);
+                    }
+                }
+            }
+            deleteResourcesCreated(false);
+        }
+    }
+
+    /**
+     * @param outputFileBaseName Base name of the volumes
+     * @param volume Volume number, indexed at 0
+     * @return File name of a volume, such as "name.000.tar.lz4"
+     */
+    public static String volumeFileName(String outputFileBaseName, int volume) {
+        return String.format("%s.%03d%s", outputFileBaseName, volume, TAR_LZ4_EXTENSION);
+    }
+
+    private void writeVolumes(SourceManifest manifest, Path destinationPath, String outputFileBaseName, long fileCount, long totalBytes, 
+                              long[] fileNumIntervals, int numVolumes, List<Path> volumes, CpuThrottle cpuThrottle) throws IOException, InterruptedException, ExecutionException {
+        TarLz4CompressTask[] tasks = new TarLz4CompressTask[numVolumes];
+        Future<?>[] futures = new Future<?>[numVolumes];
+        long bytesProcessed = 0;
+        try {
+            for (int i = 0; i < numVolumes; i++) {
+                long start = fileNumIntervals[i];
+                long end = i == numVolumes - 1 ? fileCount : fileNumIntervals[i + 1];
+                Path volume = destinationPath.resolve(volumeFileName(outputFileBaseName, i));
+                Path partVolume = partPath(volume);
+                volumes.add(volume);
+                resourcesCreated.add(partVolume.toString());
+
+                OutputStream volumeOutputFile = openOutput(partVolume, 0);
+                TarLz4CompressTask task = new TarLz4CompressTask(manifest, partVolume.toString(), start, end, i, numVolumes,
+                        bufferSize, totalBytes, false, taskOptions(cpuThrottle), volumeOutputFile);
+                tasks[i] = task;
+                futures[i] = executorService.submit(() -> {
+                    reserveMemory(taskMemory);
+                    try {
+                        task.run();
+                    } finally {
+                        releaseMemory(taskMemory);
+                    }
+                    // Each volume gets its own end-of-archive records, so it is a complete archive
+                    try {
+                        volumeOutputFile.close();
+                        writeTrailer(partVolume, Files.size(partVolume));
+                        publish(partVolume, volume);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+
+            for (int i = 0; i < numVolumes; i++) {
+                futures[i].get();
+                lastStats.addTask(tasks[i]);
+                if (shouldLogProgress) {
+                    long prevPercent = bytesProcessed * 100 / Math.max(1, totalBytes);
+                    bytesProcessed += tasks[i].getBytesProcessed();
+                    long currPercent = bytesProcessed * 100 / Math.max(1, totalBytes);
+                    if (prevPercent / logProgressPercentInterval < currPercent / logProgressPercentInterval) {
+                        log.info("TarLz4 compression progress: {}%", currPercent);
+                    }
+                }
+            }
+        } finally {
+            // Make sure no task is still writing to a volume before anything gets cleaned up
+            for (int i = 0; i < numVolumes; i++) {
+                if (futures[i] != null && !futures[i].isDone()) {
+                    try {
+                        futures[i].get();
+                    } catch (ExecutionException e) {
+                        // Already failing, the first failure is the one that gets thrown
+                    }
+                }
+                if (tasks[i] != null) {
+                    tasks[i].fos.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Archives and compresses a source into LZ4 frames written into the destination file starting at an offset.
+     * No tar end-of-archive records are written.
+     *
+     * @param resumable True to checkpoint completed slices, and reuse slices checkpointed by a previous run
+     * @return Offset in the destination file right after the written frames
+     */
+    private long writeSource(Path sourcePath, String destinationPath, long offset, boolean resumable) throws IOException, ExecutionException, InterruptedException {
+        // A single scan applies the filters, and gives the file count, slices and tuning of only the files archived
+        SourceManifest manifest = SourceManifest.scan(sourcePath, sourceFilter);
+        long fileCount = manifest.getFileCount();
+        int numThreads = this.numThreads;
+        int bufferSize = this.bufferSize;
+        if (autoTune) {
+            WorkloadProfile profile = manifest.getProfile();
+            numThreads = profile.suggestNumThreads(this.numThreads);
+            bufferSize = fitBufferSize(profile.suggestBufferSize(), numThreads);
+            log.info("Auto tuned compression of source={} to numThreads={}, bufferSize={} from {}", sourcePath, numThreads, bufferSize, profile);
+        }
+        log.debug("Compressing {} files from source={} to destination={}", fileCount, sourcePath, destinationPath);
+
+        long[] fileNumIntervals = numThreads < 2 ? null : manifest.getIntervals(numThreads);
+        long totalBytes = manifest.getTotalBytes();
+        String checkpointSource = resumable ? sourcePath.toAbsolutePath().normalize().toString() : null;
+        int taskBufferSize = bufferSize;
+        long endOffset = writeSlices(sourcePath.toString(), destinationPath, offset, checkpointSource, manifest, fileCount, 
+                fileNumIntervals, numThreads, bufferSize, (start, end, slice, numSlices, logProgress, cpuThrottle, out) -> 
+                        new TarLz4CompressTask(manifest, destinationPath, start, end, slice, numSlices, taskBufferSize, totalBytes, 
+                                logProgress, taskOptions(cpuThrottle), out));
+
+        log.debug("Finished compressing {} files from source={} to destination={}", fileCount, sourcePath, destinationPath);
+        return endOffset;
+    }
+
+    /**
+     * Archives and compresses entry sources into LZ4 frames written to the start of the destination file.  No tar
+     * end-of-archive records are written.
+     *
+     * @return Offset in the destination file right after the written frames
+     */
+    private long writeEntries(List<TarLz4EntrySource> sources, String destinationPath) throws IOException, ExecutionException, InterruptedException {
+        // Parent directories are shared by entries, and added to every slice so each slice is a complete archive
+        List<SourceEntry> directories = new ArrayList<>();
+        Map<String, SourceEntry> directoriesByName = new HashMap<>();
+        List<SourceEntry> files = new ArrayList<>(sources.size());
+        long[] sizes = new long[sources.size()];
+        long totalBytes = 0;
+        long largestFileSize = 0;
+        long now = System.currentTimeMillis();
+        for (TarLz4EntrySource source : sources) {
+            String name = source.getName();
+            int separator = name.lastIndexOf('/');
+            SourceEntry parent = separator < 0 ? null : directoryEntry(name.substring(0, separator), directoriesByName, directories, now);
+            sizes[files.size()] = source.getSize();
+            files.add(new SourceEntry(parent, name.substring(separator + 1), source.getSize(), source.getLastModifiedMillis(), source::openStream));
+            totalBytes += source.getSize();
+            largestFileSize = Math.max(largestFileSize, source.getSize());
+        }
+
+        int numThreads = this.numThreads;
+        int bufferSize = this.bufferSize;
+        if (autoTune) {
+            WorkloadProfile profile = WorkloadProfile.of(files.size(), totalBytes, largestFileSize);
+            numThreads = profile.suggestNumThreads(this.numThreads);
+            bufferSize = fitBufferSize(profile.suggestBufferSize(), numThreads);
+            log.info("Auto tuned compression of entries to numThreads={}, bufferSize={} from {}", numThreads, bufferSize, profile);
+        }
+        log.debug("Compressing {} entries to destination={}", files.size(), destinationPath);
+
+        long[] intervals = numThreads < 2 ? null : TarLz4Util.getIntervalsFromSizes(sizes, numThreads);
+        long entriesBytes = totalBytes;
+        int taskBufferSize = bufferSize;
+        return writeSlices(files.size() + " entries", destinationPath, 0, null, null, files.size(), intervals, numThreads, bufferSize, 
+                (start, end, slice, numSlices, logProgress, cpuThrottle, out) -> {
+                    List<SourceEntry> sliceEntries = new ArrayList<>(directories);
+                    sliceEntries.addAll(files.subList((int) start, (int) end));
+                    return new TarLz4CompressTask(sliceEntries, destinationPath, slice, numSlices, taskBufferSize, entriesBytes, 
+                            logProgress, taskOptions(cpuThrottle), out);
+                });
+    }
+
+    /**
+     * @return Entry of a directory, added along with entries of its own parent directories if not added yet
+     */
+    private static SourceEntry directoryEntry(String name, Map<String, SourceEntry> directoriesByName, 
+                                              List<SourceEntry> directories, long lastModifiedMillis) {
+        SourceEntry entry = directoriesByName.get(name);
+        if (entry == null) {
+            int separator = name.lastIndexOf('/');
+            SourceEntry parent = separator < 0 ? null 
+                    : directoryEntry(name.substring(0, separator), directoriesByName, directories, lastModifiedMillis);
+            entry = new SourceEntry(parent, name.substring(separator + 1), 0, lastModifiedMillis, null);
+            directoriesByName.put(name, entry);
+            directories.add(entry);
+        }
+        return entry;
+    }
 
-            if (numThreads < 2) {
+    /**
+     * Creates the task archiving the files numbered from start (inclusive) to end (exclusive) of a source, writing to
+     * an output.
+     */
+    @FunctionalInterface
+    private interface SliceTaskFactory {
+        TarLz4CompressTask create(long start, long end, int slice, int numSlices, boolean logProgress, 
+                                  CpuThrottle cpuThrottle, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Runs the task of each slice of a source, and writes their LZ4 frames into the destination file starting at an
+     * offset.
+     *
+     * @param source Description of the source for logging
+     * @param checkpointSource Absolute source path to checkpoint completed slices against, or null if not resumable
+     * @param manifest Manifest of the whole source to digest checkpointed slices from, or null if not resumable
+     * @param fileNumIntervals Intervals of files to split slices at, or null to write a single slice
+     * @return Offset in the destination file right after the written frames
+     */
+    private long writeSlices(String source, String destinationPath, long offset, String checkpointSource, 
+                             SourceManifest manifest, long fileCount, long[] fileNumIntervals, int numThreads, int bufferSize, 
+                             SliceTaskFactory taskFactory) 
+            throws IOException, ExecutionException, InterruptedException {
+        long taskMemory = bufferSize == this.bufferSize ? this.taskMemory 
+                : TarLz4CompressTask.memoryEstimate(bufferSize, blockSize, adaptiveCompression, prefetchDepth, directIO, sparseFiles);
+        lastStats.addTuning(numThreads, bufferSize);
+
+        long endOffset;
+        CpuThrottle cpuThrottle = createCpuThrottle();
+        try {
+            if (fileNumIntervals == null) {
                 // In the single-threaded case, we simply write directly to the final output file
-                try (FileOutputStream outputFile = new FileOutputStream(destinationPath)) {
-                    new TarLz4CompressTask(sourcePath, destinationPath, 0, fileCount, 0, 1, 
-                            this.bufferSize, TarLz4Util.getDirectorySize(sourceFile.toPath()), 
-                            shouldLogProgress, logProgressPercentInterval, verbosity, excludeFiles, outputFile).run();
+                reserveMemory(taskMemory);
+                try (OutputStream outputFile = openOutput(Path.of(destinationPath), offset)) {
+                    TarLz4CompressTask task = taskFactory.create(0, fileCount, 0, 1, shouldLogProgress, cpuThrottle, outputFile);
+                    task.run();
+                    lastStats.addTask(task);
+                } finally {
+                    releaseMemory(taskMemory);
                 }
+                endOffset = Files.size(Path.of(destinationPath));
             } else {
-                long[] fileNumIntervals = TarLz4Util.getFileCountIntervalsFromSize(Path.of(sourcePath), numThreads);
-
                 // We may in actuality use less than numThreads if the way files are split can cover all files early,
                 // or we have less files than numThreads.
                 int actualNumThreads = (int) fileNumIntervals[fileNumIntervals.length - 2];
 
                 // Reuse futures array
-                var futures = new Future[actualNumThreads];
-                
+                Future<?>[] futures = new Future<?>[actualNumThreads];
+            
                 // Archive + Compression tasks
-                submitArchiveTasks(sourcePath, destinationPath, fileCount, fileNumIntervals, actualNumThreads, futures);
+                submitArchiveTasks(source, destinationPath, fileCount, fileNumIntervals, actualNumThreads, futures, checkpointSource, 
+                        manifest, cpuThrottle, taskMemory, taskFactory);
 
                 // At this point, we have all our .tmp files which are standalone .tar.lz4 compressed archives for each  slice
                 // The .tmp files can't be opened themselves however, as they are a sliced part of the final output file.
@@ -159,35 +634,252 @@ public class TarLz4Compressor {
                 // This is made possible with the AsynchronousFileChannel API, which allows for writing bytes directly into a file
                 // at some specified offset position.
 
-                mergeTmpArchives(destinationPath, actualNumThreads, futures);
+                endOffset = directIO ? mergeTmpArchivesDirect(destinationPath, actualNumThreads, offset, bufferSize)
+                        : mergeTmpArchives(destinationPath, actualNumThreads, futures, offset, bufferSize);
             }
-
-            log.debug("Finished compressing {} files from source={} to destination={}", fileCount, sourcePath, destinationPath);
-            return Path.of(destinationPath);
-        } catch (Exception e) {
-            log.error("Could not lz4 compress source=[" + sourcePath + "] to destination=[" + destinationPath + "]", e);
-            throw new RuntimeException(e);
         } finally {
-            for (int i = 0; i < resourcesCreated.size(); i++) {
-                String tmpFileName = resourcesCreated.get(i);
-                try {
-                    Files.deleteIfExists(Path.of(tmpFileName));
-                } catch (IOException e) {
-                    log.error("Failed to delete .tmp file at " + tmpFileName, e);
+            if (cpuThrottle != null) {
+                cpuThrottle.close();
+                lastStats.addCpuThrottle(cpuThrottle);
+            }
+        }
+        return endOffset;
+    }
+
+    /**
+     * Writes the tar end-of-archive records as their own LZ4 frame at an offset, and truncates anything after it.
+     */
+    private void writeTrailer(Path destinationPath, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(destinationPath, WRITE)) {
+            ByteBuffer trailer = ByteBuffer.wrap(CustomTarArchiveOutputStream.createTrailerFrame());
+            channel.truncate(offset);
+            while (trailer.hasRemaining()) {
+                channel.write(trailer, offset + trailer.position());
+            }
+        }
+    }
+
+    /**
+     * @return Hidden path in the same directory that an output file is written to before being published
+     */
+    private static Path partPath(Path path) {
+        return path.resolveSibling("." + path.getFileName() + PART_SUFFIX);
+    }
+
+    /**
+     * Publishes a completely written file under its real name with an atomic rename, so readers never see a partial
+     * file.  If fsync is enabled, the file is synced to disk once before the rename, and its directory after.
+     */
+    private void publish(Path partPath, Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            throw new IOException("Output path [" + path + "] is a directory");
+        }
+        if (fsync) {
+            sync(partPath);
+        }
+        Files.move(partPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (fsync) {
+            try {
+                sync(path.toAbsolutePath().getParent());
+            } catch (IOException e) {
+                // Not all platforms can open directories to sync them
+                log.debug("Could not sync directory of {}: {}", path, e.toString());
+            }
+        }
+    }
+
+    private static void sync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Removes the tar end-of-archive records from an existing archive so more entries can be appended.
+     *
+     * @return Offset in the archive where new frames should be written
+     */
+    private long truncateTrailer(Path archivePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(archivePath, READ, WRITE)) {
+            // The stream is intentionally not closed, as that would close the channel we still need
+            List<Long> frameOffsets = new SeekableLz4FrameInputStream(channel, 0).scanFrameOffsets();
+            if (frameOffsets.isEmpty()) {
+                throw new IOException("Archive [" + archivePath + "] does not contain any LZ4 frames");
+            }
+            long lastFrameOffset = frameOffsets.get(frameOffsets.size() - 1);
+
+            // The last frame is usually just the end-of-archive frame.  If not, it also holds entries which we re-encode
+            // into a new frame without the end-of-archive records
+            reserveMemory(REENCODE_MEMORY);
+            try {
+                return truncateLastFrame(archivePath, channel, lastFrameOffset);
+            } finally {
+                releaseMemory(REENCODE_MEMORY);
+            }
+        }
+    }
+
+    /**
+     * Truncates the last frame of an archive if it only holds the end-of-archive records, else re-encodes it without them.
+     *
+     * @return Offset in the archive where new frames should be written
+     */
+    private long truncateLastFrame(Path archivePath, FileChannel channel, long lastFrameOffset) throws IOException {
+        InputStream lastFrame = new BufferedInputStream(new SeekableLz4FrameInputStream(channel, lastFrameOffset));
+        lastFrame.mark(TarConstants.DEFAULT_RCDSIZE);
+        byte[] header = new byte[TarConstants.DEFAULT_RCDSIZE];
+        int read = IOUtils.readFully(lastFrame, header);
+        lastFrame.reset();
+        if (read < header.length || Arrays.equals(header, new byte[header.length])) {
+            channel.truncate(lastFrameOffset);
+            return lastFrameOffset;
+        }
+
+        log.debug("Re-encoding last frame of archive={} at offset={} without end-of-archive records", archivePath, lastFrameOffset);
+        String tmpFilePath = archivePath + "_last" + TMP_SUFFIX;
+        resourcesCreated.add(tmpFilePath);
+        try (LZ4FrameOutputStream tmpOutput = new LZ4FrameOutputStream(new FileOutputStream(tmpFilePath))) {
+            TarLz4Util.copyUntilEndOfArchive(lastFrame, tmpOutput);
+        }
+        try (FileChannel tmpChannel = FileChannel.open(Path.of(tmpFilePath))) {
+            channel.truncate(lastFrameOffset);
+            long size = tmpChannel.size();
+            long transferred = 0;
+            while (transferred < size) {
+                transferred += channel.transferFrom(tmpChannel, lastFrameOffset + transferred, size - transferred);
+            }
+            return lastFrameOffset + size;
+        }
+    }
+
+    /**
+     * @param cpuThrottle CpuThrottle of the run, or null
+     * @return Options shared by every task of a run
+     */
+    private CompressTaskOptions taskOptions(CpuThrottle cpuThrottle) {
+        return new CompressTaskOptions()
+                .logProgressPercentInterval(logProgressPercentInterval)
+                .verbosity(verbosity)
+                .adaptiveCompression(adaptiveCompression)
+                .prefetchDepth(prefetchDepth)
+                .blockSize(blockSize)
+                .readLimiter(readLimiter)
+                .writeLimiter(writeLimiter)
+                .cpuThrottle(cpuThrottle)
+                .directIO(directIO)
+                .sparseFiles(sparseFiles);
+    }
+
+    /**
+     * @return CpuThrottle for a single writeSource() run if a CPU budget is set, else null
+     */
+    private CpuThrottle createCpuThrottle() {
+        if (cpuBudget <= 0) {
+            return null;
+        }
+        CpuThrottle cpuThrottle = new CpuThrottle(cpuBudget, numThreads);
+        if (!cpuThrottle.isSupported()) {
+            log.warn("Thread CPU time is not supported by this JVM, compressing with a fixed parallelism of {} for cpuBudget={}", 
+                    cpuThrottle.getParallelism(), cpuBudget);
+        }
+        return cpuThrottle;
+    }
+
+    /**
+     * Opens a file for writing at a position, truncating anything after it.  With direct I/O, the file is written
+     * bypassing the page cache where supported.
+     */
+    private OutputStream openOutput(Path path, long position) throws IOException {
+        if (!directIO) {
+            // FileOutputStream can only start at the beginning or the end, which is where the trailer was truncated
+            return new FileOutputStream(path.toFile(), position > 0);
+        }
+        DirectFileOutputStream output = new DirectFileOutputStream(path, position, DirectIO.BUFFER_SIZE);
+        if (!output.isDirect()) {
+            log.warn("Direct I/O is not supported for {}, writing through the page cache with periodic syncs instead", path);
+        }
+        return output;
+    }
+
+    /**
+     * Picks the largest LZ4 block size that lets all threads compress at the same time within the memory budget.
+     */
+    private int chooseBlockSize() {
+        int size = AdaptiveLz4FrameOutputStream.DEFAULT_BLOCK_SIZE;
+        if (memoryBudget == null) {
+            return size;
+        }
+        long perTask = memoryBudget.getLimit() / Math.max(1, numThreads);
+        while (size > MIN_BLOCK_SIZE && TarLz4CompressTask.memoryEstimate(bufferSize, size, adaptiveCompression, prefetchDepth, directIO, sparseFiles) > perTask) {
+            size /= 4;
+        }
+        log.debug("Using LZ4 block size {} for memory budget {} across {} threads", size, memoryBudget.getLimit(), numThreads);
+        return size;
+    }
+
+    /**
+     * Halves an auto tuned buffer size until all threads fit in the memory budget, but never below the configured size
+     * the block size was picked for.
+     */
+    private int fitBufferSize(int size, int numThreads) {
+        if (memoryBudget != null) {
+            long perTask = memoryBudget.getLimit() / Math.max(1, numThreads);
+            while (size / 2 >= bufferSize && TarLz4CompressTask.memoryEstimate(size, blockSize, adaptiveCompression, prefetchDepth, directIO, sparseFiles) > perTask) {
+                size /= 2;
+            }
+        }
+        return Math.max(size, bufferSize);
+    }
+
+    private void reserveMemory(long bytes) {
+        if (memoryBudget != null) {
+            try {
+                memoryBudget.reserve(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for memory budget", e);
+            }
+        }
+    }
+
+    private void releaseMemory(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    private long getThrottleWaitNanos() {
+        return (readLimiter != null ? readLimiter.getWaitedNanos() : 0) + (writeLimiter != null ? writeLimiter.getWaitedNanos() : 0);
+    }
+
+    private void deleteResourcesCreated(boolean keepCheckpointed) {
+        for (int i = 0; i < resourcesCreated.size(); i++) {
+            String tmpFileName = resourcesCreated.get(i);
+            try {
+                Path checkpointPath = SliceCheckpoint.checkpointPath(tmpFileName);
+                if (keepCheckpointed && Files.exists(checkpointPath)) {
+                    log.debug("Keeping checkpointed .tmp file at {} to resume from", tmpFileName);
+                    continue;
                 }
+                Files.deleteIfExists(Path.of(tmpFileName));
+                Files.deleteIfExists(checkpointPath);
+            } catch (IOException e) {
+                log.error("Failed to delete .tmp file at " + tmpFileName, e);
             }
-            resourcesCreated.clear();
         }
+        resourcesCreated.clear();
     }
     
-    private void submitArchiveTasks(String sourcePath, String destinationPath, long fileCount, long[] fileNumIntervals, int numThreads, Future<?>[] futures) 
-            throws IOException, ExecutionException, InterruptedException {
+    private void submitArchiveTasks(String sourcePath, String destinationPath, long fileCount, long[] fileNumIntervals, int numThreads, 
+                                    Future<?>[] futures, String checkpointSource, SourceManifest manifest, CpuThrottle cpuThrottle, 
+                                    long taskMemory, SliceTaskFactory taskFactory) throws IOException, ExecutionException, InterruptedException {
         // Get the file number intervals
         // TODO: Make it configurable to use file count vs this
         long totalBytes = fileNumIntervals[fileNumIntervals.length - 1];
         
         // In the multithreaded use case, we'll spin up `numThreads` threads, each writing to its own temporary file
         TarLz4CompressTask[] tasks = new TarLz4CompressTask[numThreads];
+        long resumedBytes = 0;  // Source bytes held by slices reused from a previous run
         
         boolean success = false;
 
@@ -212,16 +904,45 @@ public class TarLz4Compressor {
                 // suffixed with "_sliceNum.tmp"
                 // TODO: Make this randomly generated string and validate it doesn't already exist
                 String tmpFilePath = destinationPath + "_" + i + TMP_SUFFIX;
-                FileOutputStream tmpOutputFile = new FileOutputStream(tmpFilePath);
+                resourcesCreated.add(tmpFilePath);
 
-                TarLz4CompressTask runnable = new TarLz4CompressTask(sourcePath, destinationPath, start, end, i, numThreads,
-                        bufferSize, totalBytes, false, logProgressPercentInterval, verbosity, excludeFiles, tmpOutputFile);
+                // In resumable mode, a slice completed by a previous run against the same source doesn't need to be redone
+                SliceCheckpoint checkpoint = checkpointSource != null 
+                        ? new SliceCheckpoint(checkpointSource, start, end, numThreads, fileCount, totalBytes, 
+                                SliceCheckpoint.digest(manifest.slice(start, end))) : null;
+                long checkpointedBytes = checkpoint != null ? checkpoint.validate(tmpFilePath) : -1;
+                if (checkpointedBytes >= 0) {
+                    log.debug("Resuming from checkpointed slice {} with start={}, end={}", i, start, end - 1);
+                    futures[i] = CompletableFuture.completedFuture(null);
+                    resumedBytes += checkpointedBytes;
+                    lastStats.addResumedSlice(checkpointedBytes);
+                    continue;
+                }
+                Files.deleteIfExists(SliceCheckpoint.checkpointPath(tmpFilePath));
+                OutputStream tmpOutputFile = openOutput(Path.of(tmpFilePath), 0);
+
+                TarLz4CompressTask runnable = taskFactory.create(start, end, i, numThreads, false, cpuThrottle, tmpOutputFile);
 
                 // Save a reference to each Thread Future, and the Runnable, so we can properly close() or clean them up later
-                futures[i] = executorService.submit(runnable);
+                futures[i] = executorService.submit(() -> {
+                    // Wait for memory before the task allocates any of its buffers
+                    reserveMemory(taskMemory);
+                    try {
+                        runnable.run();
+                    } finally {
+                        releaseMemory(taskMemory);
+                    }
+                    if (checkpoint != null) {
+                        // Checkpoint as soon as the slice completes, so it survives other slices failing or the JVM dying
+                        try {
+                            tmpOutputFile.close();
+                            checkpoint.write(tmpFilePath, runnable.getBytesProcessed());
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
                 tasks[i] = runnable;
-                
-                resourcesCreated.add(tmpFilePath);
             }
 
             // Logging progress for multithreaded case, also waits for future to finish
@@ -230,10 +951,10 @@ public class TarLz4Compressor {
                 long prevPercent = 0;
                 boolean isDone;
                 do {
-                    currPercent = 0;
+                    currPercent = resumedBytes;
                     isDone = true;
                     for (int i = 0; i < numThreads; i++) {
-                        currPercent += tasks[i].getBytesProcessed();
+                        currPercent += tasks[i] != null ? tasks[i].getBytesProcessed() : 0;
                         isDone &= futures[i].isDone();
                     }
                     
@@ -249,7 +970,10 @@ public class TarLz4Compressor {
             // Wait for all futures to finish
             for (int i = 0; i < numThreads; i++) {
                 futures[i].get();
-                tasks[i].fos.close();   // Clean up and close the .tmp file OutputStreams
+                if (tasks[i] != null) {
+                    tasks[i].fos.close();   // Clean up and close the .tmp file OutputStreams
+                    lastStats.addTask(tasks[i]);
+                }
             }
             success = true;
         } finally {
@@ -257,8 +981,16 @@ public class TarLz4Compressor {
             if (!success) {
                 // Wait for all futures to finish
                 for (int i = 0; i < numThreads; i++) {
-                    futures[i].get();
-                    tasks[i].fos.close();   // Clean up and close the .tmp file OutputStreams
+                    if (futures[i] != null) {
+                        try {
+                            futures[i].get();
+                        } catch (ExecutionException e) {
+                            // Already failing, the first failure is the one that gets thrown
+                        }
+                    }
+                    if (tasks[i] != null) {
+                        tasks[i].fos.close();   // Clean up and close the .tmp file OutputStreams
+                    }
                 }
             }
         }
@@ -266,11 +998,70 @@ public class TarLz4Compressor {
         log.debug("Finished compressing archive task for source={}, destination={}", sourcePath, destinationPath);
     }
     
-    private void mergeTmpArchives(String destinationPath, int numThreads, Future<?>[] futures) throws IOException, ExecutionException, InterruptedException {
+    /**
+     * Merges .tmp files into the output file with direct I/O.  Direct writes must start on block boundaries, which the
+     * regions of slices in the output file don't, so slices are appended one after the other through one aligned buffer.
+     */
+    private long mergeTmpArchivesDirect(String destinationPath, int numThreads, long offset, int bufferSize) throws IOException {
+        long mergeMemory = 2L * (DirectIO.BUFFER_SIZE + DirectIO.DEFAULT_ALIGNMENT) + bufferSize;
+        reserveMemory(mergeMemory);
+        try (OutputStream destination = openOutput(Path.of(destinationPath), offset)) {
+            ByteBuffer readBuffer = DirectIO.allocate(DirectIO.BUFFER_SIZE, DirectIO.alignment(Path.of(destinationPath)));
+            byte[] buf = new byte[bufferSize];
+            long endOffset = offset;
+            for (int i = 0; i < numThreads; i++) {
+                log.debug("Writing output region for slice {}", i);
+                TarLz4MergeEvent event = new TarLz4MergeEvent();
+                event.begin();
+                long regionOffset = endOffset;
+                Path tmpFilePath = Path.of(destinationPath + "_" + i + TMP_SUFFIX);
+                InputStream tmpInput;
+                try {
+                    tmpInput = new DirectFileInputStream(tmpFilePath, readBuffer);
+                } catch (IOException | UnsupportedOperationException e) {
+                    tmpInput = Files.newInputStream(tmpFilePath);
+                }
+                try (InputStream in = tmpInput) {
+                    int read;
+                    while ((read = in.read(buf)) != -1) {
+                        if (readLimiter != null) {
+                            readLimiter.acquire(read);
+                        }
+                        if (writeLimiter != null) {
+                            writeLimiter.acquire(read);
+                        }
+                        destination.write(buf, 0, read);
+                        endOffset += read;
+                    }
+                }
+                commitMergeEvent(event, i, regionOffset, endOffset - regionOffset, destinationPath);
+            }
+            return endOffset;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging .tmp files");
+        } finally {
+            releaseMemory(mergeMemory);
+        }
+    }
+
+    private static void commitMergeEvent(TarLz4MergeEvent event, int slice, long offset, long bytes, String destinationPath) {
+        if (event.shouldCommit()) {
+            event.slice = slice;
+            event.offset = offset;
+            event.bytes = bytes;
+            event.destination = destinationPath;
+            event.commit();
+        }
+    }
+
+    private long mergeTmpArchives(String destinationPath, int numThreads, Future<?>[] futures, long offset, int bufferSize) throws IOException, ExecutionException, InterruptedException {
         // Pre-check which indices of futures are nonEmpty
         FileInputStream[] tmpFiles = new FileInputStream[numThreads];
         FileChannel[] tmpChannels = new FileChannel[numThreads];
         long[] fileChannelOffsets = new long[numThreads];
+        fileChannelOffsets[0] = offset;
+        long endOffset = offset;
 
         // This grabs a FileChannel to read for each .tmp file, and also calculates what all the fileChannel position offsets
         // we should use for each Thread, based on the size in bytes of each .tmp file
@@ -280,20 +1071,33 @@ public class TarLz4Compressor {
             if (i < numThreads - 1) {
                 fileChannelOffsets[i + 1] = fileChannelOffsets[i] + tmpChannels[i].size();
             }
+            endOffset += tmpChannels[i].size();
+        }
+
+        // The final size is known from the .tmp files, so the output is sized up front rather than extended out of order
+        // by the parallel writes below.  Java can't fallocate, so this may be sparse, but as all data is written before
+        // the file is synced, the file system's delayed allocation can still lay it out in one go.
+        try (RandomAccessFile output = new RandomAccessFile(destinationPath, "rw")) {
+            output.setLength(endOffset);
         }
 
         // Create an AsynchronousFileChannel for the final output `.tar.lz4` file
         // This channel is has the capability to WRITE to the file, or CREATE it if it doesn't yet exist
         AsynchronousFileChannel destChannel = AsynchronousFileChannel.open(Path.of(destinationPath), WRITE, CREATE);
+        long[] mergeMemory = new long[numThreads];  // Memory reserved by each merge thread, to release
         for (int i = 0; i < numThreads; i++) {
             int finalI = i;
             // Let's again spin up a thread for each .tmp file to write to its slice, or region in the final output file
             futures[i] = executorService.submit(() -> {
                 try {
                     log.debug("Writing output region for slice {}", finalI);
+                    TarLz4MergeEvent event = new TarLz4MergeEvent();
+                    event.begin();
                     String tmpFilePath = destinationPath + "_" + finalI + ".tmp";
 
                     // You can play around with the buffer size to optimize
+                    reserveMemory(bufferSize);
+                    mergeMemory[finalI] = bufferSize;
                     ByteBuffer buf = ByteBuffer.allocate(bufferSize);
 
                     // Let's get our FileChannel which we opened earlier, for the .tmp file
@@ -304,6 +1108,12 @@ public class TarLz4Compressor {
                     int read;
                     while ((read = tmpChannel.read(buf)) != -1) {
                         buf.flip();
+                        if (readLimiter != null) {
+                            readLimiter.acquire(read);
+                        }
+                        if (writeLimiter != null) {
+                            writeLimiter.acquire(read);
+                        }
                         // Write bytes from the .tmp file to the offset position in the final output file
                         destChannel.write(buf, pos).get();
                         // Update our position for this thread
@@ -315,9 +1125,12 @@ public class TarLz4Compressor {
                     // final output file
                     tmpChannel.close();
                     tmpFiles[finalI].close();
+                    commitMergeEvent(event, finalI, fileChannelOffsets[finalI], pos - fileChannelOffsets[finalI], destinationPath);
                     log.debug("Finished writing output region for slice {}", finalI);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
+                } finally {
+                    releaseMemory(mergeMemory[finalI]);
                 }
             });
         }
@@ -329,5 +1142,6 @@ public class TarLz4Compressor {
 
         // Done!
         destChannel.close();
+        return endOffset;
     }
 }
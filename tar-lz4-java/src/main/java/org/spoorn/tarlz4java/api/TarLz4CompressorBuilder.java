@@ -1,7 +1,12 @@
 package org.spoorn.tarlz4java.api;
 
+import org.spoorn.tarlz4java.core.WorkloadProfile;
 import org.spoorn.tarlz4java.logging.Verbosity;
+import org.spoorn.tarlz4java.util.concurrent.MemoryBudget;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 
@@ -10,13 +15,26 @@ import java.util.concurrent.ExecutorService;
  */
 public class TarLz4CompressorBuilder {
 
-    private ExecutorService executorService = null;
-    private int bufferSize = 8192;
-    private int numThreads = 1;
-    private boolean shouldLogProgress = false;
-    private int logProgressPercentInterval = 10;
-    private Verbosity verbosity = Verbosity.WARN;
-    private Set<String> excludeFiles = null;
+    ExecutorService executorService = null;
+    int bufferSize = 8192;
+    int numThreads = 1;
+    boolean shouldLogProgress = false;
+    int logProgressPercentInterval = 10;
+    Verbosity verbosity = Verbosity.WARN;
+    Set<String> excludeFiles = null;
+    List<String> includes = new ArrayList<>();
+    List<String> excludes = new ArrayList<>();
+    boolean adaptiveCompression = false;
+    int prefetchDepth = 0;
+    boolean resumable = false;
+    long readBytesPerSecond = 0;
+    long writeBytesPerSecond = 0;
+    double cpuBudget = 0;
+    MemoryBudget memoryBudget = null;
+    boolean autoTune = false;
+    boolean directIO = false;
+    boolean fsync = true;
+    boolean sparseFiles = false;
     
     public TarLz4CompressorBuilder() {
         
@@ -99,15 +117,223 @@ public class TarLz4CompressorBuilder {
         return this;
     }
 
+    /**
+     * Only archives files matching at least one of these patterns.  Patterns use the syntax of
+     * {@link java.nio.file.FileSystem#getPathMatcher(String)}, are globs if they have no "glob:" or "regex:" prefix,
+     * and are matched against paths relative to the source directory.  Directories are still walked and archived.
+     *
+     * Can be called more than once to add patterns.
+     *
+     * @param patterns Patterns of files to include, such as "**&#47;*.java"
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder include(String... patterns) {
+        this.includes.addAll(Arrays.asList(patterns));
+        return this;
+    }
+
+    /**
+     * Excludes files and directories matching any of these patterns, with the same syntax as {@link #include(String...)}.
+     * Excluded directories are pruned during the scan without listing anything in them, and excluded files are left out
+     * of slice balancing and progress.
+     *
+     * A glob with no directory, like "node_modules", only matches at the top of the source.  Use "**&#47;node_modules" to
+     * also match it below, or {@link #excludeFiles(Set)} to exclude an exact name anywhere.
+     *
+     * @param patterns Patterns of files and directories to exclude, such as "**&#47;.git" or "regex:.*\.tmp"
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder exclude(String... patterns) {
+        this.excludes.addAll(Arrays.asList(patterns));
+        return this;
+    }
+
+    /**
+     * Enables adaptive compression.  The start of each file is sampled to check if it compresses, and files that don't
+     * (such as media, zip or jar files) are stored as uncompressed LZ4 blocks without spending CPU on compressing them.
+     * 
+     * The number of files stored uncompressed is reported in {@link TarLz4Compressor#getLastStats()}.
+     *
+     * @param adaptiveCompression True to skip compressing incompressible files, else false
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder adaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+        return this;
+    }
+
+    /**
+     * Enables reading source files ahead on a separate thread per slice, so reading overlaps with compression.  This
+     * mostly helps with high latency storage, where the compression threads would otherwise wait on reads.
+     * 
+     * Files are read ahead in chunks of {@link #bufferSize(int)} bytes, and at most this many chunks are buffered per
+     * slice.  Prefetch depth and stall times are reported in {@link TarLz4Compressor#getLastStats()}.
+     *
+     * @param prefetchDepth Max number of chunks to read ahead per slice, or 0 to disable reading ahead
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder prefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    /**
+     * Enables resumable compression.  Each completed slice's .tmp file is kept with a small checkpoint next to it until
+     * the final archive is written, instead of deleting all .tmp files when compression fails.  Running compression
+     * again with the same source, destination and number of threads will then only compress slices that are missing
+     * or invalid.
+     * 
+     * Slices are only reused if the source's file count and total size did not change.  This only applies to
+     * multithreaded compression, as the single-threaded case writes directly to the output file.
+     *
+     * @param resumable True to keep and reuse completed slices across runs, else false
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder resumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    /**
+     * Limits how fast source files are read, in bytes per second across all threads.  Reading the .tmp slices back
+     * when merging them into the final archive also counts against this limit.
+     * 
+     * Useful to keep compression from saturating disks that are shared with other workloads.
+     *
+     * @param readBytesPerSecond Max bytes read per second, or 0 for no limit
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder readBytesPerSecond(long readBytesPerSecond) {
+        this.readBytesPerSecond = readBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Limits how fast the compressed output is written, in bytes per second across all threads.  This applies both to
+     * writing the .tmp slices and merging them into the final archive.
+     *
+     * @param writeBytesPerSecond Max bytes written per second, or 0 for no limit
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder writeBytesPerSecond(long writeBytesPerSecond) {
+        this.writeBytesPerSecond = writeBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Limits the CPU used for compression, in number of CPU cores.  For example, 1.5 lets compression threads use up to
+     * one and a half cores in total, regardless of numThreads.
+     * 
+     * The number of threads compressing at once is adjusted while compressing to stay under the budget.  Threads that
+     * are waiting on their turn still read ahead from disk if prefetching is enabled.
+     *
+     * @param cpuBudget Number of CPU cores compression may use, or 0 for no limit
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder cpuBudget(double cpuBudget) {
+        this.cpuBudget = cpuBudget;
+        return this;
+    }
+
+    /**
+     * Limits the memory held in buffers while compressing, in bytes.  Compression threads wait for each other to release
+     * their buffers rather than going over the budget, and the LZ4 block size is lowered if needed so that all threads
+     * fit in the budget at the same time.
+     * 
+     * Use {@link #memoryBudget(MemoryBudget)} to share one budget with other compressors and decompressors.
+     *
+     * @param memoryBudget Max bytes held in buffers, or 0 for no limit
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder memoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget > 0 ? new MemoryBudget(memoryBudget) : null;
+        return this;
+    }
+
+    /**
+     * Limits the memory held in buffers while compressing, shared with anything else using the same budget.
+     *
+     * @param memoryBudget Memory budget to reserve buffers from, or null for no limit
+     * @return TarLz4CompressorBuilder
+     * @see #memoryBudget(long)
+     */
+    public TarLz4CompressorBuilder memoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Picks the number of threads and buffer size for each compression from a scan of the source, instead of using
+     * numThreads and bufferSize as is.
+     * 
+     * Small sources are compressed on a single thread straight into the output file, skipping .tmp files and the merge.
+     * Larger ones get a thread per {@link WorkloadProfile#MIN_SLICE_BYTES} of content, up to the number of available
+     * processors or numThreads if higher, and a buffer sized after the average file.  bufferSize is kept as the smallest
+     * buffer used.  The decision is logged, and reported in {@link TarLz4Compressor#getLastStats()}.
+     *
+     * @param autoTune True to auto tune threads and buffer size
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder autoTune(boolean autoTune) {
+        this.autoTune = autoTune;
+        return this;
+    }
+
+    /**
+     * Reads source files and writes .tmp and output files with direct I/O, bypassing the OS page cache.  For very
+     * large archives, this keeps compression from evicting the cached data of other processes on the same host.
+     * 
+     * Where the file system doesn't support direct I/O, files are read and written through the page cache as usual, and
+     * written files are synced every {@link org.spoorn.tarlz4java.io.DirectFileOutputStream#SYNC_INTERVAL} bytes so dirty
+     * pages don't pile up.  As direct writes must be block aligned, .tmp files are merged one after the other instead of
+     * in parallel.
+     *
+     * @param directIO True to use direct I/O
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder directIO(boolean directIO) {
+        this.directIO = directIO;
+        return this;
+    }
+
+    /**
+     * Archives are written under a hidden name in the destination directory, and renamed to their real name atomically
+     * once complete, so readers never see a partial archive.  With fsync, the archive is synced to disk once right
+     * before it is renamed, so the rename can't be persisted ahead of the data in a crash.  Appending syncs the archive
+     * once at the end.
+     *
+     * @param fsync True to sync archives to disk before publishing them, false to leave it to the OS.  Defaults to true.
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder fsync(boolean fsync) {
+        this.fsync = fsync;
+        return this;
+    }
+
+    /**
+     * Stores large files that are mostly zeros, such as VM images and preallocated database files, as sparse entries.
+     * Zero regions of 64KB or more are left out of the archive as holes, and are skipped instead of written back when
+     * extracting, so the extracted file is sparse again.  Entries use the GNU PAX 1.0 sparse format, which GNU tar
+     * and bsdtar also extract.
+     * 
+     * Files of 1MB or more are checked by reading a few chunks spread over them, and only files where one is all zeros
+     * are scanned in full for holes, which reads their data twice.  The number of sparse files and the bytes of holes
+     * left out are reported in {@link TarLz4Compressor#getLastStats()}.
+     *
+     * @param sparseFiles True to store zero regions of large files as holes, else false.  Defaults to false.
+     * @return TarLz4CompressorBuilder
+     */
+    public TarLz4CompressorBuilder sparseFiles(boolean sparseFiles) {
+        this.sparseFiles = sparseFiles;
+        return this;
+    }
+
     /**
      * Builds the TarLz4Compressor using parameters.
      * 
      * @return A ready TarLz4Compressor
      */
     public TarLz4Compressor build() {
-        if (this.executorService == null) {
-            return new TarLz4Compressor(numThreads, bufferSize, shouldLogProgress, logProgressPercentInterval, verbosity, excludeFiles);
-        }
-        return new TarLz4Compressor(numThreads, bufferSize, shouldLogProgress, logProgressPercentInterval, verbosity, executorService, excludeFiles);
+        return new TarLz4Compressor(this);
     }
 }
@@ -0,0 +1,81 @@
+package org.spoorn.tarlz4java.api;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.spoorn.tarlz4java.core.FilePrefetcher;
+import org.spoorn.tarlz4java.core.TarLz4CompressTask;
+import org.spoorn.tarlz4java.util.concurrent.CpuThrottle;
+
+/**
+ * Statistics collected during a single compression run of a {@link TarLz4Compressor}.
+ */
+@Getter
+public class TarLz4CompressorStats {
+
+    private int numThreads;  // Threads used, auto tuned or configured.  The highest across sources when appending several.
+    private int bufferSize;  // Buffer size used, auto tuned or configured.  The highest across sources when appending several.
+    private long bytesProcessed;  // Bytes of file content read from the source
+    private long incompressibleFiles;  // Files stored uncompressed by adaptive compression
+    private long incompressibleBytes;  // Bytes of files stored uncompressed by adaptive compression
+    private long sparseFiles;  // Files stored as sparse entries
+    private long sparseHoleBytes;  // Bytes of zeros left out of sparse entries as holes
+    private int resumedSlices;  // Slices reused from a previous run in resumable mode
+    private long throttleWaitNanos;  // Total time threads waited on read and write rate limits
+    private int minCpuParallelism;  // Lowest number of threads compressing at once under the CPU budget, or 0 if unlimited
+    private long prefetchStallNanos;  // Total time compression threads waited on prefetched reads
+    private int prefetchMaxDepth;  // Max number of chunks that were read ahead of a compression thread
+    @Getter(AccessLevel.NONE)
+    private long prefetchDepthSum;
+    @Getter(AccessLevel.NONE)
+    private long prefetchTakes;
+
+    void addTask(TarLz4CompressTask task) {
+        this.bytesProcessed += task.getBytesProcessed();
+        this.incompressibleFiles += task.getIncompressibleFiles();
+        this.incompressibleBytes += task.getIncompressibleBytes();
+        this.sparseFiles += task.getSparseFileCount();
+        this.sparseHoleBytes += task.getSparseHoleBytes();
+        FilePrefetcher prefetcher = task.getPrefetcher();
+        if (prefetcher != null) {
+            this.prefetchStallNanos += prefetcher.getStallNanos();
+            this.prefetchMaxDepth = Math.max(this.prefetchMaxDepth, prefetcher.getMaxDepth());
+            this.prefetchDepthSum += prefetcher.getDepthSum();
+            this.prefetchTakes += prefetcher.getTakes();
+        }
+    }
+
+    void addTuning(int numThreads, int bufferSize) {
+        this.numThreads = Math.max(this.numThreads, numThreads);
+        this.bufferSize = Math.max(this.bufferSize, bufferSize);
+    }
+
+    void addResumedSlice(long bytesProcessed) {
+        this.bytesProcessed += bytesProcessed;
+        this.resumedSlices++;
+    }
+
+    void addCpuThrottle(CpuThrottle cpuThrottle) {
+        this.minCpuParallelism = this.minCpuParallelism == 0 ? cpuThrottle.getMinParallelism()
+                : Math.min(this.minCpuParallelism, cpuThrottle.getMinParallelism());
+    }
+
+    void setThrottleWaitNanos(long throttleWaitNanos) {
+        this.throttleWaitNanos = throttleWaitNanos;
+    }
+
+    /**
+     * @return Average number of chunks that were read ahead whenever a compression thread needed more data
+     */
+    public double getPrefetchAverageDepth() {
+        return prefetchTakes == 0 ? 0 : (double) prefetchDepthSum / prefetchTakes;
+    }
+
+    @Override
+    public String toString() {
+        return "TarLz4CompressorStats{numThreads=" + numThreads + ", bufferSize=" + bufferSize + ", bytesProcessed=" + bytesProcessed + ", incompressibleFiles=" + incompressibleFiles
+                + ", incompressibleBytes=" + incompressibleBytes + ", sparseFiles=" + sparseFiles + ", sparseHoleBytes=" + sparseHoleBytes 
+                + ", resumedSlices=" + resumedSlices 
+                + ", throttleWaitNanos=" + throttleWaitNanos + ", minCpuParallelism=" + minCpuParallelism + ", prefetchStallNanos=" + prefetchStallNanos
+                + ", prefetchMaxDepth=" + prefetchMaxDepth + ", prefetchAverageDepth=" + getPrefetchAverageDepth() + "}";
+    }
+}
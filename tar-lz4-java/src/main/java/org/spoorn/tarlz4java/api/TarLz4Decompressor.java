@@ -1,35 +1,82 @@
 package org.spoorn.tarlz4java.api;
 
 import static org.spoorn.tarlz4java.api.TarLz4Compressor.TAR_LZ4_EXTENSION;
-import net.jpountz.lz4.LZ4FrameInputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.logging.log4j.Logger;
+import org.spoorn.tarlz4java.io.SeekableLz4FrameInputStream;
+import org.spoorn.tarlz4java.io.TarLz4Index;
+import org.spoorn.tarlz4java.io.TarStreamReader;
+import org.spoorn.tarlz4java.logging.TarLz4ExtractEvent;
 import org.spoorn.tarlz4java.logging.TarLz4Logger;
 import org.spoorn.tarlz4java.logging.Verbosity;
 import org.spoorn.tarlz4java.util.TarLz4Util;
+import org.spoorn.tarlz4java.util.concurrent.MemoryBudget;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TarLz4Decompressor {
 
+    private static final int COPY_BUFFER_SIZE = 8192;
+    // Decoded and compressed LZ4 blocks of up to 4 MB, tar record buffers and the copy buffer
+    private static final long DECOMPRESS_MEMORY = 2L * 4 * 1024 * 1024 + 4 * 1024 + COPY_BUFFER_SIZE;
+    private static final Pattern VOLUME_NUMBER = Pattern.compile("\\.\\d{3,}$");  // Suffix added to volume base names
     private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(TarLz4Decompressor.class);
     private final boolean shouldLogProgress;
     private final int logProgressPercentInterval;
     private final Verbosity verbosity;
     private final TarLz4Logger log;
+    private final MemoryBudget memoryBudget;  // null if memory is not limited
+    private final boolean skipUnchanged;
+    private final boolean compareContent;
+    private final boolean deleteExtraneous;
     
     public TarLz4Decompressor(boolean shouldLogProgress, int logProgressPercentInterval, Verbosity verbosity) {
-        this.shouldLogProgress = shouldLogProgress;
-        this.logProgressPercentInterval = logProgressPercentInterval;
-        this.verbosity = verbosity;
+        this(new TarLz4DecompressorBuilder().shouldLogProgress(shouldLogProgress)
+                .logProgressPercentInterval(logProgressPercentInterval).verbosity(verbosity));
+    }
+
+    TarLz4Decompressor(TarLz4DecompressorBuilder builder) {
+        this.shouldLogProgress = builder.shouldLogProgress;
+        this.logProgressPercentInterval = builder.logProgressPercentInterval;
+        this.verbosity = builder.verbosity;
+        this.memoryBudget = builder.memoryBudget;
+        this.skipUnchanged = builder.skipUnchanged;
+        this.compareContent = builder.compareContent;
+        this.deleteExtraneous = builder.deleteExtraneous;
         this.log = new TarLz4Logger(logger, verbosity);
     }
 
+    /**
+     * The memory budget buffers are reserved from.  Its current reservation shows how much memory is held in buffers by
+     * this decompressor, and any others sharing the budget.
+     *
+     * @return Memory budget, or null if memory is not limited
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     /**
      * Decompresses/extracts a .tar.lz4 compressed archive.
      *
@@ -58,56 +105,364 @@ public class TarLz4Decompressor {
             destinationPath = Path.of(destinationPath, sourceBaseName).toString();
 
             log.debug("Decompressing archive from source={} to destination={}", sourcePath, destinationPath);
+            Set<Path> extracted = new HashSet<>();
+            extract(sourceFile, destinationPath, extracted);
 
-            TarArchiveEntry entry = null;
-            try (FileInputStream fis = new FileInputStream(sourceFile);
-                 LZ4FrameInputStream lz4FrameInputStream = new LZ4FrameInputStream(fis);
-                 TarArchiveInputStream tais = new TarArchiveInputStream(lz4FrameInputStream)) {
-                
-                long totalBytes = sourceFile.length();
-                long bytesProcessed = 0;
+            Path res = Path.of(destinationPath);
+            if (deleteExtraneous) {
+                deleteExtraneous(res, extracted);
+            }
+            log.debug("Finished decompressing {} files from source={} to destination={}", TarLz4Util.fileCount(res), sourcePath, destinationPath);
+            return res;
+        } catch (Exception e) {
+            log.error("Could not decompress source=[" + sourcePath + "] to destination=[" + destinationPath + "]", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decompresses/extracts volumes created by {@link TarLz4Compressor#compressVolumes(Path, Path, String, long)} into the
+     * same directory, as if they were a single archive.  The directory is named after the volumes without their volume
+     * number, i.e. "name.000.tar.lz4" extracts to "name".
+     *
+     * Volumes are complete archives on their own, so any subset of them can be extracted, such as a single volume per host
+     * to restore in parallel.
+     *
+     * @param volumes Paths to .tar.lz4 volumes to decompress
+     * @param destinationPath Path to a destination directory to put the extracted files in
+     * @return Path to the destination directory the volumes were decompressed into
+     */
+    public Path decompressVolumes(List<Path> volumes, Path destinationPath) {
+        assert !volumes.isEmpty() : "no volumes to decompress";
+        String volumeFileName = volumes.get(0).getFileName().toString();
+        String baseName = volumeFileName.substring(0, volumeFileName.lastIndexOf(TAR_LZ4_EXTENSION));
+        Path res = destinationPath.resolve(VOLUME_NUMBER.matcher(baseName).replaceFirst(""));
+        Set<Path> extracted = new HashSet<>();
+        for (Path volume : volumes) {
+            try {
+                assert Files.isRegularFile(volume) : "volume [" + volume + "] is not a valid .tar.lz4";
+                log.debug("Decompressing volume from source={} to destination={}", volume, res);
+                extract(volume.toFile(), res.toString(), extracted);
+            } catch (Exception e) {
+                log.error("Could not decompress volume=[" + volume + "] to destination=[" + res + "]", e);
+                throw new RuntimeException(e);
+            }
+        }
+        if (deleteExtraneous) {
+            try {
+                deleteExtraneous(res, extracted);
+            } catch (IOException e) {
+                log.error("Could not delete extraneous files from destination=[" + res + "]", e);
+                throw new RuntimeException(e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param extracted Paths of everything extracted so far, which the destinations of this archive's entries are added to
+     */
+    private void extract(File sourceFile, String destinationPath, Set<Path> extracted) throws IOException {
+        String entryName = null;
+        // Comparing content needs a second buffer for the file on disk
+        long memory = DECOMPRESS_MEMORY + (skipUnchanged && compareContent ? COPY_BUFFER_SIZE : 0);
+        reserveMemory(memory);
+        // Headers are parsed straight from decoded blocks, and skipped files' contents are sought over rather than decompressed
+        try (FileChannel channel = FileChannel.open(sourceFile.toPath());
+             TarStreamReader reader = new TarStreamReader(new SeekableLz4FrameInputStream(channel))) {
+            
+            long totalBytes = sourceFile.length();
+            long bytesProcessed = 0;
+            long filesSkipped = 0;
+            byte[] buffer = skipUnchanged && compareContent ? new byte[COPY_BUFFER_SIZE] : null;
+            byte[] existingBuffer = skipUnchanged && compareContent ? new byte[COPY_BUFFER_SIZE] : null;
+            
+            while (reader.next()) {
+                entryName = reader.getName();
+                Path dest = Path.of(destinationPath, entryName);
                 
-                while ((entry = tais.getNextTarEntry()) != null) {
-                    Path dest = Path.of(destinationPath, entry.getName());
-                    
-                    if (entry.isDirectory()) {
-                        Files.createDirectories(dest);
+                if (reader.isDirectory()) {
+                    extracted.add(dest.normalize());
+                    Files.createDirectories(dest);
+                } else if (!reader.isFile()) {
+                    // Not extracted, but in the archive, so an existing one is not extraneous
+                    extracted.add(dest.normalize());
+                    log.debug("Skipping {} as it is not a regular file or directory", entryName);
+                } else {
+                    extracted.add(dest.normalize());
+                    FileTime lastModifiedTime = FileTime.fromMillis(reader.getLastModifiedMillis());
+                    BasicFileAttributes existing = skipUnchanged ? readAttributesIfExists(dest) : null;
+                    boolean sameSize = existing != null && existing.isRegularFile() && existing.size() == reader.getSize();
+                    // Only large files are recorded, so small files don't flood recordings
+                    TarLz4ExtractEvent event = reader.getSize() >= TarLz4ExtractEvent.MIN_SIZE ? new TarLz4ExtractEvent() : null;
+                    if (event != null) {
+                        event.begin();
+                    }
+                    long read;
+                    long written = 0;
+                    if (sameSize && !compareContent && sameSecond(existing.lastModifiedTime(), lastModifiedTime)) {
+                        // Its content is skipped when moving to the next entry
+                        read = reader.getSize();
+                        filesSkipped++;
+                    } else if (sameSize && compareContent) {
+                        read = reader.getSize();
+                        written = syncContent(reader, dest, buffer, existingBuffer);
+                        if (written == 0) {
+                            filesSkipped++;
+                        }
+                        Files.setLastModifiedTime(dest, lastModifiedTime);
+                    } else if (reader.isSparse()) {
+                        read = reader.getSize();
+                        written = writeSparse(reader, dest);
+                        Files.setLastModifiedTime(dest, lastModifiedTime);
                     } else {
-                        try (FileOutputStream fos = new FileOutputStream(dest.toString())) {
-                            byte[] content = new byte[(int) entry.getSize()];
-                            int read = 0;
-                            while (read < entry.getSize()) {
-                                read += tais.read(content, read, content.length - read);
-                            }
-                            
-                            if (this.shouldLogProgress) {
-                                long prevBytesProcessed = bytesProcessed;
-                                bytesProcessed += read;
-                                int prevPercent = Math.min((int) (prevBytesProcessed * 100 / totalBytes), 100);
-                                int currPercent = Math.min((int) ((bytesProcessed) * 100 / totalBytes), 100);
-                                int interval = logProgressPercentInterval;
-                                if (prevPercent / interval < currPercent / interval) {
-                                    log.info("TarLz4 decompression progress: {}%", currPercent);
+                        try (FileChannel out = openForWrite(dest)) {
+                            // Written straight from the decoded blocks, so memory doesn't grow with the size of entries
+                            read = 0;
+                            ByteBuffer slice;
+                            while ((slice = reader.readSlice()) != null) {
+                                while (slice.hasRemaining()) {
+                                    read += out.write(slice);
                                 }
                             }
-
-                            fos.write(content);
                         }
+                        written = read;
+                        Files.setLastModifiedTime(dest, lastModifiedTime);
+                    }
+                    if (event != null && event.shouldCommit()) {
+                        event.entry = entryName;
+                        event.size = reader.getSize();
+                        event.bytesWritten = written;
+                        event.commit();
+                    }
+                        
+                    if (this.shouldLogProgress) {
+                        long prevBytesProcessed = bytesProcessed;
+                        bytesProcessed += read;
+                        int prevPercent = Math.min((int) (prevBytesProcessed * 100 / totalBytes), 100);
+                        int currPercent = Math.min((int) ((bytesProcessed) * 100 / totalBytes), 100);
+                        int interval = logProgressPercentInterval;
+                        if (prevPercent / interval < currPercent / interval) {
+                            log.info("TarLz4 decompression progress: {}%", currPercent);
+                        }
+                    }
+                }
+            }
+            if (skipUnchanged) {
+                log.debug("Skipped {} unchanged files extracting {}", filesSkipped, sourceFile);
+            }
+        } catch (Exception e) {
+            if (entryName != null) {
+                log.error("Error decompressing Tar Archive Entry {}", entryName);
+            }
+            throw e;
+        } finally {
+            releaseMemory(memory);
+        }
+    }
+
+    /**
+     * Writes only the data segments of a sparse entry at their offsets, seeking past its holes instead of writing zeros,
+     * so the file is sparse again on file systems that support it.
+     *
+     * @return Number of bytes written
+     */
+    private static long writeSparse(TarStreamReader reader, Path dest) throws IOException {
+        long written = 0;
+        try (FileChannel out = openForWrite(dest)) {
+            ByteBuffer slice;
+            while ((slice = reader.readSlice()) != null) {
+                long position = reader.getSliceOffset();
+                if (position + slice.remaining() > reader.getSize()) {
+                    // The reader validates sparse maps, so this only guards against writing past the entry's size
+                    throw new IOException("Sparse data at offset " + position + " is past the end of " + reader.getName());
+                }
+                while (slice.hasRemaining()) {
+                    int n = out.write(slice, position);
+                    position += n;
+                    written += n;
+                }
+            }
+            if (out.size() < reader.getSize()) {
+                // FileChannel can't extend a file without writing, so a trailing hole ends with a single zero byte
+                written += out.write(ByteBuffer.allocate(1), reader.getSize() - 1);
+            }
+        }
+        return written;
+    }
+
+    private static FileChannel openForWrite(Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // Archives from other tools don't always have entries for every parent directory
+            Files.createDirectories(path.getParent());
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    private static BasicFileAttributes readAttributesIfExists(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tar headers only keep last modified times to the second.
+     */
+    private static boolean sameSecond(FileTime a, FileTime b) {
+        return a.to(TimeUnit.SECONDS) == b.to(TimeUnit.SECONDS);
+    }
+
+    /**
+     * Compares an entry's content to a file of the same size at its destination, and rewrites the file only from the
+     * first chunk that differs.
+     *
+     * @return Number of bytes rewritten, or 0 if the file was identical
+     */
+    private static long syncContent(TarStreamReader reader, Path dest, byte[] buffer, byte[] existingBuffer) throws IOException {
+        FileChannel writer = null;
+        long written = 0;
+        try (FileChannel existingChannel = FileChannel.open(dest, StandardOpenOption.READ)) {
+            long position = 0;
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                if (writer == null) {
+                    ByteBuffer existing = ByteBuffer.wrap(existingBuffer, 0, n);
+                    while (existing.hasRemaining() && existingChannel.read(existing, position + existing.position()) != -1) {
+                    }
+                    if (existing.hasRemaining() || Arrays.mismatch(buffer, 0, n, existingBuffer, 0, n) != -1) {
+                        writer = FileChannel.open(dest, StandardOpenOption.WRITE);
+                    }
+                }
+                if (writer != null) {
+                    ByteBuffer src = ByteBuffer.wrap(buffer, 0, n);
+                    while (src.hasRemaining()) {
+                        writer.write(src, position + src.position());
                     }
+                    written += n;
                 }
+                position += n;
+            }
+            return written;
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes everything under a directory that was not extracted, other than parents of extracted files.
+     */
+    private void deleteExtraneous(Path directory, Set<Path> extracted) throws IOException {
+        Set<Path> keep = new HashSet<>();
+        Path root = directory.normalize();
+        for (Path path : extracted) {
+            for (Path p = path; p != null && keep.add(p) && !p.equals(root); p = p.getParent()) {
+            }
+        }
+        List<Path> extraneous;
+        try (Stream<Path> files = Files.walk(root)) {
+            // Children sort after their parents, so reversing deletes directories after their contents
+            extraneous = files.filter(path -> !path.equals(root) && !keep.contains(path))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (Path path : extraneous) {
+            Files.delete(path);
+        }
+        log.debug("Deleted {} extraneous files and directories from {}", extraneous.size(), root);
+    }
+
+    /**
+     * Lists the entries of a .tar.lz4 compressed archive without extracting anything.
+     *
+     * Entries are read lazily as the returned iterator is advanced.  Entry contents are skipped by seeking over whole
+     * LZ4 blocks where possible, so listing is mostly bound by the number of entries rather than the archive size.
+     * Archives with an embedded {@link TarLz4Index}, such as those rewritten by {@link TarLz4Transcoder}, are listed
+     * from their index without reading any tar header.  The iterator should be closed if it is not fully consumed.
+     *
+     * @param sourcePath Path to .tar.lz4 file to list
+     * @return Lazy iterator over the archive's entries
+     */
+    public TarLz4ArchiveIterator list(Path sourcePath) {
+        try {
+            assert Files.isRegularFile(sourcePath) : "source path [" + sourcePath + "] is not a valid .tar.lz4";
+            log.debug("Listing archive entries from source={}", sourcePath);
+
+            TarLz4Index index;
+            try (FileChannel channel = FileChannel.open(sourcePath)) {
+                index = TarLz4Index.read(channel);
+            }
+            if (index != null) {
+                log.debug("Listing {} entries from the embedded index of source={}", index.getEntries().size(), sourcePath);
+                return new TarLz4ArchiveIterator(index.getEntries().stream()
+                        .map(TarLz4ArchiveEntry::fromIndexEntry)
+                        .collect(Collectors.toList()));
+            }
+
+            reserveMemory(DECOMPRESS_MEMORY);
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(sourcePath);
+                // Memory is released once the iterator is closed, which also happens when it is fully consumed
+                InputStream in = new FilterInputStream(new SeekableLz4FrameInputStream(channel)) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            try {
+                                super.close();
+                            } finally {
+                                releaseMemory(DECOMPRESS_MEMORY);
+                            }
+                        }
+                    }
+                };
+                return new TarLz4ArchiveIterator(new TarArchiveInputStream(in));
             } catch (Exception e) {
-                if (entry != null) {
-                    log.error("Error decompressing Tar Archive Entry {}", entry.getName());
+                if (channel != null) {
+                    channel.close();
                 }
+                releaseMemory(DECOMPRESS_MEMORY);
                 throw e;
             }
-
-            Path res = Path.of(destinationPath);
-            log.debug("Finished decompressing {} files from source={} to destination={}", TarLz4Util.fileCount(res), sourcePath, destinationPath);
-            return res;
-        } catch (Exception e) {
-            log.error("Could not decompress source=[" + sourcePath + "] to destination=[" + destinationPath + "]", e);
+        } catch (IOException e) {
+            log.error("Could not list archive source=[" + sourcePath + "]", e);
             throw new RuntimeException(e);
         }
     }
+
+    private void reserveMemory(long bytes) throws IOException {
+        if (memoryBudget != null) {
+            try {
+                memoryBudget.reserve(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for memory budget");
+            }
+        }
+    }
+
+    private void releaseMemory(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Lists the entries of a .tar.lz4 compressed archive without extracting anything.
+     *
+     * @param sourcePath Path to .tar.lz4 file to list
+     * @return Lazy iterator over the archive's entries
+     * @see #list(Path)
+     */
+    public TarLz4ArchiveIterator list(String sourcePath) {
+        return list(Path.of(sourcePath));
+    }
 }
@@ -1,15 +1,20 @@
 package org.spoorn.tarlz4java.api;
 
 import org.spoorn.tarlz4java.logging.Verbosity;
+import org.spoorn.tarlz4java.util.concurrent.MemoryBudget;
 
 /**
  * Convenience builder to create a {@link TarLz4Decompressor}.
  */
 public class TarLz4DecompressorBuilder {
     
-    private boolean shouldLogProgress = false;
-    private int logProgressPercentInterval = 10;
-    private Verbosity verbosity = Verbosity.WARN;
+    boolean shouldLogProgress = false;
+    int logProgressPercentInterval = 10;
+    Verbosity verbosity = Verbosity.WARN;
+    MemoryBudget memoryBudget = null;
+    boolean skipUnchanged = false;
+    boolean compareContent = false;
+    boolean deleteExtraneous = false;
     
     public TarLz4DecompressorBuilder() {
         
@@ -50,7 +55,75 @@ public class TarLz4DecompressorBuilder {
         return this;
     }
     
+    /**
+     * Limits the memory held in buffers while decompressing or listing archives, in bytes.  Each decompression or
+     * listing waits for others to release their buffers rather than going over the budget.
+     *
+     * Use {@link #memoryBudget(MemoryBudget)} to share one budget with other compressors and decompressors.
+     *
+     * @param memoryBudget Max bytes held in buffers, or 0 for no limit
+     * @return TarLz4DecompressorBuilder
+     */
+    public TarLz4DecompressorBuilder memoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget > 0 ? new MemoryBudget(memoryBudget) : null;
+        return this;
+    }
+
+    /**
+     * Limits the memory held in buffers while decompressing, shared with anything else using the same budget.
+     *
+     * @param memoryBudget Memory budget to reserve buffers from, or null for no limit
+     * @return TarLz4DecompressorBuilder
+     * @see #memoryBudget(long)
+     */
+    public TarLz4DecompressorBuilder memoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+    
+    /**
+     * Extracts into an existing directory like a sync, only writing files that changed.  Files already at their
+     * destination with the same size and last modified time as their archive entry are left untouched, and their
+     * contents are skipped over in the archive by seeking over whole LZ4 blocks rather than decompressing them.
+     *
+     * Extracted files always get the last modified time of their archive entry, so a restored directory is up-to-date
+     * for the next sync.
+     *
+     * @param skipUnchanged True to skip files that are unchanged on disk, else false to rewrite every file
+     * @return TarLz4DecompressorBuilder
+     */
+    public TarLz4DecompressorBuilder skipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+        return this;
+    }
+
+    /**
+     * When skipping unchanged files, also compares the content of files with the same size as their archive entry,
+     * instead of trusting their last modified time.  Files are only rewritten from the first chunk that differs, so
+     * this catches files changed in place at the cost of reading them, but without rewriting identical content.
+     *
+     * @param compareContent True to compare contents of same-size files, else false to only compare size and time
+     * @return TarLz4DecompressorBuilder
+     * @see #skipUnchanged(boolean)
+     */
+    public TarLz4DecompressorBuilder compareContent(boolean compareContent) {
+        this.compareContent = compareContent;
+        return this;
+    }
+
+    /**
+     * Deletes files and directories in the extracted directory that are not in the archive, so it mirrors the archive
+     * after extracting.  When decompressing volumes, only files in none of the given volumes are deleted.
+     *
+     * @param deleteExtraneous True to delete files missing from the archive, else false
+     * @return TarLz4DecompressorBuilder
+     */
+    public TarLz4DecompressorBuilder deleteExtraneous(boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+        return this;
+    }
+
     public TarLz4Decompressor build() {
-        return new TarLz4Decompressor(shouldLogProgress, logProgressPercentInterval, verbosity);
+        return new TarLz4Decompressor(this);
     }
 }
@@ -0,0 +1,120 @@
+package org.spoorn.tarlz4java.api;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.spoorn.tarlz4java.io.ByteBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Content to archive as a single file entry, without it having to be a file on disk.
+ *
+ * Content can come from memory, such as generated reports or data already in a {@link ByteBuffer}, from a channel
+ * opened on demand, or from a path on any {@link java.nio.file.FileSystem}, such as an in-memory or zip file system.
+ * Content is only read when the entry is written to the archive.
+ *
+ * @see TarLz4Compressor#compress(java.util.List, Path, String)
+ */
+@Getter
+public class TarLz4EntrySource {
+
+    /**
+     * Opens the content of an entry.  May be called from any compression thread.
+     */
+    @FunctionalInterface
+    public interface ChannelSupplier {
+        ReadableByteChannel open() throws IOException;
+    }
+
+    private final String name;  // Entry name/path inside the archive, using '/' as separator
+    private final long size;  // Size of the content in bytes
+    private final long lastModifiedMillis;
+    @Getter(AccessLevel.NONE)
+    private final ChannelSupplier channelSupplier;  // null if content is a buffer
+    @Getter(AccessLevel.NONE)
+    private final ByteBuffer buffer;  // null if content is read from a channel
+
+    /**
+     * @param name Entry name/path inside the archive, using '/' as separator.  Parent directories are added to the archive.
+     * @param size Exact size of the content in bytes
+     * @param lastModifiedMillis Last modified time in milliseconds since the epoch
+     * @param channelSupplier Opens the content.  The channel is closed once the entry is written.
+     */
+    public TarLz4EntrySource(String name, long size, long lastModifiedMillis, ChannelSupplier channelSupplier) {
+        this(name, size, lastModifiedMillis, channelSupplier, null);
+    }
+
+    private TarLz4EntrySource(String name, long size, long lastModifiedMillis, ChannelSupplier channelSupplier, ByteBuffer buffer) {
+        if (name == null || name.isEmpty() || name.startsWith("/") || name.endsWith("/") || name.contains("//")
+                || hasDotSegment(name)) {
+            throw new IllegalArgumentException("Entry name must be a relative file path, got [" + name + "]");
+        }
+        this.name = name;
+        this.size = size;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.channelSupplier = channelSupplier;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Names with "." or ".." segments could be extracted outside the destination, or clash with other entries.
+     */
+    private static boolean hasDotSegment(String name) {
+        for (String segment : name.split("/")) {
+            if (segment.equals(".") || segment.equals("..")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param name Entry name/path inside the archive, using '/' as separator
+     * @param content Content of the entry.  Its remaining bytes are archived, without changing its position.
+     * @return Entry source over the buffer, last modified now
+     */
+    public static TarLz4EntrySource of(String name, ByteBuffer content) {
+        return new TarLz4EntrySource(name, content.remaining(), System.currentTimeMillis(), null, content.asReadOnlyBuffer());
+    }
+
+    /**
+     * @param name Entry name/path inside the archive, using '/' as separator
+     * @param content Content of the entry
+     * @return Entry source over the array, last modified now
+     */
+    public static TarLz4EntrySource of(String name, byte[] content) {
+        return of(name, ByteBuffer.wrap(content));
+    }
+
+    /**
+     * @param name Entry name/path inside the archive, using '/' as separator
+     * @param path Regular file on any file system, whose size and last modified time are read now
+     * @return Entry source over the file
+     * @throws IOException If the file's attributes can't be read
+     */
+    public static TarLz4EntrySource of(String name, Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new TarLz4EntrySource(name, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                () -> Files.newByteChannel(path));
+    }
+
+    /**
+     * @return Stream over the entry's content.  Buffers are read in place, without going through a channel.
+     * @throws IOException If the content can't be opened
+     */
+    InputStream openStream() throws IOException {
+        return buffer != null ? new ByteBufferInputStream(buffer.duplicate()) : Channels.newInputStream(channelSupplier.open());
+    }
+
+    @Override
+    public String toString() {
+        return "TarLz4EntrySource{name=" + name + ", size=" + size + "}";
+    }
+}
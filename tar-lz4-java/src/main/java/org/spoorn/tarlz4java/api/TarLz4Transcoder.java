@@ -0,0 +1,221 @@
+package org.spoorn.tarlz4java.api;
+
+import org.apache.logging.log4j.Logger;
+import org.spoorn.tarlz4java.io.AdaptiveLz4FrameOutputStream;
+import org.spoorn.tarlz4java.io.CustomTarArchiveOutputStream;
+import org.spoorn.tarlz4java.io.SeekableLz4FrameInputStream;
+import org.spoorn.tarlz4java.io.TarLz4Index;
+import org.spoorn.tarlz4java.io.TarStreamReader;
+import org.spoorn.tarlz4java.logging.TarLz4Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Rewrites an existing .tar.lz4 archive into one with many LZ4 frames, split between entries, without extracting it.
+ *
+ * Archives compressed with a single thread, or by other tools, are a single LZ4 frame, so readers can only start at
+ * its beginning.  The transcoder reads the archive once, copying its raw tar stream entry by entry, headers included,
+ * into new frames of about {@link TarLz4TranscoderBuilder#frameSize(long)} uncompressed bytes each.  Entries are never
+ * split between frames, so every frame starts on a tar header, same as the slices of a multi-threaded archive.  The
+ * end-of-archive records get a frame of their own, so the rewritten archive can be appended to.
+ *
+ * Every byte of the source is decoded to be copied, so the content checksums of its frames are all verified, and a
+ * mismatch fails the transcode without replacing anything.
+ *
+ * The rewritten archive can embed a {@link TarLz4Index} of its frames and entries, which the
+ * {@link org.spoorn.tarlz4java.fs.TarLz4FileSystemProvider} mounts from without walking the tar headers.
+ */
+public class TarLz4Transcoder {
+
+    private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(TarLz4Transcoder.class);
+    private static final String PART_SUFFIX = ".part";
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final long frameSize;
+    private final int blockSize;
+    private final boolean embedIndex;
+    private final boolean fsync;
+    private final TarLz4Logger log;
+
+    TarLz4Transcoder(TarLz4TranscoderBuilder builder) {
+        this.frameSize = builder.frameSize;
+        this.blockSize = builder.blockSize;
+        this.embedIndex = builder.embedIndex;
+        this.fsync = builder.fsync;
+        this.log = new TarLz4Logger(logger, builder.verbosity);
+    }
+
+    /**
+     * Rewrites an archive as multiple LZ4 frames split at entry boundaries.  The destination can be the source itself,
+     * which is then replaced atomically once the rewritten archive is complete.
+     *
+     * @param sourcePath Path to the .tar.lz4 archive to rewrite
+     * @param destinationPath Path to write the rewritten .tar.lz4 archive to
+     * @return Path to the rewritten archive
+     */
+    public Path transcode(Path sourcePath, Path destinationPath) {
+        Path partPath = destinationPath.resolveSibling("." + destinationPath.getFileName() + PART_SUFFIX);
+        try {
+            log.debug("Transcoding archive from source={} to destination={} with frameSize={}", sourcePath, destinationPath, frameSize);
+            TarLz4Index index = new TarLz4Index();
+            int entries = 0;
+            try (FileChannel channel = FileChannel.open(sourcePath, READ);
+                 TarStreamReader reader = new TarStreamReader(new SeekableLz4FrameInputStream(channel));
+                 FrameOutput output = new FrameOutput(new BufferedOutputStream(Files.newOutputStream(partPath), OUTPUT_BUFFER_SIZE), index)) {
+                reader.setCopy(output);
+                while (true) {
+                    // The rest of the current entry still goes to its frame, and the next entry may start a new one
+                    reader.skipEntry();
+                    if (output.frameBytes >= frameSize) {
+                        output.endFrame();
+                    }
+                    if (!reader.next()) {
+                        break;
+                    }
+                    entries++;
+                    if (embedIndex) {
+                        // Right after its header, the copied tar stream is at the entry's content
+                        index.addEntry(new TarLz4Index.Entry(Arrays.copyOf(reader.getNameBuffer(), reader.getNameLength()),
+                                reader.getTypeFlag(), reader.getMode(), reader.isDirectory(), reader.getSize(),
+                                reader.getLastModifiedMillis(), output.streamOffset, reader.getSparseSegments()));
+                    }
+                }
+                output.endFrame();
+                index.addFrame(output.fileOffset, output.streamOffset);
+                output.writeRaw(CustomTarArchiveOutputStream.createTrailerFrame());
+                if (embedIndex) {
+                    index.write(output.file);
+                }
+            }
+
+            publish(partPath, destinationPath);
+            log.debug("Finished transcoding {} entries into {} frames from source={} to destination={}", entries,
+                    index.getFrames().size(), sourcePath, destinationPath);
+            return destinationPath;
+        } catch (Exception e) {
+            log.error("Could not transcode source=[" + sourcePath + "] to destination=[" + destinationPath + "]", e);
+            try {
+                Files.deleteIfExists(partPath);
+            } catch (IOException ex) {
+                log.error("Could not delete partial archive " + partPath, ex);
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Publishes the rewritten archive under its real name with an atomic rename, same as the compressor.
+     */
+    private void publish(Path partPath, Path path) throws IOException {
+        if (fsync) {
+            try (FileChannel channel = FileChannel.open(partPath, READ)) {
+                channel.force(true);
+            }
+        }
+        Files.move(partPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the copied tar stream into LZ4 frames, starting a frame on the first write after the previous one ended.
+     */
+    private class FrameOutput extends OutputStream {
+        private final OutputStream file;
+        private final TarLz4Index index;
+        private long fileOffset;  // Bytes written to the file
+        private long streamOffset;  // Bytes of the tar stream written
+        private long frameBytes;  // Bytes of the tar stream written to the current frame
+        private AdaptiveLz4FrameOutputStream frame;
+
+        FrameOutput(OutputStream out, TarLz4Index index) {
+            this.file = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    fileOffset++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    fileOffset += len;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                }
+            };
+            this.index = index;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (frame == null) {
+                index.addFrame(fileOffset, streamOffset);
+                // Frames are closed at their end, which must not close the file
+                frame = new AdaptiveLz4FrameOutputStream(new NonClosingOutputStream(file), blockSize);
+            }
+            frame.write(b, off, len);
+            frameBytes += len;
+            streamOffset += len;
+        }
+
+        void endFrame() throws IOException {
+            if (frame != null) {
+                frame.close();
+                frame = null;
+                frameBytes = 0;
+            }
+        }
+
+        void writeRaw(byte[] b) throws IOException {
+            file.write(b, 0, b.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                endFrame();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private static class NonClosingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            // The underlying file is closed once every frame is written
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.spoorn.tarlz4java.api;
+
+import org.spoorn.tarlz4java.io.AdaptiveLz4FrameOutputStream;
+import org.spoorn.tarlz4java.logging.Verbosity;
+
+/**
+ * Convenience builder to create a {@link TarLz4Transcoder}.
+ */
+public class TarLz4TranscoderBuilder {
+
+    long frameSize = 64L * 1024 * 1024;
+    int blockSize = AdaptiveLz4FrameOutputStream.DEFAULT_BLOCK_SIZE;
+    boolean embedIndex = true;
+    boolean fsync = true;
+    Verbosity verbosity = Verbosity.WARN;
+
+    public TarLz4TranscoderBuilder() {
+
+    }
+
+    /**
+     * Sets the target size of each LZ4 frame of the rewritten archive, in uncompressed bytes.  Frames are only ended
+     * between entries, so a frame holds entries until it reaches this size, and an entry larger than it gets a frame of
+     * its own.
+     *
+     * @param frameSize Target uncompressed bytes per frame
+     * @return TarLz4TranscoderBuilder
+     */
+    public TarLz4TranscoderBuilder frameSize(long frameSize) {
+        this.frameSize = frameSize;
+        return this;
+    }
+
+    /**
+     * Sets the max LZ4 block size of the rewritten frames.  Smaller blocks make random reads through the
+     * {@link org.spoorn.tarlz4java.fs.TarLz4FileSystemProvider} decode less per read, at a small cost in ratio.
+     *
+     * @param blockSize Max block size, one of 64 KB, 256 KB, 1 MB or 4 MB
+     * @return TarLz4TranscoderBuilder
+     */
+    public TarLz4TranscoderBuilder blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Embeds an index of the archive's frames and entries at its end, as an LZ4 skippable frame that other tools
+     * ignore.  Mounting an indexed archive reads its index instead of walking every tar header.
+     *
+     * @param embedIndex True to embed an index, else false
+     * @return TarLz4TranscoderBuilder
+     */
+    public TarLz4TranscoderBuilder embedIndex(boolean embedIndex) {
+        this.embedIndex = embedIndex;
+        return this;
+    }
+
+    /**
+     * Same as {@link TarLz4CompressorBuilder#fsync(boolean)}, the rewritten archive is published under its real name
+     * atomically once complete, and synced to disk right before if enabled.
+     *
+     * @param fsync True to sync the archive to disk before publishing it, false to leave it to the OS.  Defaults to true.
+     * @return TarLz4TranscoderBuilder
+     */
+    public TarLz4TranscoderBuilder fsync(boolean fsync) {
+        this.fsync = fsync;
+        return this;
+    }
+
+    /**
+     * Sets the verbosity level.  See {@link Verbosity} for documentation.
+     *
+     * @param verbosity Verbosity level
+     * @return TarLz4TranscoderBuilder
+     */
+    public TarLz4TranscoderBuilder verbosity(Verbosity verbosity) {
+        this.verbosity = verbosity;
+        return this;
+    }
+
+    public TarLz4Transcoder build() {
+        return new TarLz4Transcoder(this);
+    }
+}
@@ -0,0 +1,118 @@
+package org.spoorn.tarlz4java.core;
+
+import lombok.Getter;
+import org.spoorn.tarlz4java.io.AdaptiveLz4FrameOutputStream;
+import org.spoorn.tarlz4java.logging.Verbosity;
+import org.spoorn.tarlz4java.util.concurrent.CpuThrottle;
+import org.spoorn.tarlz4java.util.concurrent.RateLimiter;
+
+/**
+ * Options of a compression run that every {@link TarLz4CompressTask} of the run shares, built once from the compressor.
+ * What differs between tasks, such as their slice and output, is passed to each task directly.
+ */
+@Getter
+public class CompressTaskOptions {
+
+    private int logProgressPercentInterval = 10;
+    private Verbosity verbosity = Verbosity.WARN;
+    private boolean adaptiveCompression;
+    private int prefetchDepth;
+    private int blockSize = AdaptiveLz4FrameOutputStream.DEFAULT_BLOCK_SIZE;
+    private RateLimiter readLimiter;
+    private RateLimiter writeLimiter;
+    private CpuThrottle cpuThrottle;
+    private boolean directIO;
+    private boolean sparseFiles;
+
+    /**
+     * @param logProgressPercentInterval Percentage interval to log progress at
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions logProgressPercentInterval(int logProgressPercentInterval) {
+        this.logProgressPercentInterval = logProgressPercentInterval;
+        return this;
+    }
+
+    /**
+     * @param verbosity Logging verbosity
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions verbosity(Verbosity verbosity) {
+        this.verbosity = verbosity;
+        return this;
+    }
+
+    /**
+     * @param adaptiveCompression True to store files that don't compress without compressing them
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions adaptiveCompression(boolean adaptiveCompression) {
+        this.adaptiveCompression = adaptiveCompression;
+        return this;
+    }
+
+    /**
+     * @param prefetchDepth Number of chunks to read ahead on a separate thread, or 0 to disable
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions prefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    /**
+     * @param blockSize LZ4 block size
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * @param readLimiter Limits source file reads, or null for no limit
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions readLimiter(RateLimiter readLimiter) {
+        this.readLimiter = readLimiter;
+        return this;
+    }
+
+    /**
+     * @param writeLimiter Limits output writes, or null for no limit
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions writeLimiter(RateLimiter writeLimiter) {
+        this.writeLimiter = writeLimiter;
+        return this;
+    }
+
+    /**
+     * @param cpuThrottle Limits CPU used for compression, or null for no limit
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions cpuThrottle(CpuThrottle cpuThrottle) {
+        this.cpuThrottle = cpuThrottle;
+        return this;
+    }
+
+    /**
+     * @param directIO True to read source files bypassing the page cache.  Only applies to files on the default file
+     *                 system.
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions directIO(boolean directIO) {
+        this.directIO = directIO;
+        return this;
+    }
+
+    /**
+     * @param sparseFiles True to store zero regions of large files as holes of sparse entries.  Only applies to tasks
+     *                    archiving a source path.
+     * @return CompressTaskOptions
+     */
+    public CompressTaskOptions sparseFiles(boolean sparseFiles) {
+        this.sparseFiles = sparseFiles;
+        return this;
+    }
+}
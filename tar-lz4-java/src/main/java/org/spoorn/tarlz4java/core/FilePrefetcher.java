@@ -0,0 +1,220 @@
+package org.spoorn.tarlz4java.core;
+
+import lombok.Getter;
+import org.apache.logging.log4j.Logger;
+import org.spoorn.tarlz4java.io.DirectFileInputStream;
+import org.spoorn.tarlz4java.io.DirectIO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads files ahead of a {@link TarLz4CompressTask} on its own thread, so source reads overlap with compression.
+ *
+ * Files are read in order into fixed size chunks, and handed to the consumer through a queue holding at most
+ * {@code depth} chunks.  Chunk buffers are recycled once consumed, so at most {@code depth + 2} chunks are ever
+ * allocated.  The consumer reads each file in the same order through {@link #nextFile()}.
+ */
+public class FilePrefetcher implements Runnable {
+
+    private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(FilePrefetcher.class);
+    private static final Chunk END = new Chunk(null, 0, true, null);
+
+    private final List<SourceEntry> files;
+    private final int chunkSize;
+    private final BlockingQueue<Chunk> ready;
+    private final BlockingQueue<byte[]> free;
+    private final boolean directIO;
+    private ByteBuffer directBuffer;  // Aligned buffer for direct reads, or null if reads use the page cache
+    private volatile boolean closed;
+
+    @Getter
+    private long stallNanos;  // Time the consumer spent waiting for data to be read
+    @Getter
+    private long depthSum;  // Sum of chunks ready on each take, to average the prefetch depth
+    @Getter
+    private long takes;
+    @Getter
+    private int maxDepth;
+
+    public FilePrefetcher(List<SourceEntry> files, int chunkSize, int depth) {
+        this(files, chunkSize, depth, false);
+    }
+
+    /**
+     * @param files File entries to read, in order
+     * @param chunkSize Size of each chunk read ahead
+     * @param depth Max number of chunks read ahead
+     * @param directIO True to read files bypassing the page cache, falling back to regular reads if not supported.
+     *                 Entries without a path are always read through their opener.
+     */
+    public FilePrefetcher(List<SourceEntry> files, int chunkSize, int depth, boolean directIO) {
+        this.files = files;
+        this.chunkSize = chunkSize;
+        this.ready = new ArrayBlockingQueue<>(depth);
+        this.free = new ArrayBlockingQueue<>(depth + 2);
+        this.directIO = directIO;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (directIO && !files.isEmpty()) {
+                this.directBuffer = DirectIO.allocate(DirectIO.BUFFER_SIZE, DirectIO.alignment(files.get(0).getPath()));
+            }
+            for (SourceEntry file : files) {
+                try (InputStream fis = open(file)) {
+                    boolean last = false;
+                    while (!last && !closed) {
+                        byte[] buf = free.poll();
+                        if (buf == null) {
+                            buf = new byte[chunkSize];
+                        }
+                        int len = 0;
+                        int read = 0;
+                        while (len < buf.length && (read = fis.read(buf, len, buf.length - len)) != -1) {
+                            len += read;
+                        }
+                        last = read == -1;
+                        ready.put(new Chunk(buf, len, last, null));
+                    }
+                } catch (IOException e) {
+                    ready.put(new Chunk(null, 0, true, e));
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            ready.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private InputStream open(SourceEntry file) throws IOException {
+        Path path = file.getPath();
+        if (directBuffer != null && path != null) {
+            try {
+                return new DirectFileInputStream(path, directBuffer);
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.warn("Direct I/O is not supported for {}, reading through the page cache instead: {}", path, e.toString());
+                directBuffer = null;
+            }
+        }
+        return file.open();
+    }
+
+    /**
+     * Stops reading ahead.  The prefetch thread should be interrupted after this in case it is blocked.
+     */
+    public void close() {
+        closed = true;
+        ready.clear();
+    }
+
+    /**
+     * @return InputStream over the content of the next file in order
+     */
+    public InputStream nextFile() {
+        return new PrefetchedInputStream();
+    }
+
+    private Chunk take() throws IOException {
+        int depth = ready.size();
+        depthSum += depth;
+        takes++;
+        maxDepth = Math.max(maxDepth, depth);
+
+        Chunk chunk = ready.poll();
+        if (chunk == null) {
+            long startTime = System.nanoTime();
+            try {
+                chunk = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for prefetched data");
+            }
+            stallNanos += System.nanoTime() - startTime;
+        }
+        if (chunk.error != null) {
+            throw chunk.error;
+        } else if (chunk == END) {
+            throw new IOException("No more prefetched files");
+        }
+        return chunk;
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+        private final int length;
+        private final boolean last;  // True if this is the last chunk of a file
+        private final IOException error;
+
+        private Chunk(byte[] data, int length, boolean last, IOException error) {
+            this.data = data;
+            this.length = length;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    private class PrefetchedInputStream extends InputStream {
+        private Chunk chunk;
+        private int pos;
+        private boolean eof;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!eof && (chunk == null || pos == chunk.length)) {
+                if (chunk != null) {
+                    if (chunk.last) {
+                        eof = true;
+                        break;
+                    }
+                    free.offer(chunk.data);
+                }
+                chunk = take();
+                pos = 0;
+            }
+            if (eof) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk.data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Drain the rest of this file so the next file starts at its first chunk
+            while (!eof && (chunk == null || !chunk.last)) {
+                if (chunk != null) {
+                    free.offer(chunk.data);
+                }
+                chunk = take();
+            }
+            if (chunk != null) {
+                free.offer(chunk.data);
+                chunk = null;
+            }
+            eof = true;
+        }
+    }
+}
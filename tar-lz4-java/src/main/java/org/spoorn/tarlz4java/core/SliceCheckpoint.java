@@ -0,0 +1,165 @@
+package org.spoorn.tarlz4java.core;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.zip.CRC32C;
+
+/**
+ * Small manifest written next to a completed slice's .tmp file in resumable mode, so a later run against the same
+ * source and destination can reuse the slice instead of compressing it again.
+ *
+ * The checkpoint records which part of the source the slice covers, a digest of the names, sizes and modified times of
+ * the slice's entries, and the size and checksum of the .tmp file.  A slice is only reused if the source still has the
+ * same file count and total size, it is split the same way, none of the slice's entries changed, and the .tmp file is
+ * intact.
+ */
+public class SliceCheckpoint {
+
+    public static final String CHECKPOINT_SUFFIX = ".ckpt";
+    private static final int CHECKSUM_BUFFER_SIZE = 1024 * 1024;
+
+    private final String sourcePath;
+    private final long start;  // inclusive
+    private final long end;  // exclusive
+    private final int totalSlices;
+    private final long fileCount;  // File count of the whole source
+    private final long totalBytes;  // Size of the whole source
+    private final String entriesDigest;  // Digest of the slice's entries, from digest(List)
+
+    public SliceCheckpoint(String sourcePath, long start, long end, int totalSlices, long fileCount, long totalBytes, 
+                           String entriesDigest) {
+        this.sourcePath = sourcePath;
+        this.start = start;
+        this.end = end;
+        this.totalSlices = totalSlices;
+        this.fileCount = fileCount;
+        this.totalBytes = totalBytes;
+        this.entriesDigest = entriesDigest;
+    }
+
+    /**
+     * Digests the names, sizes and modified times of a slice's entries, so a file changed in place without changing
+     * the file count or total size of the source still invalidates the slices holding it.
+     *
+     * @param entries Entries of the slice, in archive order
+     * @return Hex digest of the entries
+     */
+    public static String digest(List<SourceEntry> entries) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        byte[] name = new byte[256];
+        ByteBuffer attributes = ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES);
+        for (SourceEntry entry : entries) {
+            name = entry.encodeName(name);
+            int nameLength = entry.nameLength();
+            // The name's length keeps the boundaries between entries unambiguous
+            attributes.clear();
+            attributes.putInt(nameLength).putLong(entry.getSize()).putLong(entry.getLastModifiedMillis());
+            digest.update(attributes.array());
+            digest.update(name, 0, nameLength);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param tmpFilePath Path to a slice's .tmp file
+     * @return Path to the checkpoint of the slice
+     */
+    public static Path checkpointPath(String tmpFilePath) {
+        return Path.of(tmpFilePath + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Checks if a slice's .tmp file was completed by a previous run for the same slice of the same source.
+     *
+     * @param tmpFilePath Path to the slice's .tmp file
+     * @return The number of source bytes the slice holds if it can be reused, else -1
+     */
+    public long validate(String tmpFilePath) {
+        Path checkpointPath = checkpointPath(tmpFilePath);
+        Path tmpPath = Path.of(tmpFilePath);
+        if (!Files.isRegularFile(checkpointPath) || !Files.isRegularFile(tmpPath)) {
+            return -1;
+        }
+
+        try (InputStream in = Files.newInputStream(checkpointPath)) {
+            Properties props = new Properties();
+            props.load(in);
+            boolean matches = Objects.equals(props.getProperty("sourcePath"), sourcePath)
+                    && Long.parseLong(props.getProperty("start")) == start
+                    && Long.parseLong(props.getProperty("end")) == end
+                    && Integer.parseInt(props.getProperty("totalSlices")) == totalSlices
+                    && Long.parseLong(props.getProperty("fileCount")) == fileCount
+                    && Long.parseLong(props.getProperty("totalBytes")) == totalBytes
+                    && Objects.equals(props.getProperty("entriesDigest"), entriesDigest)
+                    && Long.parseLong(props.getProperty("tmpSize")) == Files.size(tmpPath)
+                    && Long.parseLong(props.getProperty("tmpChecksum")) == checksum(tmpPath);
+            return matches ? Long.parseLong(props.getProperty("bytesProcessed")) : -1;
+        } catch (IOException | RuntimeException e) {
+            // Corrupt or incomplete checkpoints just mean the slice has to be compressed again
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the checkpoint for a completed slice.  The .tmp file must be fully written and closed.
+     *
+     * @param tmpFilePath Path to the slice's .tmp file
+     * @param bytesProcessed Number of source bytes the slice holds
+     * @throws IOException If the checkpoint could not be written
+     */
+    public void write(String tmpFilePath, long bytesProcessed) throws IOException {
+        Path tmpPath = Path.of(tmpFilePath);
+        Properties props = new Properties();
+        props.setProperty("sourcePath", sourcePath);
+        props.setProperty("start", String.valueOf(start));
+        props.setProperty("end", String.valueOf(end));
+        props.setProperty("totalSlices", String.valueOf(totalSlices));
+        props.setProperty("fileCount", String.valueOf(fileCount));
+        props.setProperty("totalBytes", String.valueOf(totalBytes));
+        props.setProperty("entriesDigest", entriesDigest);
+        props.setProperty("tmpSize", String.valueOf(Files.size(tmpPath)));
+        props.setProperty("tmpChecksum", String.valueOf(checksum(tmpPath)));
+        props.setProperty("bytesProcessed", String.valueOf(bytesProcessed));
+
+        // Write to a separate file first, so a crash never leaves a partial checkpoint behind
+        Path checkpointPath = checkpointPath(tmpFilePath);
+        Path partialPath = Path.of(checkpointPath + ".part");
+        try (OutputStream out = Files.newOutputStream(partialPath)) {
+            props.store(out, "tar-lz4-java slice checkpoint");
+        }
+        Files.move(partialPath, checkpointPath, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static long checksum(Path path) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buf = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path)) {
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,122 @@
+package org.spoorn.tarlz4java.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A file or directory found while scanning a source, with the attributes needed to write its tar header.
+ *
+ * Attributes are read once during the scan, so writing the header doesn't need to stat the file again.  The entry name
+ * is not stored as a full path.  Each entry only keeps its own file name, and a reference to its parent directory's
+ * entry, so names of deep trees are not repeatedly concatenated.
+ *
+ * Entries that aren't files on a file system, such as content in memory, have no path and are read through an
+ * {@link Opener} instead.
+ */
+public class SourceEntry {
+
+    /**
+     * Opens the content of an entry that isn't read from a path.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final SourceEntry parent;  // Parent directory, or null for the root of the source
+    private final byte[] fileName;  // UTF-8 bytes of the file name
+    private final Path path;  // null if the entry is read through its opener
+    private final Opener opener;  // null if the entry is read from its path
+    private final boolean directory;
+    private final long size;
+    private final long lastModifiedMillis;
+
+    public SourceEntry(SourceEntry parent, Path path, BasicFileAttributes attributes) {
+        this.parent = parent;
+        Path fileName = path.getFileName();
+        this.fileName = (fileName != null ? fileName.toString() : "").getBytes(StandardCharsets.UTF_8);
+        this.path = path;
+        this.opener = null;
+        this.directory = attributes.isDirectory();
+        this.size = this.directory ? 0 : attributes.size();
+        this.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * @param parent Parent directory entry, or null for an entry at the root of the archive
+     * @param fileName File name of the entry, without any '/'
+     * @param size Size of the content in bytes, 0 for a directory
+     * @param lastModifiedMillis Last modified time in milliseconds since the epoch
+     * @param opener Opens the content of a file, or null for a directory
+     */
+    public SourceEntry(SourceEntry parent, String fileName, long size, long lastModifiedMillis, Opener opener) {
+        this.parent = parent;
+        this.fileName = fileName.getBytes(StandardCharsets.UTF_8);
+        this.path = null;
+        this.opener = opener;
+        this.directory = opener == null;
+        this.size = this.directory ? 0 : size;
+        this.lastModifiedMillis = lastModifiedMillis;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    /**
+     * @return Stream over the content of a file entry
+     * @throws IOException If the content can't be opened
+     */
+    public InputStream open() throws IOException {
+        return opener != null ? opener.open() : Files.newInputStream(path);
+    }
+
+    /**
+     * Writes the entry's name, relative to the parent of the source root and using '/' as separator, into a buffer.
+     *
+     * @param buffer Buffer to write the name into.  Grown if too small.
+     * @return Buffer holding the name, which is the given buffer unless it had to be grown
+     */
+    public byte[] encodeName(byte[] buffer) {
+        int length = nameLength();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        int end = length;
+        for (SourceEntry entry = this; entry != null; entry = entry.parent) {
+            end -= entry.fileName.length;
+            System.arraycopy(entry.fileName, 0, buffer, end, entry.fileName.length);
+            if (entry.parent != null) {
+                buffer[--end] = '/';
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @return Length in bytes of the name written by {@link #encodeName(byte[])}
+     */
+    public int nameLength() {
+        int length = fileName.length;
+        for (SourceEntry entry = parent; entry != null; entry = entry.parent) {
+            length += entry.fileName.length + 1;
+        }
+        return length;
+    }
+}
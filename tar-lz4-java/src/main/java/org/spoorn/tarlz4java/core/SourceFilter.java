@@ -0,0 +1,112 @@
+package org.spoorn.tarlz4java.core;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Include and exclude rules for the files of a source, applied while scanning it.
+ *
+ * Patterns use the syntax of {@link FileSystem#getPathMatcher(String)}, such as "glob:**&#47;*.log" or "regex:.*\.tmp",
+ * and are globs if they have no syntax prefix.  They are matched against paths relative to the source directory, so
+ * "node_modules" only matches at the top of the source while "**&#47;node_modules" only matches below it.  Excluded
+ * directories are pruned without listing anything in them.  With include patterns, only files matching one of them
+ * are archived, though directories are still walked and archived.
+ */
+public class SourceFilter {
+
+    public static final SourceFilter NONE = new SourceFilter(Set.of(), List.of(), List.of());
+
+    private final Set<String> excludeFileNames;  // Exact file names excluded anywhere in the source
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    /**
+     * @param excludeFileNames Exact names of files and directories to exclude anywhere in the source
+     * @param includes Patterns of files to include, or empty to include all files
+     * @param excludes Patterns of files and directories to exclude
+     */
+    public SourceFilter(Set<String> excludeFileNames, List<String> includes, List<String> excludes) {
+        this.excludeFileNames = Set.copyOf(excludeFileNames);
+        this.includes = List.copyOf(includes);
+        this.excludes = List.copyOf(excludes);
+    }
+
+    /**
+     * @param source Source directory the rules are applied under
+     * @return Matcher of these rules for paths under the source
+     */
+    Matcher forSource(Path source) {
+        FileSystem fileSystem = source.getFileSystem();
+        return new Matcher(source, compile(fileSystem, includes), compile(fileSystem, excludes));
+    }
+
+    private static List<PathMatcher> compile(FileSystem fileSystem, Collection<String> patterns) {
+        List<PathMatcher> matchers = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            boolean hasSyntax = pattern.startsWith("glob:") || pattern.startsWith("regex:");
+            matchers.add(fileSystem.getPathMatcher(hasSyntax ? pattern : "glob:" + pattern));
+        }
+        return matchers;
+    }
+
+    @Override
+    public String toString() {
+        return "SourceFilter{excludeFileNames=" + excludeFileNames + ", includes=" + includes + ", excludes=" + excludes + "}";
+    }
+
+    /**
+     * Rules compiled for the file system of a source.
+     */
+    class Matcher {
+        private final Path source;
+        private final List<PathMatcher> includeMatchers;
+        private final List<PathMatcher> excludeMatchers;
+
+        private Matcher(Path source, List<PathMatcher> includeMatchers, List<PathMatcher> excludeMatchers) {
+            this.source = source;
+            this.includeMatchers = includeMatchers;
+            this.excludeMatchers = excludeMatchers;
+        }
+
+        /**
+         * @return True if a file or directory is excluded, which prunes the whole subtree of a directory
+         */
+        boolean isExcluded(Path path) {
+            Path fileName = path.getFileName();
+            if (fileName != null && excludeFileNames.contains(fileName.toString())) {
+                return true;
+            }
+            if (excludeMatchers.isEmpty() || path.equals(source)) {
+                return false;
+            }
+            Path relative = source.relativize(path);
+            for (PathMatcher matcher : excludeMatchers) {
+                if (matcher.matches(relative)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return True if a file that isn't excluded matches the include patterns
+         */
+        boolean isIncluded(Path file) {
+            if (includeMatchers.isEmpty()) {
+                return true;
+            }
+            Path relative = source.relativize(file);
+            for (PathMatcher matcher : includeMatchers) {
+                if (matcher.matches(relative)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.spoorn.tarlz4java.core;
+
+import lombok.Getter;
+import org.apache.logging.log4j.Logger;
+import org.spoorn.tarlz4java.logging.TarLz4ScanEvent;
+import org.spoorn.tarlz4java.util.TarLz4Util;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * The directories and files of a source that will be archived, found in a single walk with a {@link SourceFilter}
+ * applied as it goes.
+ *
+ * Files are numbered in walk order, and slices are split on those numbers.  Counts and sizes only cover files that are
+ * actually archived, so slices are balanced, and progress is measured, on bytes that get written.
+ */
+public class SourceManifest {
+
+    private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(SourceManifest.class);
+
+    @Getter
+    private final Path source;
+    private final List<SourceEntry> entries = new ArrayList<>();  // All directories, and files within the scanned range
+    @Getter
+    private long fileCount;  // Number of files in the whole source, including those outside the scanned range
+    @Getter
+    private long totalBytes;
+    @Getter
+    private long largestFileSize;
+    @Getter
+    private long directoryCount;
+
+    private SourceManifest(Path source) {
+        this.source = source;
+    }
+
+    /**
+     * Scans all directories and files of a source.
+     *
+     * @param source Source directory, on any file system
+     * @param filter Rules of files to archive
+     * @return Manifest of the source
+     * @throws IOException If walking the source fails
+     */
+    public static SourceManifest scan(Path source, SourceFilter filter) throws IOException {
+        return scan(source, filter, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Scans all directories of a source, and its files numbered within a range.  Files outside the range are still
+     * counted, but not kept.
+     *
+     * @param source Source directory, on any file system
+     * @param filter Rules of files to archive
+     * @param start First file number to keep, inclusive
+     * @param end Last file number to keep, exclusive
+     * @return Manifest of the source
+     * @throws IOException If walking the source fails
+     */
+    public static SourceManifest scan(Path source, SourceFilter filter, long start, long end) throws IOException {
+        TarLz4ScanEvent event = new TarLz4ScanEvent();
+        event.begin();
+        SourceManifest manifest = new SourceManifest(source);
+        SourceFilter.Matcher matcher = filter.forSource(source);
+        Deque<SourceEntry> parents = new ArrayDeque<>();
+        // Symbolic links are followed, and archived as the files or directories they point to
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (matcher.isExcluded(dir)) {
+                    // Nothing under it is listed
+                    logger.debug("Skipping directory {}", dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                SourceEntry entry = new SourceEntry(parents.peek(), dir, attrs);
+                manifest.entries.add(entry);
+                manifest.directoryCount++;
+                parents.push(entry);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (matcher.isExcluded(file) || !matcher.isIncluded(file)) {
+                    logger.debug("Skipping file {}", file);
+                    return FileVisitResult.CONTINUE;
+                }
+                if (!attrs.isRegularFile()) {
+                    logger.debug("Skipping {} as it is not a regular file", file);
+                    return FileVisitResult.CONTINUE;
+                }
+                if (manifest.fileCount >= start && manifest.fileCount < end) {
+                    manifest.entries.add(new SourceEntry(parents.peek(), file, attrs));
+                }
+                manifest.fileCount++;
+                manifest.totalBytes += attrs.size();
+                manifest.largestFileSize = Math.max(manifest.largestFileSize, attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                parents.pop();
+                return super.postVisitDirectory(dir, exc);
+            }
+        });
+        if (event.shouldCommit()) {
+            event.source = source.toString();
+            event.files = manifest.fileCount;
+            event.directories = manifest.directoryCount;
+            event.bytes = manifest.totalBytes;
+            event.commit();
+        }
+        return manifest;
+    }
+
+    /**
+     * @return Directories and kept files, in walk order so directories come before what is in them
+     */
+    public List<SourceEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * All directories, and the files numbered within a range.  Directories are in every slice, so each slice is a
+     * complete archive on its own.  Only valid for manifests of the whole source.
+     *
+     * @param start First file number, inclusive
+     * @param end Last file number, exclusive
+     * @return Entries of the slice in walk order
+     */
+    public List<SourceEntry> slice(long start, long end) {
+        List<SourceEntry> slice = new ArrayList<>();
+        long fileNumber = 0;
+        for (SourceEntry entry : entries) {
+            if (entry.isDirectory()) {
+                slice.add(entry);
+            } else {
+                if (fileNumber >= start && fileNumber < end) {
+                    slice.add(entry);
+                }
+                fileNumber++;
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Finds the file numbers that split the files evenly by size, in the same format as
+     * {@link TarLz4Util#getIntervalsFromSizes(long[], int)}.  Only valid for manifests of the whole source.
+     *
+     * @param numIntervals Number of intervals
+     * @return File numbers to split at, followed by the number of effective intervals and the total size in bytes
+     */
+    public long[] getIntervals(int numIntervals) {
+        long[] sizes = new long[(int) fileCount];
+        int i = 0;
+        for (SourceEntry entry : entries) {
+            if (!entry.isDirectory()) {
+                sizes[i++] = entry.getSize();
+            }
+        }
+        return TarLz4Util.getIntervalsFromSizes(sizes, numIntervals);
+    }
+
+    /**
+     * @return Profile of the archived files, for auto tuning
+     */
+    public WorkloadProfile getProfile() {
+        return WorkloadProfile.of(fileCount, totalBytes, largestFileSize);
+    }
+}
@@ -1,136 +1,504 @@
 package org.spoorn.tarlz4java.core;
 
 import lombok.Getter;
-import net.jpountz.lz4.LZ4FrameOutputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
 import org.apache.commons.compress.utils.IOUtils;
 import org.apache.logging.log4j.Logger;
-import org.spoorn.tarlz4java.io.CustomTarArchiveOutputStream;
+import org.spoorn.tarlz4java.io.AdaptiveLz4FrameOutputStream;
+import org.spoorn.tarlz4java.io.DirectFileInputStream;
+import org.spoorn.tarlz4java.io.DirectIO;
+import org.spoorn.tarlz4java.io.TarHeaderEncoder;
+import org.spoorn.tarlz4java.io.ThrottledInputStream;
+import org.spoorn.tarlz4java.io.ThrottledOutputStream;
 import org.spoorn.tarlz4java.logging.TarLz4Logger;
+import org.spoorn.tarlz4java.logging.TarLz4SliceEvent;
 import org.spoorn.tarlz4java.logging.Verbosity;
+import org.spoorn.tarlz4java.util.concurrent.CpuThrottle;
+import org.spoorn.tarlz4java.util.concurrent.RateLimiter;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 public class TarLz4CompressTask implements Runnable {
 
     private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(TarLz4CompressTask.class);
-    private final String sourcePath;  // target input path
+    private static final int SAMPLE_SIZE = 64 * 1024;  // Bytes sampled from the start of a file to check if it compresses
+    private static final int TAR_BUFFERS_SIZE = 4 * 1024;  // Tar record buffer, and headers for long names
+    private static final double INCOMPRESSIBLE_RATIO = 0.95;  // Samples that don't compress below this ratio are incompressible
+    private static final int HOLE_SIZE = 64 * 1024;  // Zero regions are found in aligned chunks of this size
+    private static final long SPARSE_MIN_SIZE = 16L * HOLE_SIZE;  // Smaller files are never checked for holes
+    private static final int SPARSE_PROBES = 16;  // Chunks checked before scanning a whole file for holes
+    private static final byte[] ZERO_CHUNK = new byte[HOLE_SIZE];
+    private final Path sourcePath;  // target input path, on any file system, or null if the task was given its entries
+    private final List<SourceEntry> entries;  // entries to archive, or null to scan them from the sourcePath
     private final String destinationPath;  // destination output file i.e. the temporary file this thread will write to
     private final int slice;  // The slice we are looking at, indexed at 0
-    private final int totalSlices;  // The total number of slices.  Used to know if we are on the last slice to write the Tar Archive footers
+    private final int totalSlices;  // The total number of slices.  Used to know if we are in the single-threaded case for logging progress
     private final int bufferSize;   // buffer size for copying files to the Tar Archive
     private final long totalBytes; // Total number of bytes in the sourcePath, for logging progress purposes
     private final boolean shouldLogProgress;  // True to log progress via a Logger, else false
     private final int logProgressPercentInterval;  // Percentage interval to log progress
     private final Verbosity verbosity;  // logging verbosity
     private final Set<String> excludeFiles;  // Exclude files from the task
-    public final FileOutputStream fos;  // Output Stream to the file output for this task
+    private final boolean adaptiveCompression;  // True to store files that don't compress without compressing them
+    private final int prefetchDepth;  // Number of chunks to read ahead on a separate thread, or 0 to disable
+    private final int blockSize;  // LZ4 block size
+    private final RateLimiter readLimiter;  // Limits source file reads, or null for no limit
+    private final RateLimiter writeLimiter;  // Limits output writes, or null for no limit
+    private final CpuThrottle cpuThrottle;  // Limits CPU used for compression, or null for no limit
+    private final boolean directIO;  // True to read source files bypassing the page cache, only for files on the default file system
+    private final boolean sparseFiles;  // True to store zero regions of large files as holes of sparse entries
+    public final OutputStream fos;  // Output Stream to the file output for this task
 
     private final long start;    // inclusive
     private final long end;   // exclusive
-    private int count;  // Current file number this task is processing
     @Getter
     private long bytesProcessed;
+    @Getter
+    private long filesProcessed;
+    @Getter
+    private long incompressibleFiles;  // Files stored uncompressed by adaptive compression
+    @Getter
+    private long incompressibleBytes;
+    @Getter
+    private long sparseFileCount;  // Files stored as sparse entries
+    @Getter
+    private long sparseHoleBytes;  // Bytes of zeros left out of sparse entries
+    @Getter
+    private FilePrefetcher prefetcher;
+    private AdaptiveLz4FrameOutputStream lz4OutputStream;
+    private LZ4Compressor sampleCompressor;
+    private byte[] sampleBuffer;
+    private byte[] sampleCompressedBuffer;
+    private byte[] copyBuffer;
+    private TarHeaderEncoder headerEncoder;
+    private byte[] nameBuffer = new byte[256];  // Reused to encode entry names
+    private ByteBuffer directBuffer;  // Aligned buffer reused for direct reads, or null if reads use the page cache
+    private ByteBuffer holeBuffer;  // Reused to check chunks of files for zeros
+    private long[] sparseSegments;  // Reused for the offset and length of each data segment of a sparse file
     private final TarLz4Logger log;
 
     public TarLz4CompressTask(String sourcePath, String destinationPath, long start, long end, int slice,
                               int totalSlices, int bufferSize, long totalBytes, boolean shouldLogProgress,
-                              int logProgressPercentInterval, Verbosity verbosity, Set<String> excludeFiles, FileOutputStream fos) {
+                              int logProgressPercentInterval, Verbosity verbosity, Set<String> excludeFiles, OutputStream fos) {
+        this(Path.of(sourcePath), null, destinationPath, start, end, slice, totalSlices, bufferSize, totalBytes, shouldLogProgress,
+                excludeFiles, new CompressTaskOptions().logProgressPercentInterval(logProgressPercentInterval).verbosity(verbosity), fos);
+    }
+
+    /**
+     * Task that archives a slice of a source that was already scanned, instead of walking the source again.
+     */
+    public TarLz4CompressTask(SourceManifest manifest, String destinationPath, long start, long end, int slice,
+                              int totalSlices, int bufferSize, long totalBytes, boolean shouldLogProgress,
+                              CompressTaskOptions options, OutputStream fos) {
+        this(manifest.getSource(), manifest.slice(start, end), destinationPath, start, end, slice, totalSlices, bufferSize,
+                totalBytes, shouldLogProgress, Collections.emptySet(), options, fos);
+    }
+
+    /**
+     * Task that archives entries it is given, in order, instead of scanning a source for them.  Entries are written
+     * as is, so directories the files are in should come first.
+     */
+    public TarLz4CompressTask(List<SourceEntry> entries, String destinationPath, int slice, int totalSlices, 
+                              int bufferSize, long totalBytes, boolean shouldLogProgress, CompressTaskOptions options, 
+                              OutputStream fos) {
+        this(null, entries, destinationPath, 0, entries.size(), slice, totalSlices, bufferSize, totalBytes, shouldLogProgress,
+                Collections.emptySet(), options, fos);
+    }
+
+    private TarLz4CompressTask(Path sourcePath, List<SourceEntry> entries, String destinationPath, long start, long end, 
+                               int slice, int totalSlices, int bufferSize, long totalBytes, boolean shouldLogProgress,
+                               Set<String> excludeFiles, CompressTaskOptions options, OutputStream fos) {
         this.sourcePath = sourcePath;
+        this.entries = entries;
         this.destinationPath = destinationPath;
         this.slice = slice;
         this.totalSlices = totalSlices;
         this.bufferSize = bufferSize;
         this.totalBytes = totalBytes;
         this.shouldLogProgress = shouldLogProgress;
-        this.logProgressPercentInterval = logProgressPercentInterval;
-        this.verbosity = verbosity;
+        this.logProgressPercentInterval = options.getLogProgressPercentInterval();
+        this.verbosity = options.getVerbosity();
         this.excludeFiles = excludeFiles;
+        this.adaptiveCompression = options.isAdaptiveCompression();
+        this.prefetchDepth = options.getPrefetchDepth();
+        this.blockSize = options.getBlockSize();
+        this.readLimiter = options.getReadLimiter();
+        this.writeLimiter = options.getWriteLimiter();
+        this.cpuThrottle = options.getCpuThrottle();
+        // Entries given to the task may not be files at all, so direct I/O and holes only apply to a source path
+        this.directIO = options.isDirectIO() && sourcePath != null && sourcePath.getFileSystem() == FileSystems.getDefault();
+        this.sparseFiles = options.isSparseFiles() && sourcePath != null;
         this.fos = fos;
 
         this.start = start;
         this.end = end;
-        this.count = 0;
         this.bytesProcessed = 0;
         this.log = new TarLz4Logger(logger, verbosity);
     }
 
+    /**
+     * Upper bound of the memory used by buffers of a single task, for memory budgets.
+     *
+     * @param bufferSize Buffer size for copying files
+     * @param blockSize LZ4 block size
+     * @param adaptiveCompression True if adaptive compression is enabled
+     * @param prefetchDepth Number of chunks read ahead, or 0 if disabled
+     * @param directIO True if files are read and written with direct I/O
+     * @param sparseFiles True if large files are checked for holes
+     * @return Max number of bytes held in buffers by a task
+     */
+    public static long memoryEstimate(int bufferSize, int blockSize, boolean adaptiveCompression, int prefetchDepth, 
+                                      boolean directIO, boolean sparseFiles) {
+        LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        // LZ4 block buffer and its compressed counterpart, plus tar record and header buffers
+        long estimate = blockSize + compressor.maxCompressedLength(blockSize) + TAR_BUFFERS_SIZE;
+        estimate += bufferSize;  // copy buffer
+        if (adaptiveCompression) {
+            estimate += SAMPLE_SIZE + compressor.maxCompressedLength(SAMPLE_SIZE);
+        }
+        if (prefetchDepth > 0) {
+            estimate += (prefetchDepth + 2L) * bufferSize;
+        }
+        if (sparseFiles) {
+            estimate += HOLE_SIZE;
+        }
+        if (directIO) {
+            // Aligned read and output buffers, and another read buffer for the prefetch thread
+            estimate += (prefetchDepth > 0 ? 3L : 2L) * (DirectIO.BUFFER_SIZE + DirectIO.DEFAULT_ALIGNMENT);
+        }
+        return estimate;
+    }
+
     @Override
     public void run() {
-        try (LZ4FrameOutputStream outputStream = new LZ4FrameOutputStream(this.fos);
-             CustomTarArchiveOutputStream taos = new CustomTarArchiveOutputStream(outputStream, this.slice == this.totalSlices - 1)) {
+        // Throttling wrappers are only added when limits are set, to not add any overhead otherwise
+        OutputStream out = this.writeLimiter != null ? new ThrottledOutputStream(this.fos, this.writeLimiter) : this.fos;
+        if (this.cpuThrottle != null) {
+            this.cpuThrottle.register();
+        }
+        TarLz4SliceEvent event = new TarLz4SliceEvent();
+        event.begin();
+        // Tar records are written directly into the LZ4 frame.  Slices don't write the end-of-archive records, see
+        // CustomTarArchiveOutputStream.createTrailerFrame()
+        try (AdaptiveLz4FrameOutputStream outputStream = new AdaptiveLz4FrameOutputStream(out, this.blockSize)) {
+            this.lz4OutputStream = outputStream;
+            this.headerEncoder = new TarHeaderEncoder();
+            this.copyBuffer = new byte[this.bufferSize];
+            if (this.directIO && this.prefetchDepth <= 0) {
+                this.directBuffer = DirectIO.allocate(DirectIO.BUFFER_SIZE, DirectIO.alignment(sourcePath));
+            }
+            if (this.adaptiveCompression) {
+                this.sampleCompressor = LZ4Factory.fastestInstance().fastCompressor();
+                this.sampleBuffer = new byte[SAMPLE_SIZE];
+                this.sampleCompressedBuffer = new byte[this.sampleCompressor.maxCompressedLength(SAMPLE_SIZE)];
+            }
 
             log.debug("Starting compression task for slice {} with start={}, end={}", this.slice, this.start, this.end - 1);
-            addFilesToTar(sourcePath, "", taos);
+            List<SourceEntry> manifest = this.entries != null ? this.entries : SourceManifest.scan(this.sourcePath,
+                    new SourceFilter(this.excludeFiles, List.of(), List.of()), this.start, this.end).getEntries();
+            
+            Thread prefetchThread = null;
+            if (this.prefetchDepth > 0) {
+                List<SourceEntry> files = new ArrayList<>();
+                for (SourceEntry entry : manifest) {
+                    // Sparse candidates are read by position instead, to find and skip their holes
+                    if (!entry.isDirectory() && !isSparseCandidate(entry)) {
+                        files.add(entry);
+                    }
+                }
+                this.prefetcher = new FilePrefetcher(files, this.bufferSize, this.prefetchDepth, this.directIO);
+                prefetchThread = new Thread(this.prefetcher, Thread.currentThread().getName() + "-prefetch");
+                prefetchThread.start();
+            }
+            
+            try {
+                addFilesToTar(manifest, outputStream);
+            } finally {
+                if (prefetchThread != null) {
+                    this.prefetcher.close();
+                    prefetchThread.interrupt();
+                }
+            }
             log.debug("Finished compressed archive for slice {}", this.slice);
-
-            taos.finish();
         } catch (IOException e) {
-            log.error("Could not lz4 compress source=[" + sourcePath + "] to destination=[" + destinationPath + "] for slice " + slice, e);
+            log.error("Could not lz4 compress source=[" + (sourcePath != null ? sourcePath : entries.size() + " entries") + "] to destination=[" + destinationPath + "] for slice " + slice, e);
             throw new RuntimeException(e);
+        } finally {
+            if (this.cpuThrottle != null) {
+                this.cpuThrottle.unregister();
+            }
+        }
+        if (event.shouldCommit()) {
+            event.slice = this.slice;
+            event.totalSlices = this.totalSlices;
+            event.start = this.start;
+            event.end = this.end;
+            event.files = this.filesProcessed;
+            event.bytes = this.bytesProcessed;
+            event.destination = this.destinationPath;
+            event.commit();
         }
     }
 
-    // Base needed as we are branching off of a child directory, so the initial source will be the virtual "root" of the tar
-    private void addFilesToTar(String path, String base, TarArchiveOutputStream taos) throws IOException {
-        try {
-            File file = new File(path);
-            
-            if (!this.excludeFiles.contains(file.getName())) {
-                // If we are out of the bounds of our slice, skip
-                // This could probably be optimized to not have to walk through the entire file tree again.
-                // Instead, we could have cached the exact files each slice should handle.
-                // It's a trade off between using more memory, or more processing steps
-                if (file.isFile() && (count < this.start || count >= this.end)) {
-                    count++;
-                    return;
+    private void addFilesToTar(List<SourceEntry> manifest, OutputStream out) throws IOException {
+        for (SourceEntry entry : manifest) {
+            try {
+                this.nameBuffer = entry.encodeName(this.nameBuffer);
+                int nameLength = entry.nameLength();
+                if (entry.isDirectory()) {
+                    this.headerEncoder.writeHeader(out, this.nameBuffer, nameLength, true, 0, 
+                            entry.getLastModifiedMillis(), TarHeaderEncoder.DEFAULT_DIR_PERMISSIONS);
+                    continue;
+                }
+
+                if (isSparseCandidate(entry) && addSparseFile(entry, out)) {
+                    continue;
                 }
 
-                String entryName = base + file.getName();
-
-                if (file.isFile()) {
-                    // Write file content to archive
-                    try (FileInputStream fis = new FileInputStream(file)) {
-                        long prevBytesProcessed = this.bytesProcessed;
-                        // Add the Tar Archive Entry
-                        taos.putArchiveEntry(new TarArchiveEntry(file, entryName));
-                        taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-                        this.bytesProcessed += IOUtils.copy(fis, taos, this.bufferSize);
-                        taos.closeArchiveEntry();
-
-                        // Logging progress for single-thread case
-                        if (shouldLogProgress && this.totalSlices == 1) {
-                            long prevPercent = prevBytesProcessed * 100 / totalBytes;
-                            long currPercent = this.bytesProcessed * 100 / totalBytes;
-                            int interval = logProgressPercentInterval;
-                            if (prevPercent / interval < currPercent / interval) {
-                                log.info("TarLz4 compression progress: {}%", currPercent);
-                            }
-                        }
-
-                        count++;
+                // Write file content to archive
+                try (InputStream fis = isSparseCandidate(entry) ? throttle(entry.open()) : openFile(entry)) {
+                    long prevBytesProcessed = this.bytesProcessed;
+                    long size = entry.getSize();
+                    this.headerEncoder.writeHeader(out, this.nameBuffer, nameLength, false, size, 
+                            entry.getLastModifiedMillis(), TarHeaderEncoder.DEFAULT_FILE_PERMISSIONS);
+                    long written = 0;
+                    if (this.adaptiveCompression && size >= SAMPLE_SIZE) {
+                        written += writeSampled(fis, out, size);
                     }
-                } else {
-                    // Add the Tar Archive Entry
-                    taos.putArchiveEntry(new TarArchiveEntry(file, entryName));
-                    taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-                    taos.closeArchiveEntry();
-                    for (File f : file.listFiles()) {
-                        // Recurse on nested files/directories
-                        addFilesToTar(f.getPath(), entryName + File.separator, taos);
+                    written += copy(fis, out, size - written);
+                    if (written < size) {
+                        // The header already promised the size from the scan, so fill in for a file that shrank since
+                        log.warn("File {} shrank while archiving, padding with zeros from {} to {} bytes", entryName(entry), written, size);
+                        fillZeros(out, size - written);
                     }
+                    TarHeaderEncoder.writePadding(out, size);
+                    this.bytesProcessed += written;
+                    this.filesProcessed++;
+                    this.lz4OutputStream.setCompressing(true);
+                    logProgress(prevBytesProcessed);
                 }
+            } catch (Exception e) {
+                log.error("Error while adding file {} to Tar", entryName(entry));
+                throw e;
+            }
+        }
+    }
+
+    private InputStream openFile(SourceEntry entry) throws IOException {
+        InputStream fis;
+        if (this.prefetcher != null) {
+            fis = this.prefetcher.nextFile();
+        } else if (this.directBuffer != null) {
+            fis = openDirect(entry.getPath());
+        } else {
+            fis = entry.open();
+        }
+        return throttle(fis);
+    }
+
+    private InputStream throttle(InputStream fis) {
+        return this.readLimiter != null ? new ThrottledInputStream(fis, this.readLimiter) : fis;
+    }
+
+    private void logProgress(long prevBytesProcessed) {
+        // Logging progress for single-thread case
+        if (shouldLogProgress && this.totalSlices == 1) {
+            long prevPercent = prevBytesProcessed * 100 / totalBytes;
+            long currPercent = this.bytesProcessed * 100 / totalBytes;
+            int interval = logProgressPercentInterval;
+            if (prevPercent / interval < currPercent / interval) {
+                log.info("TarLz4 compression progress: {}%", currPercent);
+            }
+        }
+    }
+
+    private boolean isSparseCandidate(SourceEntry entry) {
+        return this.sparseFiles && entry.getPath() != null && entry.getSize() >= SPARSE_MIN_SIZE;
+    }
+
+    /**
+     * Archives a file as a sparse entry if it has zero regions of at least {@link #HOLE_SIZE} bytes.  Chunks spread
+     * over the file are checked first, so only files that look like they have holes are scanned in full.  Those are
+     * read twice, once to find their holes and again to archive their data, though reading holes is cheap.
+     *
+     * @return True if the file was archived, else false if it has no holes and should be archived as usual
+     */
+    private boolean addSparseFile(SourceEntry entry, OutputStream out) throws IOException {
+        long size = entry.getSize();
+        try (SeekableByteChannel channel = Files.newByteChannel(entry.getPath())) {
+            if (this.holeBuffer == null) {
+                this.holeBuffer = ByteBuffer.allocate(HOLE_SIZE);
+                this.sparseSegments = new long[32];
+            }
+            boolean probed = false;
+            long chunks = (size + HOLE_SIZE - 1) / HOLE_SIZE;
+            for (int i = 0; i < SPARSE_PROBES && !probed; i++) {
+                long offset = chunks * i / SPARSE_PROBES * HOLE_SIZE;
+                probed = isHole(channel, offset, (int) Math.min(HOLE_SIZE, size - offset));
+            }
+            if (!probed) {
+                return false;
+            }
+
+            // Adjacent data chunks are merged into segments, each stored as an offset and a length
+            int segmentCount = 0;
+            long holeBytes = 0;
+            for (long offset = 0; offset < size; offset += HOLE_SIZE) {
+                int length = (int) Math.min(HOLE_SIZE, size - offset);
+                if (isHole(channel, offset, length)) {
+                    holeBytes += length;
+                } else if (segmentCount > 0 && this.sparseSegments[segmentCount * 2 - 2] + this.sparseSegments[segmentCount * 2 - 1] == offset) {
+                    this.sparseSegments[segmentCount * 2 - 1] += length;
+                } else {
+                    segmentCount = addSegment(segmentCount, offset, length);
+                }
+            }
+            if (holeBytes == 0) {
+                return false;
+            }
+            if (segmentCount == 0 || this.sparseSegments[segmentCount * 2 - 2] + this.sparseSegments[segmentCount * 2 - 1] < size) {
+                // Same as GNU tar, an empty segment at the end keeps a trailing hole
+                segmentCount = addSegment(segmentCount, size, 0);
+            }
+
+            byte[] map = TarHeaderEncoder.encodeSparseMap(this.sparseSegments, segmentCount);
+            long dataBytes = size - holeBytes;
+            long storedSize = map.length + dataBytes;
+            long prevBytesProcessed = this.bytesProcessed;
+            this.headerEncoder.writeSparseHeader(out, this.nameBuffer, entry.nameLength(), storedSize, size,
+                    entry.getLastModifiedMillis(), TarHeaderEncoder.DEFAULT_FILE_PERMISSIONS);
+            out.write(map);
+            long written = 0;
+            for (int i = 0; i < segmentCount; i++) {
+                long length = this.sparseSegments[i * 2 + 1];
+                channel.position(this.sparseSegments[i * 2]);
+                written += copy(throttle(Channels.newInputStream(channel)), out, length);
+            }
+            if (written < dataBytes) {
+                log.warn("File {} shrank while archiving, padding with zeros from {} to {} bytes", entryName(entry), written, dataBytes);
+                fillZeros(out, dataBytes - written);
+            }
+            TarHeaderEncoder.writePadding(out, storedSize);
+            // Progress is measured against the size of files, holes included
+            this.bytesProcessed += size;
+            this.filesProcessed++;
+            this.sparseFileCount++;
+            this.sparseHoleBytes += holeBytes;
+            logProgress(prevBytesProcessed);
+            return true;
+        }
+    }
+
+    /**
+     * Reads a chunk of a file into the hole buffer.
+     *
+     * @return True if the chunk is all zeros, else false if it has data or the file shrank to before its end
+     */
+    private boolean isHole(SeekableByteChannel channel, long offset, int length) throws IOException {
+        this.holeBuffer.clear().limit(length);
+        channel.position(offset);
+        while (this.holeBuffer.hasRemaining() && channel.read(this.holeBuffer) >= 0) {
+        }
+        return !this.holeBuffer.hasRemaining() && Arrays.mismatch(this.holeBuffer.array(), 0, length, ZERO_CHUNK, 0, length) == -1;
+    }
+
+    private int addSegment(int segmentCount, long offset, long length) {
+        if (this.sparseSegments.length < segmentCount * 2 + 2) {
+            this.sparseSegments = Arrays.copyOf(this.sparseSegments, this.sparseSegments.length * 2);
+        }
+        this.sparseSegments[segmentCount * 2] = offset;
+        this.sparseSegments[segmentCount * 2 + 1] = length;
+        return segmentCount + 1;
+    }
+
+    private InputStream openDirect(Path file) throws IOException {
+        try {
+            return new DirectFileInputStream(file, this.directBuffer);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Direct I/O support is per file system, so don't retry it for every file
+            log.warn("Direct I/O is not supported for {}, reading through the page cache instead: {}", file, e.toString());
+            this.directBuffer = null;
+            return Files.newInputStream(file);
+        }
+    }
+
+    /**
+     * @return Name of an entry for logging, its path if it has one
+     */
+    private String entryName(SourceEntry entry) {
+        return entry.getPath() != null ? entry.getPath().toString() : new String(this.nameBuffer, 0, entry.nameLength(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies up to a number of bytes of a file's content into the archive.  With a CPU budget, each buffer is compressed
+     * while holding a permit from the {@link CpuThrottle}, while reading from disk is done without one.
+     *
+     * @return Number of bytes copied, which is less than the limit if the file ended early
+     */
+    private long copy(InputStream fis, OutputStream out, long limit) throws IOException {
+        long copied = 0;
+        int read;
+        while (copied < limit && (read = fis.read(this.copyBuffer, 0, (int) Math.min(this.copyBuffer.length, limit - copied))) != -1) {
+            if (this.cpuThrottle == null) {
+                out.write(this.copyBuffer, 0, read);
             } else {
-                log.debug("Skipping file {}", path);
+                try {
+                    this.cpuThrottle.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for CPU budget");
+                }
+                try {
+                    out.write(this.copyBuffer, 0, read);
+                } finally {
+                    this.cpuThrottle.release();
+                }
             }
-        } catch (Exception e) {
-            log.error("Error while adding file {} to Tar", path);
-            throw e;
+            copied += read;
+        }
+        return copied;
+    }
+
+    private void fillZeros(OutputStream out, long length) throws IOException {
+        Arrays.fill(this.copyBuffer, (byte) 0);
+        while (length > 0) {
+            int n = (int) Math.min(this.copyBuffer.length, length);
+            out.write(this.copyBuffer, 0, n);
+            length -= n;
+        }
+    }
+
+    /**
+     * Reads a sample from the start of a file and checks if it compresses.  If it doesn't, the rest of the file is
+     * written without being compressed.  The sample itself is written to the archive.
+     *
+     * @return Number of bytes written
+     */
+    private int writeSampled(InputStream fis, OutputStream out, long fileSize) throws IOException {
+        int sampled = IOUtils.readFully(fis, this.sampleBuffer);
+        int compressed = this.sampleCompressor.compress(this.sampleBuffer, 0, sampled, this.sampleCompressedBuffer, 0);
+        if (compressed >= sampled * INCOMPRESSIBLE_RATIO) {
+            this.lz4OutputStream.setCompressing(false);
+            this.incompressibleFiles++;
+            this.incompressibleBytes += fileSize;
         }
+        out.write(this.sampleBuffer, 0, sampled);
+        return sampled;
     }
 }
@@ -0,0 +1,92 @@
+package org.spoorn.tarlz4java.core;
+
+import lombok.Getter;
+
+import org.spoorn.tarlz4java.util.TarLz4Util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * File count and size distribution of a source, used to pick the thread count and buffer size of a compression
+ * instead of relying on fixed settings.
+ *
+ * Threads only pay off when each slice has enough bytes to amortize its .tmp file and merge, and slices are split on
+ * whole files, so a source dominated by one large file can't be spread across many threads either.  Buffers are sized
+ * after the average file, since small files never fill a large buffer while large files are copied in fewer reads with
+ * one.
+ */
+@Getter
+public class WorkloadProfile {
+
+    public static final long MIN_SLICE_BYTES = 16L * 1024 * 1024;  // Smallest slice worth a thread, .tmp file and merge
+    public static final int MIN_BUFFER_SIZE = 8 * 1024;
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private long fileCount;
+    private long totalBytes;
+    private long largestFileSize;
+
+    private WorkloadProfile() {
+
+    }
+
+    /**
+     * @param fileCount Number of files
+     * @param totalBytes Total size of the files in bytes
+     * @param largestFileSize Size of the largest file in bytes
+     * @return Profile of files that are already known, without scanning
+     */
+    public static WorkloadProfile of(long fileCount, long totalBytes, long largestFileSize) {
+        WorkloadProfile profile = new WorkloadProfile();
+        profile.fileCount = fileCount;
+        profile.totalBytes = totalBytes;
+        profile.largestFileSize = largestFileSize;
+        return profile;
+    }
+
+    /**
+     * Scans a source in a single walk.  Files are counted the same way as {@link SourceManifest} counts them, through
+     * {@link TarLz4Util#walkFiles(Path, java.util.function.BiConsumer)}.
+     *
+     * @param source Source directory
+     * @return Profile of the source
+     * @throws IOException If walking the source fails
+     */
+    public static WorkloadProfile scan(Path source) throws IOException {
+        WorkloadProfile profile = new WorkloadProfile();
+        TarLz4Util.walkFiles(source, (file, attrs) -> {
+            profile.fileCount++;
+            profile.totalBytes += attrs.size();
+            profile.largestFileSize = Math.max(profile.largestFileSize, attrs.size());
+        });
+        return profile;
+    }
+
+    /**
+     * @param maxThreads Max number of threads available
+     * @return Number of threads worth using for this source, at least 1
+     */
+    public int suggestNumThreads(int maxThreads) {
+        long bySize = totalBytes / MIN_SLICE_BYTES;
+        // Slices hold whole files, so the largest file bounds how evenly bytes can be spread
+        long byLargestFile = largestFileSize > 0 ? (totalBytes + largestFileSize - 1) / largestFileSize : 1;
+        long threads = Math.min(Math.min(bySize, byLargestFile), fileCount);
+        return (int) Math.max(1, Math.min(maxThreads, threads));
+    }
+
+    /**
+     * @return Buffer size for copying files, the average file size rounded down to a power of 2 within
+     *          [{@link #MIN_BUFFER_SIZE}, {@link #MAX_BUFFER_SIZE}]
+     */
+    public int suggestBufferSize() {
+        long averageFileSize = fileCount > 0 ? totalBytes / fileCount : 0;
+        long size = Long.highestOneBit(Math.max(1, averageFileSize));
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, size));
+    }
+
+    @Override
+    public String toString() {
+        return "WorkloadProfile{fileCount=" + fileCount + ", totalBytes=" + totalBytes + ", largestFileSize=" + largestFileSize + "}";
+    }
+}
@@ -0,0 +1,151 @@
+package org.spoorn.tarlz4java.fs;
+
+import org.spoorn.tarlz4java.io.Lz4BlockReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel over the content of one entry of a mounted .tar.lz4 archive.  Reads at any position only decode the
+ * LZ4 blocks holding it, through the file system's block cache.  Holes of sparse files read as zeros without decoding
+ * anything.
+ */
+class TarLz4EntryChannel implements SeekableByteChannel {
+
+    private final Lz4BlockReader reader;
+    private final long dataOffset;  // Offset of the entry's content in the tar stream
+    private final long size;
+    private final long[] sparseSegments;  // Offset and length of each data segment of a sparse file, or null
+    private final long[] storedOffsets;  // Offset of each data segment from the data offset, or null
+    private long position;
+    private boolean open = true;
+
+    TarLz4EntryChannel(Lz4BlockReader reader, long dataOffset, long size, long[] sparseSegments) {
+        this.reader = reader;
+        this.dataOffset = dataOffset;
+        this.size = size;
+        this.sparseSegments = sparseSegments;
+        if (sparseSegments != null) {
+            this.storedOffsets = new long[sparseSegments.length / 2];
+            for (int i = 1; i < storedOffsets.length; i++) {
+                storedOffsets[i] = storedOffsets[i - 1] + sparseSegments[i * 2 - 1];
+            }
+        } else {
+            this.storedOffsets = null;
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int len = (int) Math.min(dst.remaining(), size - position);
+        long offset = dataOffset + position;
+        if (sparseSegments != null) {
+            int segment = findSegment(position);
+            long segmentEnd = segment >= 0 ? sparseSegments[segment * 2] + sparseSegments[segment * 2 + 1] : 0;
+            if (segment < 0 || position >= segmentEnd) {
+                long holeEnd = segment + 1 < storedOffsets.length ? sparseSegments[segment * 2 + 2] : size;
+                int n = (int) Math.min(len, holeEnd - position);
+                for (int i = 0; i < n; i++) {
+                    dst.put((byte) 0);
+                }
+                position += n;
+                return n;
+            }
+            len = (int) Math.min(len, segmentEnd - position);
+            offset = dataOffset + storedOffsets[segment] + position - sparseSegments[segment * 2];
+        }
+        int read;
+        if (dst.hasArray()) {
+            read = reader.read(offset, dst.array(), dst.arrayOffset() + dst.position(), len);
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+        } else {
+            byte[] b = new byte[len];
+            read = reader.read(offset, b, 0, len);
+            if (read > 0) {
+                dst.put(b, 0, read);
+            }
+        }
+        if (read <= 0) {
+            // The tar stream ended before the entry's content did
+            return -1;
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+
+    /**
+     * @return Index of the last data segment starting at or before a position, or -1 if the position is in a leading hole
+     */
+    private int findSegment(long position) {
+        int low = 0;
+        int high = storedOffsets.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sparseSegments[mid * 2] <= position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.spoorn.tarlz4java.fs;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Attributes of an entry in a mounted .tar.lz4 archive, read from its tar header when the archive is indexed.
+ *
+ * Directories keep the names of their children for listings.  Directories that only appear as parents of other
+ * entries, without an entry of their own in the archive, are indexed as well.
+ */
+public class TarLz4FileAttributes implements BasicFileAttributes {
+
+    private static final FileTime EPOCH = FileTime.fromMillis(0);
+
+    private final String path;  // Absolute path in the archive
+    private final boolean directory;
+    private final long size;
+    private final long dataOffset;  // Offset of the entry's content in the tar stream
+    private final long[] sparseSegments;  // Offset and length of each data segment of a sparse file, or null
+    private FileTime lastModifiedTime;
+    private final List<String> children;  // File names of entries in this directory, or null for a file
+
+    TarLz4FileAttributes(String path, boolean directory, long size, long dataOffset, FileTime lastModifiedTime) {
+        this(path, directory, size, dataOffset, null, lastModifiedTime);
+    }
+
+    TarLz4FileAttributes(String path, boolean directory, long size, long dataOffset, long[] sparseSegments, FileTime lastModifiedTime) {
+        this.path = path;
+        this.directory = directory;
+        this.size = directory ? 0 : size;
+        this.dataOffset = dataOffset;
+        this.sparseSegments = sparseSegments;
+        this.lastModifiedTime = lastModifiedTime != null ? lastModifiedTime : EPOCH;
+        this.children = directory ? new ArrayList<>() : null;
+    }
+
+    /**
+     * @return Offset of the entry's content in the archive's tar stream
+     */
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return Offset and length of each data segment of a sparse file, stored one after the other from the data offset,
+     *          or null if the file isn't sparse
+     */
+    long[] getSparseSegments() {
+        return sparseSegments;
+    }
+
+    /**
+     * @return File names of the entries in this directory, in archive order
+     */
+    List<String> getChildren() {
+        return children != null ? Collections.unmodifiableList(children) : Collections.emptyList();
+    }
+
+    void addChild(String fileName) {
+        children.add(fileName);
+    }
+
+    void setLastModifiedTime(FileTime lastModifiedTime) {
+        this.lastModifiedTime = lastModifiedTime;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return !directory;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Object fileKey() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "TarLz4FileAttributes{path=" + path + ", size=" + size + ", directory=" + directory + "}";
+    }
+}
@@ -0,0 +1,69 @@
+package org.spoorn.tarlz4java.fs;
+
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+
+/**
+ * The single, read-only {@link FileStore} of a mounted .tar.lz4 archive.  Its total space is the decompressed size of
+ * the archive's tar stream.
+ */
+class TarLz4FileStore extends FileStore {
+
+    private final TarLz4FileSystem fileSystem;
+
+    TarLz4FileStore(TarLz4FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public String name() {
+        return fileSystem.getArchivePath().toString();
+    }
+
+    @Override
+    public String type() {
+        return TarLz4FileSystemProvider.SCHEME;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public long getTotalSpace() {
+        return fileSystem.getReader().size();
+    }
+
+    @Override
+    public long getUsableSpace() {
+        return 0;
+    }
+
+    @Override
+    public long getUnallocatedSpace() {
+        return 0;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+        return type == BasicFileAttributeView.class;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(String name) {
+        return name.equals("basic");
+    }
+
+    @Override
+    public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) {
+        throw new UnsupportedOperationException("File store attribute [" + attribute + "] is not supported");
+    }
+}
@@ -0,0 +1,370 @@
+package org.spoorn.tarlz4java.fs;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveStructSparse;
+import org.apache.logging.log4j.Logger;
+import org.spoorn.tarlz4java.io.Lz4BlockReader;
+import org.spoorn.tarlz4java.io.TarLz4Index;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only {@link FileSystem} over the entries of a .tar.lz4 archive, without extracting it.
+ *
+ * Mounting the archive indexes it in one pass over its tar headers.  Entry contents are skipped over by seeking
+ * between LZ4 blocks, so only blocks holding headers are decompressed.  The index maps each path to its attributes and
+ * the offset of its content in the tar stream, and each directory to its children for listings.  Reads go through the
+ * {@link Lz4BlockReader}'s cache of decompressed blocks.
+ *
+ * Archives rewritten by {@link org.spoorn.tarlz4java.api.TarLz4Transcoder} embed a {@link TarLz4Index} at their end,
+ * which is read instead of the tar headers.
+ *
+ * Only regular files and directories are indexed.  Links and other special entries are skipped.
+ */
+public class TarLz4FileSystem extends FileSystem {
+
+    private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger(TarLz4FileSystem.class);
+
+    private final TarLz4FileSystemProvider provider;
+    private final Path archivePath;
+    private final Lz4BlockReader reader;
+    private final TarLz4Path root;
+    private final TarLz4FileStore fileStore;
+    private final Map<String, TarLz4FileAttributes> index = new HashMap<>();  // Entries by absolute normalized path
+    private volatile boolean open = true;
+
+    TarLz4FileSystem(TarLz4FileSystemProvider provider, Path archivePath, long blockCacheSize) throws IOException {
+        this.provider = provider;
+        this.archivePath = archivePath;
+        this.root = new TarLz4Path(this, "/");
+        FileChannel channel = FileChannel.open(archivePath);
+        try {
+            this.reader = new Lz4BlockReader(channel, blockCacheSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.fileStore = new TarLz4FileStore(this);
+        try {
+            TarLz4Index embeddedIndex = TarLz4Index.read(channel);
+            if (embeddedIndex != null) {
+                buildIndex(embeddedIndex);
+            } else {
+                buildIndex();
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    private void buildIndex() throws IOException {
+        index.put("/", new TarLz4FileAttributes("/", true, 0, 0, null));
+        IndexInputStream in = new IndexInputStream();
+        TarArchiveInputStream tais = new TarArchiveInputStream(in);
+        TarArchiveEntry entry;
+        while ((entry = tais.getNextTarEntry()) != null) {
+            if (!entry.isDirectory() && !entry.isFile()) {
+                logger.debug("Skipping {} in archive {} as it is not a regular file or directory", entry.getName(), archivePath);
+                continue;
+            }
+            String path = new TarLz4Path(this, "/" + entry.getName()).normalize().toString();
+            // Right after its header, the tar stream is at the entry's content
+            FileTime lastModifiedTime = FileTime.from(entry.getLastModifiedDate().toInstant());
+            long[] sparseSegments = null;
+            if (entry.isSparse()) {
+                // Only the data segments are stored, after the sparse map that was read with the header
+                List<TarArchiveStructSparse> sparseHeaders = entry.getOrderedSparseHeaders();
+                sparseSegments = new long[sparseHeaders.size() * 2];
+                for (int i = 0; i < sparseHeaders.size(); i++) {
+                    sparseSegments[i * 2] = sparseHeaders.get(i).getOffset();
+                    sparseSegments[i * 2 + 1] = sparseHeaders.get(i).getNumbytes();
+                }
+            }
+            addEntry(new TarLz4FileAttributes(path, entry.isDirectory(), entry.getRealSize(), in.position, sparseSegments, lastModifiedTime));
+        }
+        logger.debug("Indexed {} entries of archive {}", index.size(), archivePath);
+    }
+
+    private void buildIndex(TarLz4Index embeddedIndex) throws IOException {
+        index.put("/", new TarLz4FileAttributes("/", true, 0, 0, null));
+        for (TarLz4Index.Entry entry : embeddedIndex.getEntries()) {
+            if (!entry.isDirectory() && !entry.isFile()) {
+                logger.debug("Skipping {} in archive {} as it is not a regular file or directory", entry.getName(), archivePath);
+                continue;
+            }
+            String path = new TarLz4Path(this, "/" + entry.getName()).normalize().toString();
+            addEntry(new TarLz4FileAttributes(path, entry.isDirectory(), entry.getSize(), entry.getDataOffset(),
+                    entry.getSparseSegments(), FileTime.fromMillis(entry.getLastModifiedMillis())));
+        }
+        logger.debug("Indexed {} entries of archive {} from its embedded index", index.size(), archivePath);
+    }
+
+    private void addEntry(TarLz4FileAttributes attributes) throws IOException {
+        String path = (String) attributes.fileKey();
+        TarLz4FileAttributes existing = index.get(path);
+        if (existing != null && existing.isDirectory() && attributes.isDirectory()) {
+            // Directories are in every slice of an archive, and implicit parents are only found later
+            existing.setLastModifiedTime(attributes.lastModifiedTime());
+            return;
+        }
+        if (existing == null && !path.equals("/")) {
+            int separator = path.lastIndexOf('/');
+            directory(separator == 0 ? "/" : path.substring(0, separator)).addChild(path.substring(separator + 1));
+        }
+        // Same as extracting, a later entry with the same path replaces an earlier one
+        index.put(path, attributes);
+    }
+
+    private TarLz4FileAttributes directory(String path) throws IOException {
+        TarLz4FileAttributes directory = index.get(path);
+        if (directory == null) {
+            directory = new TarLz4FileAttributes(path, true, 0, 0, null);
+            addEntry(directory);
+        } else if (!directory.isDirectory()) {
+            throw new IOException("Archive " + archivePath + " has entries under " + path + ", which is a file");
+        }
+        return directory;
+    }
+
+    /**
+     * @return Number of block reads served from the cache of decompressed blocks
+     */
+    public long getBlockCacheHits() {
+        return reader.getCacheHits();
+    }
+
+    /**
+     * @return Number of block reads that had to decompress the block
+     */
+    public long getBlockCacheMisses() {
+        return reader.getCacheMisses();
+    }
+
+    /**
+     * @return Path to the mounted .tar.lz4 archive
+     */
+    public Path getArchivePath() {
+        return archivePath;
+    }
+
+    TarLz4Path getRoot() {
+        return root;
+    }
+
+    Lz4BlockReader getReader() {
+        ensureOpen();
+        return reader;
+    }
+
+    /**
+     * @return Attributes of the entry at a path, or null if there is none
+     */
+    TarLz4FileAttributes getAttributes(TarLz4Path path) {
+        ensureOpen();
+        return index.get(path.toAbsolutePath().normalize().toString());
+    }
+
+    void ensureOpen() {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+
+    @Override
+    public TarLz4FileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+        }
+        try {
+            reader.close();
+        } finally {
+            provider.removeFileSystem(this);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return List.of(root);
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return List.of(fileStore);
+    }
+
+    TarLz4FileStore getFileStore() {
+        return fileStore;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Set.of("basic");
+    }
+
+    @Override
+    public TarLz4Path getPath(String first, String... more) {
+        StringBuilder sb = new StringBuilder(first);
+        for (String name : more) {
+            if (!name.isEmpty()) {
+                if (sb.length() > 0) {
+                    sb.append('/');
+                }
+                sb.append(name);
+            }
+        }
+        return new TarLz4Path(this, sb.toString());
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Pattern must be prefixed by its syntax, got [" + syntaxAndPattern + "]");
+        }
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        Pattern regex;
+        if (syntax.equalsIgnoreCase("regex")) {
+            regex = Pattern.compile(pattern);
+        } else if (syntax.equalsIgnoreCase("glob")) {
+            regex = Pattern.compile(globToRegex(pattern));
+        } else {
+            throw new UnsupportedOperationException("Pattern syntax [" + syntax + "] is not supported");
+        }
+        return path -> regex.matcher(path.toString()).matches();
+    }
+
+    /**
+     * Converts a glob to a regex, with the same syntax as {@link FileSystem#getPathMatcher(String)}.
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    }
+                    break;
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed [ in glob [" + glob + "]");
+                    }
+                    String set = glob.substring(i + 1, end);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end;
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    regex.append(Character.isLetterOrDigit(c) || c == '/' ? String.valueOf(c) : Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("A .tar.lz4 file system has no user principals");
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Watching a .tar.lz4 file system is not supported");
+    }
+
+    /**
+     * Reads the tar stream from its start while tracking the position, with a skip that seeks instead of reading.
+     */
+    private class IndexInputStream extends InputStream {
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int read = reader.read(position, b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, reader.size() - position));
+            position += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.spoorn.tarlz4java.fs;
+
+import static org.spoorn.tarlz4java.api.TarLz4Compressor.TAR_LZ4_EXTENSION;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * {@link FileSystemProvider} that mounts .tar.lz4 archives as read-only file systems, to read entries in place without
+ * extracting the archive.
+ *
+ * An archive can be mounted by its path, or by a URI of the form {@code tarlz4:file:///path/to/archive.tar.lz4}:
+ *
+ * <pre>{@code
+ * try (FileSystem fs = FileSystems.newFileSystem(Path.of("backup.tar.lz4"))) {
+ *     String config = Files.readString(fs.getPath("/world/config.json"));
+ * }
+ * }</pre>
+ *
+ * Paths of entries in a file system mounted by URI can be looked up by URI as well, such as
+ * {@code tarlz4:file:///path/to/archive.tar.lz4!/world/config.json}.  The size of the cache of decompressed LZ4 blocks
+ * can be set with the {@link #BLOCK_CACHE_SIZE} environment key, in bytes.
+ */
+public class TarLz4FileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "tarlz4";
+    public static final String BLOCK_CACHE_SIZE = "blockCacheSize";  // Env key for the max bytes of decompressed blocks cached
+    public static final long DEFAULT_BLOCK_CACHE_SIZE = 32L * 1024 * 1024;
+    private static final String ENTRY_SEPARATOR = "!";  // Separates the archive's URI from an entry's path in URIs
+
+    private final Map<Path, TarLz4FileSystem> fileSystems = new HashMap<>();  // File systems mounted by URI
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        Path archivePath = archivePath(uri);
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archivePath)) {
+                throw new FileSystemAlreadyExistsException(uri.toString());
+            }
+            TarLz4FileSystem fileSystem = new TarLz4FileSystem(this, archivePath, blockCacheSize(env));
+            fileSystems.put(archivePath, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Mounts an archive by its path.  File systems mounted this way can't be looked up by URI, and the same archive
+     * can be mounted more than once.
+     *
+     * @throws UnsupportedOperationException If the path is not a .tar.lz4 file, so other providers can be tried
+     */
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        Path fileName = path.getFileName();
+        if (fileName == null || !fileName.toString().endsWith(TAR_LZ4_EXTENSION)) {
+            throw new UnsupportedOperationException("Path [" + path + "] is not a " + TAR_LZ4_EXTENSION + " file");
+        }
+        return new TarLz4FileSystem(this, path, blockCacheSize(env));
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        synchronized (fileSystems) {
+            TarLz4FileSystem fileSystem = fileSystems.get(archivePath(uri));
+            if (fileSystem == null) {
+                throw new FileSystemNotFoundException(uri.toString());
+            }
+            return fileSystem;
+        }
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        String ssp = uri.getRawSchemeSpecificPart();
+        int separator = ssp.indexOf(ENTRY_SEPARATOR + "/");
+        if (separator < 0) {
+            throw new IllegalArgumentException("URI [" + uri + "] has no entry path after " + ENTRY_SEPARATOR);
+        }
+        String entryPath = URI.create(ssp.substring(separator + 1)).getPath();
+        return getFileSystem(uri).getPath(entryPath);
+    }
+
+    void removeFileSystem(TarLz4FileSystem fileSystem) {
+        synchronized (fileSystems) {
+            fileSystems.remove(fileSystem.getArchivePath(), fileSystem);
+        }
+    }
+
+    URI toUri(TarLz4Path path) {
+        try {
+            String entryPath = new URI(null, null, path.toAbsolutePath().toString(), null).getRawPath();
+            return new URI(SCHEME + ":" + path.getFileSystem().getArchivePath().toUri() + ENTRY_SEPARATOR + entryPath);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Path [" + path + "] can't be converted to a URI", e);
+        }
+    }
+
+    private static Path archivePath(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme must be " + SCHEME + ", got [" + uri + "]");
+        }
+        String ssp = uri.getRawSchemeSpecificPart();
+        int separator = ssp.indexOf(ENTRY_SEPARATOR + "/");
+        String archiveUri = separator >= 0 ? ssp.substring(0, separator) : ssp;
+        return Path.of(URI.create(archiveUri)).toAbsolutePath().normalize();
+    }
+
+    private static long blockCacheSize(Map<String, ?> env) {
+        Object value = env != null ? env.get(BLOCK_CACHE_SIZE) : null;
+        if (value == null) {
+            return DEFAULT_BLOCK_CACHE_SIZE;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    private static TarLz4Path toTarLz4Path(Path path) {
+        if (!(path instanceof TarLz4Path)) {
+            throw new ProviderMismatchException("Path [" + path + "] is not a .tar.lz4 path");
+        }
+        return (TarLz4Path) path;
+    }
+
+    private static TarLz4FileAttributes getAttributes(Path path) throws NoSuchFileException {
+        TarLz4Path tarLz4Path = toTarLz4Path(path);
+        TarLz4FileAttributes attributes = tarLz4Path.getFileSystem().getAttributes(tarLz4Path);
+        if (attributes == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return attributes;
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ && option instanceof StandardOpenOption) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        TarLz4FileAttributes attributes = getAttributes(path);
+        if (attributes.isDirectory()) {
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+        TarLz4Path tarLz4Path = toTarLz4Path(path);
+        return new TarLz4EntryChannel(tarLz4Path.getFileSystem().getReader(), attributes.getDataOffset(), attributes.size(), 
+                attributes.getSparseSegments());
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        TarLz4FileAttributes attributes = getAttributes(dir);
+        if (!attributes.isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        List<String> children = attributes.getChildren();
+        return new DirectoryStream<>() {
+            private boolean iterated;
+            private boolean closed;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (iterated || closed) {
+                    throw new IllegalStateException("Directory stream can only be iterated once, while open");
+                }
+                iterated = true;
+                Iterator<String> names = children.iterator();
+                return new Iterator<>() {
+                    private Path next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && !closed && names.hasNext()) {
+                            Path child = dir.resolve(names.next());
+                            try {
+                                if (filter == null || filter.accept(child)) {
+                                    next = child;
+                                }
+                            } catch (IOException e) {
+                                throw new DirectoryIteratorException(e);
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public Path next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Path res = next;
+                        next = null;
+                        return res;
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        } else if (!(path2 instanceof TarLz4Path) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        return getAttributes(path).fileKey().equals(getAttributes(path2).fileKey());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        getAttributes(path);
+        return toTarLz4Path(path).getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        getAttributes(path);
+        for (AccessMode mode : modes) {
+            if (mode != AccessMode.READ) {
+                throw new AccessDeniedException(path.toString(), null, "Archive entries can only be read");
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return getAttributes(path);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+        if (!type.isAssignableFrom(TarLz4FileAttributes.class)) {
+            throw new UnsupportedOperationException("Attributes of type " + type.getName() + " are not supported");
+        }
+        return (A) getAttributes(path);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        int colon = attributes.indexOf(':');
+        if (colon >= 0 && !attributes.substring(0, colon).equals("basic")) {
+            throw new UnsupportedOperationException("Attribute view [" + attributes.substring(0, colon) + "] is not supported");
+        }
+        TarLz4FileAttributes attrs = getAttributes(path);
+        Map<String, Object> all = new LinkedHashMap<>();
+        all.put("lastModifiedTime", attrs.lastModifiedTime());
+        all.put("lastAccessTime", attrs.lastAccessTime());
+        all.put("creationTime", attrs.creationTime());
+        all.put("size", attrs.size());
+        all.put("isRegularFile", attrs.isRegularFile());
+        all.put("isDirectory", attrs.isDirectory());
+        all.put("isSymbolicLink", attrs.isSymbolicLink());
+        all.put("isOther", attrs.isOther());
+        all.put("fileKey", attrs.fileKey());
+
+        Map<String, Object> res = new LinkedHashMap<>();
+        for (String name : attributes.substring(colon + 1).split(",")) {
+            if (name.equals("*")) {
+                res.putAll(all);
+            } else if (all.containsKey(name)) {
+                res.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("Attribute [" + name + "] is not supported");
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+}
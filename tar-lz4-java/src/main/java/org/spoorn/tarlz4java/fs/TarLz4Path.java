@@ -0,0 +1,257 @@
+package org.spoorn.tarlz4java.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Path to an entry inside a mounted .tar.lz4 archive.  Paths use '/' as separator, and the archive's root is "/".
+ * Entry names in the archive map to absolute paths, so "dir/file.txt" in the archive is "/dir/file.txt".
+ */
+public class TarLz4Path implements Path {
+
+    private final TarLz4FileSystem fileSystem;
+    private final String path;  // Without repeated or trailing separators, except for the root "/"
+    private String[] names;  // Name elements, split lazily
+
+    TarLz4Path(TarLz4FileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
+        this.path = clean(path);
+    }
+
+    private static String clean(String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        char prev = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\0') {
+                throw new InvalidPathException(path, "Nul character not allowed");
+            }
+            if (c != '/' || prev != '/') {
+                sb.append(c);
+            }
+            prev = c;
+        }
+        if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    private String[] names() {
+        if (names == null) {
+            String relative = isAbsolute() ? path.substring(1) : path;
+            names = relative.isEmpty() ? new String[0] : relative.split("/");
+        }
+        return names;
+    }
+
+    @Override
+    public TarLz4FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? fileSystem.getRoot() : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        String[] names = names();
+        if (names.length == 0) {
+            // The empty path is its own file name, the root has none
+            return path.isEmpty() ? this : null;
+        }
+        return names.length == 1 && !isAbsolute() ? this : new TarLz4Path(fileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        String[] names = names();
+        if (names.length == 0 || (names.length == 1 && !isAbsolute())) {
+            return null;
+        }
+        int separator = path.lastIndexOf('/');
+        return separator == 0 ? fileSystem.getRoot() : new TarLz4Path(fileSystem, path.substring(0, separator));
+    }
+
+    @Override
+    public int getNameCount() {
+        return path.isEmpty() ? 1 : names().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        if (path.isEmpty() && index == 0) {
+            return this;
+        }
+        String[] names = names();
+        if (index < 0 || index >= names.length) {
+            throw new IllegalArgumentException("Invalid name index " + index + " for path [" + path + "]");
+        }
+        return new TarLz4Path(fileSystem, names[index]);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        String[] names = names();
+        if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("Invalid subpath [" + beginIndex + ", " + endIndex + ") for path [" + path + "]");
+        }
+        return new TarLz4Path(fileSystem, String.join("/", List.of(names).subList(beginIndex, endIndex)));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        TarLz4Path o = checkPath(other);
+        if (o.isAbsolute() != isAbsolute() || o.names().length > names().length) {
+            return false;
+        }
+        for (int i = 0; i < o.names().length; i++) {
+            if (!o.names()[i].equals(names()[i])) {
+                return false;
+            }
+        }
+        return !o.path.isEmpty() || path.isEmpty();
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        TarLz4Path o = checkPath(other);
+        if (o.isAbsolute()) {
+            return o.path.equals(path);
+        }
+        int offset = names().length - o.names().length;
+        if (offset < 0 || o.path.isEmpty() != path.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < o.names().length; i++) {
+            if (!o.names()[i].equals(names()[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Path normalize() {
+        Deque<String> normalized = new ArrayDeque<>();
+        for (String name : names()) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (!normalized.isEmpty() && !normalized.peekLast().equals("..")) {
+                    normalized.removeLast();
+                    continue;
+                } else if (isAbsolute()) {
+                    // Nothing is above the root
+                    continue;
+                }
+            }
+            normalized.addLast(name);
+        }
+        return new TarLz4Path(fileSystem, (isAbsolute() ? "/" : "") + String.join("/", normalized));
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        TarLz4Path o = checkPath(other);
+        if (o.isAbsolute()) {
+            return o;
+        } else if (o.path.isEmpty()) {
+            return this;
+        } else if (path.isEmpty()) {
+            return o;
+        }
+        return new TarLz4Path(fileSystem, path + "/" + o.path);
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        TarLz4Path o = checkPath(other);
+        if (o.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Can't relativize [" + o + "] against [" + this + "]");
+        }
+        String[] names = names();
+        String[] otherNames = o.names();
+        int common = 0;
+        while (common < names.length && common < otherNames.length && names[common].equals(otherNames[common])) {
+            common++;
+        }
+        List<String> relative = new ArrayList<>();
+        for (int i = common; i < names.length; i++) {
+            relative.add("..");
+        }
+        relative.addAll(List.of(otherNames).subList(common, otherNames.length));
+        return new TarLz4Path(fileSystem, String.join("/", relative));
+    }
+
+    @Override
+    public URI toUri() {
+        return fileSystem.provider().toUri(this);
+    }
+
+    @Override
+    public TarLz4Path toAbsolutePath() {
+        return isAbsolute() ? this : new TarLz4Path(fileSystem, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        TarLz4Path real = (TarLz4Path) toAbsolutePath().normalize();
+        if (fileSystem.getAttributes(real) == null) {
+            throw new NoSuchFileException(toString());
+        }
+        return real;
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Watching a .tar.lz4 file system is not supported");
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(checkPath(other).path);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof TarLz4Path && ((TarLz4Path) obj).fileSystem == fileSystem && ((TarLz4Path) obj).path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    private TarLz4Path checkPath(Path other) {
+        if (!(other instanceof TarLz4Path)) {
+            throw new ProviderMismatchException("Path [" + other + "] is not a .tar.lz4 path");
+        }
+        return (TarLz4Path) other;
+    }
+}
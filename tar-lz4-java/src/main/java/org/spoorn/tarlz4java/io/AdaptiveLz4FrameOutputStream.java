@@ -0,0 +1,183 @@
+package org.spoorn.tarlz4java.io;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes a single LZ4 frame with independent blocks, compatible with {@link net.jpountz.lz4.LZ4FrameOutputStream}, but
+ * that can skip compressing blocks of data known to be incompressible.
+ *
+ * Bytes written while {@link #setCompressing(boolean)} is false are expected not to compress.  When a block is flushed
+ * and most of it was written that way, the block is stored as an uncompressed LZ4 block directly, without spending any
+ * CPU on trying to compress it first.  Other blocks are compressed, and are still stored uncompressed if compressing
+ * them did not make them smaller.
+ */
+public class AdaptiveLz4FrameOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final int FLG_VERSION = 0x40;
+    private static final int FLG_BLOCK_INDEPENDENCE = 0x20;
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final ByteBuffer intLEBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] buffer;
+    private final byte[] compressedBuffer;
+    private int bufferPos;
+    private int compressibleBytes;  // Bytes in the current block that were written while compressing
+    private boolean compressing = true;
+    private boolean finished;
+    private long storedBlocks;  // Blocks stored without trying to compress them
+
+    public AdaptiveLz4FrameOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param out Output to write the frame to
+     * @param blockSize Max block size.  Must be one of 64 KB, 256 KB, 1 MB or 4 MB as defined by the LZ4 frame format.
+     * @throws IOException If writing the frame header fails
+     */
+    public AdaptiveLz4FrameOutputStream(OutputStream out, int blockSize) throws IOException {
+        super(out);
+        this.buffer = new byte[blockSize];
+        this.compressedBuffer = new byte[compressor.maxCompressedLength(blockSize)];
+        writeHeader(blockSizeId(blockSize));
+    }
+
+    /**
+     * Sets whether the bytes written next are expected to compress.
+     *
+     * @param compressing False if the next bytes are known to be incompressible, else true
+     */
+    public void setCompressing(boolean compressing) {
+        this.compressing = compressing;
+    }
+
+    /**
+     * @return Number of blocks that were stored uncompressed without trying to compress them
+     */
+    public long getStoredBlocks() {
+        return storedBlocks;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureNotFinished();
+        if (bufferPos == buffer.length) {
+            writeBlock();
+        }
+        buffer[bufferPos++] = (byte) b;
+        if (compressing) {
+            compressibleBytes++;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureNotFinished();
+
+        while (len > 0) {
+            if (bufferPos == buffer.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, buffer.length - bufferPos);
+            System.arraycopy(b, off, buffer, bufferPos, n);
+            bufferPos += n;
+            if (compressing) {
+                compressibleBytes += n;
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!finished) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            writeBlock();
+            // End mark
+            writeIntLE(0);
+            finished = true;
+        }
+        out.close();
+    }
+
+    private void writeHeader(int blockSizeId) throws IOException {
+        byte[] descriptor = {(byte) (FLG_VERSION | FLG_BLOCK_INDEPENDENCE), (byte) (blockSizeId << 4)};
+        int hash = (XXHashFactory.fastestInstance().hash32().hash(descriptor, 0, descriptor.length, 0) >> 8) & 0xFF;
+        writeIntLE(SeekableLz4FrameInputStream.MAGIC);
+        out.write(descriptor);
+        out.write(hash);
+    }
+
+    private void writeBlock() throws IOException {
+        if (bufferPos == 0) {
+            return;
+        }
+
+        // Only try to compress if a meaningful part of the block is expected to compress
+        if (compressibleBytes * 4 >= bufferPos) {
+            int compressedLength = compressor.compress(buffer, 0, bufferPos, compressedBuffer, 0);
+            if (compressedLength < bufferPos) {
+                writeIntLE(compressedLength);
+                out.write(compressedBuffer, 0, compressedLength);
+                bufferPos = 0;
+                compressibleBytes = 0;
+                return;
+            }
+        } else {
+            storedBlocks++;
+        }
+
+        // Store block uncompressed
+        writeIntLE(bufferPos | SeekableLz4FrameInputStream.INCOMPRESSIBLE_MASK);
+        out.write(buffer, 0, bufferPos);
+        bufferPos = 0;
+        compressibleBytes = 0;
+    }
+
+    private void writeIntLE(int i) throws IOException {
+        intLEBuffer.putInt(0, i);
+        out.write(intLEBuffer.array());
+    }
+
+    private void ensureNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("This stream is already closed");
+        }
+    }
+
+    private static int blockSizeId(int blockSize) {
+        switch (blockSize) {
+            case 64 * 1024:
+                return 4;
+            case 256 * 1024:
+                return 5;
+            case 1024 * 1024:
+                return 6;
+            case 4 * 1024 * 1024:
+                return 7;
+            default:
+                throw new IllegalArgumentException("Unsupported LZ4 block size " + blockSize);
+        }
+    }
+}
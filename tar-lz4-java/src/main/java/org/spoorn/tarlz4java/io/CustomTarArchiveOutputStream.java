@@ -1,26 +1,41 @@
 package org.spoorn.tarlz4java.io;
 
+import net.jpountz.lz4.LZ4FrameOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
 /**
- * For multi-threaded tar archiving in LZ4Compressor, if we are not on the last slice, don't write the archive end entries.
+ * For multi-threaded tar archiving in LZ4Compressor, slices don't write the archive end entries.
+ *
+ * The end entries are instead written once by the compressor as their own small LZ4 frame after the last slice, see
+ * {@link #createTrailerFrame()}.  Keeping them in a separate frame means an archive can be appended to by replacing only
+ * that frame, without touching any of the frames holding entries.
  */
 public class CustomTarArchiveOutputStream extends TarArchiveOutputStream {
-    
-    private final boolean isLast;
-    
-    public CustomTarArchiveOutputStream(OutputStream os, boolean isLast) {
+
+    public CustomTarArchiveOutputStream(OutputStream os) {
         super(os);
-        this.isLast = isLast;
     }
 
     @Override
     public void finish() throws IOException {
-        if (this.isLast) {
-            super.finish();
+        // Archive end entries are written by createTrailerFrame()
+    }
+
+    /**
+     * Creates a standalone LZ4 frame holding only the tar end-of-archive records.
+     *
+     * @return Bytes of the LZ4 frame
+     * @throws IOException If the frame could not be written
+     */
+    public static byte[] createTrailerFrame() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(new LZ4FrameOutputStream(bos))) {
+            taos.finish();
         }
+        return bos.toByteArray();
     }
 }
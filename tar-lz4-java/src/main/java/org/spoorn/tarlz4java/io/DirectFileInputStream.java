@@ -0,0 +1,88 @@
+package org.spoorn.tarlz4java.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * InputStream that reads a file with direct I/O, so its content doesn't go through the OS page cache.
+ *
+ * The file is read sequentially in whole aligned buffers.  The buffer is passed in so it can be reused across files, as
+ * aligned direct buffers are expensive to allocate.
+ */
+public class DirectFileInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long size;  // Size of the file when opened
+    private long position;
+    private boolean eof;
+
+    /**
+     * @param file File to read
+     * @param buffer Aligned buffer from {@link DirectIO#allocate(int, int)}.  Must not be used by anything else until
+     *               this stream is closed.
+     * @throws IOException If the file can't be opened, including if its file system doesn't support direct I/O
+     */
+    public DirectFileInputStream(Path file, ByteBuffer buffer) throws IOException {
+        this.channel = FileChannel.open(file, READ, DirectIO.option());
+        this.size = channel.size();
+        this.buffer = buffer;
+        this.buffer.clear().limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return True if the buffer has bytes to read, false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        while (!buffer.hasRemaining()) {
+            if (eof) {
+                return false;
+            }
+            buffer.clear();
+            // Reads stop at the size the file had when opened, as the position past a partial last block is no longer
+            // aligned.  A file that shrank since ends early, and one that grew is cut off.
+            while (buffer.hasRemaining() && !eof) {
+                int read = channel.read(buffer);
+                if (read <= 0) {
+                    eof = true;
+                } else {
+                    position += read;
+                    eof = position >= size;
+                }
+            }
+            buffer.flip();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+package org.spoorn.tarlz4java.io;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * OutputStream that writes a file with direct I/O, so written data doesn't fill up the OS page cache.
+ *
+ * Bytes are collected in an aligned buffer and written in whole aligned blocks.  On close, the last partial block is
+ * written padded, and the file is truncated back to the bytes actually written.  Writing can start at any position of an
+ * existing file, such as the end of an archive being appended to.  Anything after the starting position is replaced.
+ *
+ * If the file system doesn't support direct I/O, the file is written through the page cache instead, and synced to
+ * disk every {@link #SYNC_INTERVAL} bytes.  Java can't advise the OS to drop pages, but synced pages are clean, which
+ * the OS can reclaim right away instead of them piling up waiting for write-back.
+ */
+public class DirectFileOutputStream extends OutputStream {
+
+    public static final long SYNC_INTERVAL = 8L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final boolean direct;
+    private final int alignment;
+    private long position;  // Position in the file the buffer starts at
+    private long unsynced;
+    private boolean closed;
+
+    /**
+     * @param file File to write.  Created if it doesn't exist.
+     * @param position Position to start writing at.  The file is truncated to it.
+     * @param bufferSize Size of the write buffer
+     * @throws IOException If the file can't be opened
+     */
+    public DirectFileOutputStream(Path file, long position, int bufferSize) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        this.alignment = DirectIO.alignment(parent);
+        FileChannel directChannel;
+        try {
+            directChannel = FileChannel.open(file, READ, WRITE, CREATE, DirectIO.option());
+        } catch (IOException | UnsupportedOperationException e) {
+            directChannel = null;
+        }
+        this.direct = directChannel != null;
+        this.channel = direct ? directChannel : FileChannel.open(file, WRITE, CREATE);
+        this.channel.truncate(position);
+        this.buffer = direct ? DirectIO.allocate(Math.max(bufferSize, alignment), alignment) : ByteBuffer.allocate(bufferSize);
+
+        if (direct) {
+            // Start at the block holding the position, keeping the bytes already in it
+            this.position = DirectIO.alignDown(position, alignment);
+            int head = (int) (position - this.position);
+            if (head > 0) {
+                buffer.limit(alignment);
+                channel.read(buffer, this.position);
+                buffer.clear().position(head);
+            }
+        } else {
+            this.position = position;
+        }
+    }
+
+    /**
+     * @return True if the file is written with direct I/O, false if it fell back to the page cache
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            int tail = buffer.position();
+            if (direct && tail % alignment != 0) {
+                // Direct writes must be whole blocks, so pad the last one and cut the padding off after
+                long end = position + tail;
+                buffer.limit((int) DirectIO.alignUp(tail, alignment));
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                }
+                buffer.position(tail);
+                flushBuffer();
+                channel.truncate(end);
+            } else {
+                flushBuffer();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the buffer up to its position, which must be aligned in direct mode unless it is the padded last block.
+     */
+    private void flushBuffer() throws IOException {
+        int length = direct ? (int) DirectIO.alignUp(buffer.position(), alignment) : buffer.position();
+        buffer.position(0).limit(length);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+
+        if (!direct) {
+            unsynced += length;
+            if (unsynced >= SYNC_INTERVAL) {
+                channel.force(false);
+                unsynced = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.spoorn.tarlz4java.io;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Helpers for direct I/O, which reads and writes files without going through the OS page cache.
+ *
+ * Direct I/O requires buffers, file positions and transfer sizes to be aligned to the file system's block size.  Not
+ * all file systems support it, in which case opening a file fails and callers fall back to regular I/O.
+ */
+public final class DirectIO {
+
+    public static final int DEFAULT_ALIGNMENT = 4096;
+    public static final int BUFFER_SIZE = 1024 * 1024;  // Transfers bypass read-ahead and write-back, so they need to be large
+
+    private DirectIO() {
+
+    }
+
+    /**
+     * @return Open option for direct I/O
+     */
+    public static ExtendedOpenOption option() {
+        return ExtendedOpenOption.DIRECT;
+    }
+
+    /**
+     * @param path Existing file or directory whose file system to check
+     * @return Block size that direct I/O must be aligned to, or {@link #DEFAULT_ALIGNMENT} if it can't be determined
+     */
+    public static int alignment(Path path) {
+        try {
+            long blockSize = Files.getFileStore(path).getBlockSize();
+            return blockSize > 0 && blockSize <= BUFFER_SIZE ? (int) blockSize : DEFAULT_ALIGNMENT;
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_ALIGNMENT;
+        }
+    }
+
+    /**
+     * Allocates a direct buffer whose address is aligned for direct I/O.
+     *
+     * @param size Size of the buffer, rounded up to a multiple of the alignment
+     * @param alignment Alignment in bytes, a power of 2
+     * @return Aligned buffer
+     */
+    public static ByteBuffer allocate(int size, int alignment) {
+        int alignedSize = (int) alignUp(size, alignment);
+        return ByteBuffer.allocateDirect(alignedSize + alignment).alignedSlice(alignment).limit(alignedSize).slice();
+    }
+
+    /**
+     * @return Value rounded down to a multiple of the alignment
+     */
+    public static long alignDown(long value, int alignment) {
+        return value & -(long) alignment;
+    }
+
+    /**
+     * @return Value rounded up to a multiple of the alignment
+     */
+    public static long alignUp(long value, int alignment) {
+        return alignDown(value + alignment - 1, alignment);
+    }
+}
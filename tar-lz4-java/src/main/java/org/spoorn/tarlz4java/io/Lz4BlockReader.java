@@ -0,0 +1,202 @@
+package org.spoorn.tarlz4java.io;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Random access reads over the decompressed content of concatenated LZ4 frames, such as the tar stream of a .tar.lz4.
+ *
+ * Opening the reader walks the block headers once to index where each block's decoded bytes start, without
+ * decompressing anything, see {@link SeekableLz4FrameInputStream#scanBlocks}.  Reads then find the blocks holding the requested range, and decompress them through an LRU cache of
+ * decoded blocks capped to a number of bytes, so repeated and nearby reads don't decode the same blocks again.
+ *
+ * Reads are thread safe.  Blocks missing from the cache are decompressed outside of the cache's lock.
+ */
+public class Lz4BlockReader implements Closeable {
+
+    private final FileChannel channel;
+    private final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+    private final BlockCache cache;
+
+    private int blockCount;
+    private long[] dataPositions = new long[64];  // Position of each block's data in the channel
+    private int[] blockHeaders = new int[64];  // Compressed size and incompressible flag of each block
+    private long[] decodedStarts = new long[65];  // Offset of each block's decoded bytes, and the total size at the end
+    private long hits;
+    private long misses;
+
+    /**
+     * @param channel Channel holding LZ4 frames from its start.  Closed along with this reader.
+     * @param cacheCapacity Max number of decoded bytes to keep cached
+     * @throws IOException If the channel does not hold valid LZ4 frames
+     */
+    public Lz4BlockReader(FileChannel channel, long cacheCapacity) throws IOException {
+        this.channel = channel;
+        this.cache = new BlockCache(cacheCapacity);
+        new SeekableLz4FrameInputStream(channel, 0).scanBlocks((dataPosition, blockHeader, decodedLength) -> {
+            // Empty blocks hold nothing to read, and would break the search for a position's block
+            if (decodedLength > 0) {
+                int index = blockCount;
+                addBlock(dataPosition, blockHeader);
+                decodedStarts[index + 1] = decodedStarts[index] + decodedLength;
+            }
+        });
+    }
+
+    /**
+     * @return Total number of decoded bytes
+     */
+    public long size() {
+        return decodedStarts[blockCount];
+    }
+
+    /**
+     * @return Number of block reads served from the cache
+     */
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of block reads that had to decompress the block
+     */
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * Reads decoded bytes starting at a position.
+     *
+     * @param position Position in the decoded content
+     * @param b Buffer to read into
+     * @param off Offset in the buffer
+     * @param len Max number of bytes to read
+     * @return Number of bytes read, which is less than len only at the end of the content, or -1 if the position is at
+     *          or past the end
+     * @throws IOException If reading or decompressing a block fails
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= size()) {
+            return -1;
+        }
+        int read = 0;
+        int block = findBlock(position);
+        while (read < len && block < blockCount) {
+            byte[] decoded = getBlock(block);
+            int blockOffset = (int) (position + read - decodedStarts[block]);
+            int n = Math.min(len - read, decoded.length - blockOffset);
+            System.arraycopy(decoded, blockOffset, b, off + read, n);
+            read += n;
+            block++;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.clear();
+        channel.close();
+    }
+
+    /**
+     * @return Index of the block holding a position in the decoded content
+     */
+    private int findBlock(long position) {
+        int index = Arrays.binarySearch(decodedStarts, 0, blockCount + 1, position);
+        // Between two starts, the block is the one starting before.  Blocks are never empty, so starts are unique.
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private byte[] getBlock(int block) throws IOException {
+        synchronized (this) {
+            byte[] decoded = cache.get(block);
+            if (decoded != null) {
+                hits++;
+                return decoded;
+            }
+            misses++;
+        }
+        byte[] decoded = decode(block, (int) (decodedStarts[block + 1] - decodedStarts[block]));
+        synchronized (this) {
+            cache.put(block, decoded);
+        }
+        return decoded;
+    }
+
+    private byte[] decode(int block, int decodedSize) throws IOException {
+        int blockHeader = blockHeaders[block];
+        int blockSize = blockHeader & ~SeekableLz4FrameInputStream.INCOMPRESSIBLE_MASK;
+        byte[] compressed = new byte[blockSize];
+        ByteBuffer buf = ByteBuffer.wrap(compressed);
+        long pos = dataPositions[block];
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of LZ4 stream at position " + pos);
+            }
+            pos += read;
+        }
+        if ((blockHeader & SeekableLz4FrameInputStream.INCOMPRESSIBLE_MASK) != 0) {
+            return compressed;
+        }
+        byte[] decoded = new byte[decodedSize];
+        if (decompressor.decompress(compressed, 0, blockSize, decoded, 0, decodedSize) != decodedSize) {
+            throw new IOException("LZ4 block at position " + dataPositions[block] + " did not decode to its indexed length");
+        }
+        return decoded;
+    }
+
+    private void addBlock(long dataPosition, int blockHeader) {
+        if (blockCount == dataPositions.length) {
+            dataPositions = Arrays.copyOf(dataPositions, blockCount * 2);
+            blockHeaders = Arrays.copyOf(blockHeaders, blockCount * 2);
+            decodedStarts = Arrays.copyOf(decodedStarts, blockCount * 2 + 1);
+        }
+        dataPositions[blockCount] = dataPosition;
+        blockHeaders[blockCount] = blockHeader;
+        blockCount++;
+    }
+
+    /**
+     * Decoded blocks by index, evicting the least recently used blocks once over capacity.  Not thread safe.
+     */
+    private static class BlockCache extends LinkedHashMap<Integer, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long capacity;
+        private long bytes;
+
+        private BlockCache(long capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public byte[] put(Integer key, byte[] value) {
+            byte[] previous = super.put(key, value);
+            bytes += value.length - (previous != null ? previous.length : 0);
+            // Evict from the least recently used, but always keep the block just added
+            var it = entrySet().iterator();
+            while (bytes > capacity && size() > 1) {
+                bytes -= it.next().getValue().length;
+                it.remove();
+            }
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package org.spoorn.tarlz4java.io;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import net.jpountz.xxhash.StreamingXXHash32;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads concatenated LZ4 frames from a {@link FileChannel}, like {@link net.jpountz.lz4.LZ4FrameInputStream}, but with
+ * a {@link #skip(long)} that seeks over whole LZ4 blocks without decompressing them.
+ *
+ * A block can only be jumped over if we know exactly how many decoded bytes it holds.  Incompressible blocks hold their
+ * stored size.  Blocks are usually full, of the frame's max block size, but a writer that flushes mid-frame leaves a
+ * shorter block behind, so that is only trusted for frames whose descriptor carries their content size, and whose
+ * blocks add up to it.  Other compressed blocks are read and their LZ4 sequences walked to count their decoded bytes,
+ * which is still much cheaper than decompressing them.  This makes skipping over tar entry payloads nearly free, which
+ * is what listing an archive mostly does.
+ *
+ * Only independent blocks are supported, which is what {@link net.jpountz.lz4.LZ4FrameOutputStream} writes.  Skippable
+ * frames are skipped.  Block checksums are verified for blocks that get decoded, and content checksums for frames that
+ * were decoded from their first block to their end mark, since skipped blocks are never decoded.
+ */
+public class SeekableLz4FrameInputStream extends InputStream {
+
+    public static final int MAGIC = 0x184D2204;
+    public static final int MAGIC_SKIPPABLE_BASE = 0x184D2A50;
+    public static final int INCOMPRESSIBLE_MASK = 0x80000000;
+
+    private static final int FLG_VERSION_MASK = 0xC0;
+    private static final int FLG_VERSION = 0x40;
+    private static final int FLG_BLOCK_INDEPENDENCE = 0x20;
+    private static final int FLG_BLOCK_CHECKSUM = 0x10;
+    private static final int FLG_CONTENT_SIZE = 0x08;
+    private static final int FLG_CONTENT_CHECKSUM = 0x04;
+    private static final int FLG_DICT_ID = 0x01;
+
+    private final FileChannel channel;
+    private final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+    private final XXHash32 checksum = XXHashFactory.fastestInstance().hash32();
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long position;  // Position in the compressed channel
+    private long frameStart;  // Position of the current frame's magic number
+    private boolean inFrame;
+    private int maxBlockSize;
+    private boolean blockChecksum;
+    private boolean contentChecksum;
+    private long contentSize;  // Decoded size of the current frame from its descriptor, or -1 if it has none
+    private long firstBlockPosition;  // Position of the current frame's first block header
+    private Boolean fullBlocks;  // Whether every block of the current frame but the last is full, null if not known yet
+    private boolean contentDecoded;  // Whether every block of the current frame so far was decoded into contentHash
+    private StreamingXXHash32 contentHash;  // Only created once a frame with a content checksum is read
+
+    private byte[] decoded = new byte[0];
+    private byte[] compressed = new byte[0];
+    private ByteBuffer decodedView = ByteBuffer.wrap(decoded);  // Reused view of the decoded block, for slices
+    private int decodedPos;
+    private int decodedLen;
+    private long blocksSkipped;
+
+    public SeekableLz4FrameInputStream(FileChannel channel) throws IOException {
+        this(channel, channel.position());
+    }
+
+    public SeekableLz4FrameInputStream(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * @return Number of LZ4 blocks that were jumped over without being decompressed
+     */
+    public long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    /**
+     * Walks the frame headers and block headers from the current position to the end of the channel, without
+     * decompressing anything.
+     *
+     * @return Start positions of every LZ4 frame, in order.  Skippable frames are not included.
+     * @throws IOException If the channel does not hold valid LZ4 frames
+     */
+    public List<Long> scanFrameOffsets() throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        while (nextFrame()) {
+            contentDecoded = false;
+            offsets.add(frameStart);
+            int blockHeader;
+            while ((blockHeader = readIntLE(position)) != 0) {
+                position += 4 + (blockHeader & ~INCOMPRESSIBLE_MASK) + (blockChecksum ? 4 : 0);
+            }
+            position += 4;
+            endFrame();
+        }
+        return offsets;
+    }
+
+    /**
+     * Walks the frame headers and block headers from the current position to the end of the channel, without
+     * decompressing anything, and reports every data block with the number of bytes it decodes to.  Those are known
+     * the same way {@link #skip(long)} knows them, so blocks that may not be full get their sequences walked.
+     *
+     * @param visitor Called with each data block, in order
+     * @throws IOException If the channel does not hold valid LZ4 frames
+     */
+    public void scanBlocks(BlockVisitor visitor) throws IOException {
+        while (nextFrame()) {
+            contentDecoded = false;
+            int blockHeader;
+            while ((blockHeader = readIntLE(position)) != 0) {
+                long nextBlockPos = position + 4 + (blockHeader & ~INCOMPRESSIBLE_MASK) + (blockChecksum ? 4 : 0);
+                int decodedLength = readIntLE(nextBlockPos) != 0 && hasFullBlocks()
+                        ? maxBlockSize : decodedLength(position + 4, blockHeader);
+                visitor.visit(position + 4, blockHeader, decodedLength);
+                position = nextBlockPos;
+            }
+            position += 4;
+            endFrame();
+        }
+    }
+
+    /**
+     * Receives the data blocks found by {@link #scanBlocks(BlockVisitor)}.
+     */
+    @FunctionalInterface
+    public interface BlockVisitor {
+        /**
+         * @param dataPosition Position of the block's data in the channel, right after its block header
+         * @param blockHeader Block header, holding the size of the data and the {@link #INCOMPRESSIBLE_MASK} flag
+         * @param decodedLength Number of bytes the block decodes to
+         */
+        void visit(long dataPosition, int blockHeader, int decodedLength) throws IOException;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (decodedPos == decodedLen && !nextBlock()) {
+            return -1;
+        }
+        return decoded[decodedPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (decodedPos == decodedLen && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, decodedLen - decodedPos);
+        System.arraycopy(decoded, decodedPos, b, off, n);
+        decodedPos += n;
+        return n;
+    }
+
+    /**
+     * Reads up to a number of decoded bytes in place, without copying them.  The returned buffer is a view of the
+     * decoded block that is reused by every call, so it is only valid until the next read or skip.
+     *
+     * @param maxLength Max number of bytes to read
+     * @return View of the bytes read, with at least one byte remaining, or null at the end of the channel
+     * @throws IOException If reading or decoding fails
+     */
+    public ByteBuffer readSlice(int maxLength) throws IOException {
+        if (decodedPos == decodedLen && !nextBlock()) {
+            return null;
+        }
+        int n = Math.min(maxLength, decodedLen - decodedPos);
+        if (decodedView.array() != decoded) {
+            decodedView = ByteBuffer.wrap(decoded);
+        }
+        decodedView.clear().position(decodedPos).limit(decodedPos + n);
+        decodedPos += n;
+        return decodedView;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long remaining = n;
+
+        // Drain what we already decoded
+        int buffered = (int) Math.min(remaining, decodedLen - decodedPos);
+        decodedPos += buffered;
+        remaining -= buffered;
+
+        while (remaining > 0) {
+            if (!inFrame && !nextFrame()) {
+                break;
+            }
+
+            // Jump over whole blocks as long as we know exactly how many decoded bytes they hold
+            if (remaining >= maxBlockSize) {
+                int blockHeader = readIntLE(position);
+                if (blockHeader == 0) {
+                    position += 4;
+                    endFrame();
+                    continue;
+                }
+                long nextBlockPos = position + 4 + (blockHeader & ~INCOMPRESSIBLE_MASK) + (blockChecksum ? 4 : 0);
+                int decodedLength = readIntLE(nextBlockPos) != 0 && hasFullBlocks()
+                        ? maxBlockSize : decodedLength(position + 4, blockHeader);
+                if (decodedLength <= remaining) {
+                    contentDecoded = false;
+                    position = nextBlockPos;
+                    remaining -= decodedLength;
+                    blocksSkipped++;
+                    continue;
+                }
+            }
+
+            if (!nextBlock()) {
+                break;
+            }
+            buffered = (int) Math.min(remaining, decodedLen - decodedPos);
+            decodedPos += buffered;
+            remaining -= buffered;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public int available() {
+        return decodedLen - decodedPos;
+    }
+
+    /**
+     * Decodes what is left of the current frame, without moving on to the next one, so its content checksum is verified
+     * even if the reader stops short of its end mark, such as at the end-of-archive records of a tar stream.  Does
+     * nothing if the frame has no content checksum, or if any of its blocks were skipped.
+     *
+     * @throws IOException If reading or decoding fails, or the frame's content checksum doesn't match
+     */
+    public void finishFrame() throws IOException {
+        decodedPos = decodedLen;
+        while (inFrame && contentDecoded) {
+            int blockHeader = readIntLE(position);
+            position += 4;
+            if (blockHeader == 0) {
+                endFrame();
+            } else {
+                decodeBlock(blockHeader);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (contentHash != null) {
+                contentHash.close();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Decodes the next block into the decoded buffer, moving on to following frames as needed.
+     *
+     * @return false if the end of the channel was reached
+     */
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            if (!inFrame && !nextFrame()) {
+                return false;
+            }
+            int blockHeader = readIntLE(position);
+            position += 4;
+            if (blockHeader == 0) {
+                endFrame();
+                continue;
+            }
+            decodeBlock(blockHeader);
+            if (decodedLen > 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decodes the block whose header was just read into the decoded buffer.
+     */
+    private void decodeBlock(int blockHeader) throws IOException {
+        int blockSize = blockHeader & ~INCOMPRESSIBLE_MASK;
+        if (blockSize > maxBlockSize) {
+            throw new IOException("LZ4 block size " + blockSize + " exceeds frame max block size " + maxBlockSize);
+        }
+        // Buffers are only allocated once something is decoded, so scanning or skipping doesn't need them
+        if (decoded.length < maxBlockSize) {
+            decoded = new byte[maxBlockSize];
+            compressed = new byte[maxBlockSize];
+        }
+        boolean incompressible = (blockHeader & INCOMPRESSIBLE_MASK) != 0;
+        byte[] data = incompressible ? decoded : compressed;
+        readFully(data, blockSize, position);
+        if (blockChecksum && checksum.hash(data, 0, blockSize, 0) != readIntLE(position + blockSize)) {
+            throw new IOException("LZ4 block checksum mismatch at position " + (position - 4));
+        }
+        decodedLen = incompressible ? blockSize : decompressor.decompress(compressed, 0, blockSize, decoded, 0, maxBlockSize);
+        position += blockSize + (blockChecksum ? 4 : 0);
+        decodedPos = 0;
+        if (contentDecoded) {
+            contentHash.update(decoded, 0, decodedLen);
+        }
+    }
+
+    /**
+     * @return Number of bytes a block decodes to, read from the block itself
+     */
+    private int decodedLength(long dataPosition, int blockHeader) throws IOException {
+        int blockSize = blockHeader & ~INCOMPRESSIBLE_MASK;
+        if ((blockHeader & INCOMPRESSIBLE_MASK) != 0) {
+            return blockSize;
+        }
+        if (blockSize > maxBlockSize) {
+            throw new IOException("LZ4 block size " + blockSize + " exceeds frame max block size " + maxBlockSize);
+        }
+        if (compressed.length < maxBlockSize) {
+            compressed = new byte[maxBlockSize];
+        }
+        readFully(compressed, blockSize, dataPosition);
+        return decodedLength(compressed, 0, blockSize, maxBlockSize);
+    }
+
+    /**
+     * Counts the bytes an LZ4 block decodes to by walking its sequences, without decoding it.  Each sequence is a token
+     * holding its literal and match lengths, with extra length bytes when they don't fit, then its literals, then a
+     * 2 byte match offset.  The last sequence ends after its literals.
+     *
+     * @param src Buffer holding the compressed block
+     * @param off Offset of the block in the buffer
+     * @param len Compressed size of the block
+     * @param maxDecodedLength Max size the block may decode to
+     * @return Number of decoded bytes
+     * @throws IOException If the block is malformed, or decodes to more than the max
+     */
+    static int decodedLength(byte[] src, int off, int len, int maxDecodedLength) throws IOException {
+        int pos = off;
+        int end = off + len;
+        long length = 0;
+        while (pos < end) {
+            int token = src[pos++] & 0xFF;
+            long literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (pos == end) {
+                        throw new IOException("Malformed LZ4 block, it ends within a literal length");
+                    }
+                    b = src[pos++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            pos += literals;
+            length += literals;
+            if (pos >= end) {
+                break;
+            }
+            pos += 2;
+            long match = (token & 0x0F) + 4;
+            if (match == 19) {
+                int b;
+                do {
+                    if (pos >= end) {
+                        throw new IOException("Malformed LZ4 block, it ends within a match length");
+                    }
+                    b = src[pos++] & 0xFF;
+                    match += b;
+                } while (b == 255);
+            }
+            length += match;
+            if (length > maxDecodedLength) {
+                break;
+            }
+        }
+        if (pos != end || length > maxDecodedLength) {
+            throw new IOException("Malformed LZ4 block of " + len + " bytes");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Checks once per frame if all blocks but the last are full, which is only known if the frame's descriptor carries
+     * its content size.  Then the content size must be whole blocks plus the last block.
+     */
+    private boolean hasFullBlocks() throws IOException {
+        if (fullBlocks == null) {
+            if (contentSize < 0) {
+                fullBlocks = false;
+            } else {
+                long blockPos = firstBlockPosition;
+                long blocks = 0;
+                long lastBlockPos = -1;
+                int lastBlockHeader = 0;
+                int blockHeader;
+                while ((blockHeader = readIntLE(blockPos)) != 0) {
+                    blocks++;
+                    lastBlockPos = blockPos;
+                    lastBlockHeader = blockHeader;
+                    blockPos += 4 + (blockHeader & ~INCOMPRESSIBLE_MASK) + (blockChecksum ? 4 : 0);
+                }
+                fullBlocks = blocks > 0
+                        && contentSize == (blocks - 1) * maxBlockSize + decodedLength(lastBlockPos + 4, lastBlockHeader);
+            }
+        }
+        return fullBlocks;
+    }
+
+    /**
+     * Reads the next frame header, skipping over any skippable frames.
+     *
+     * @return false if the end of the channel was reached
+     */
+    private boolean nextFrame() throws IOException {
+        while (position < channel.size()) {
+            int magic = readIntLE(position);
+            if ((magic & 0xFFFFFFF0) == MAGIC_SKIPPABLE_BASE) {
+                position += 8 + (readIntLE(position + 4) & 0xFFFFFFFFL);
+                continue;
+            } else if (magic != MAGIC) {
+                throw new IOException("Invalid LZ4 frame magic number 0x" + Integer.toHexString(magic) + " at position " + position);
+            }
+
+            headerBuffer.clear().limit(6);
+            readFully(headerBuffer, position + 4);
+            int flg = headerBuffer.get(0) & 0xFF;
+            int bd = headerBuffer.get(1) & 0xFF;
+            if ((flg & FLG_VERSION_MASK) != FLG_VERSION || (flg & FLG_BLOCK_INDEPENDENCE) == 0) {
+                throw new IOException("Unsupported LZ4 frame descriptor at position " + position);
+            }
+            int descriptorLength = 2 + ((flg & FLG_CONTENT_SIZE) != 0 ? 8 : 0) + ((flg & FLG_DICT_ID) != 0 ? 4 : 0);
+            headerBuffer.clear().limit(descriptorLength + 1);
+            readFully(headerBuffer, position + 4);
+            int expectedHash = (checksum.hash(headerBuffer.array(), 0, descriptorLength, 0) >> 8) & 0xFF;
+            if (expectedHash != (headerBuffer.get(descriptorLength) & 0xFF)) {
+                throw new IOException("LZ4 frame descriptor checksum mismatch at position " + position);
+            }
+
+            maxBlockSize = 1 << (2 * ((bd >> 4) & 0x7) + 8);
+            blockChecksum = (flg & FLG_BLOCK_CHECKSUM) != 0;
+            contentChecksum = (flg & FLG_CONTENT_CHECKSUM) != 0;
+            contentSize = (flg & FLG_CONTENT_SIZE) != 0 ? headerBuffer.getLong(2) : -1;
+            fullBlocks = null;
+            contentDecoded = contentChecksum;
+            if (contentChecksum) {
+                if (contentHash == null) {
+                    contentHash = XXHashFactory.fastestInstance().newStreamingHash32(0);
+                }
+                contentHash.reset();
+            }
+            frameStart = position;
+            position += 4 + descriptorLength + 1;
+            firstBlockPosition = position;
+            inFrame = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves past the end mark's optional content checksum, which is verified if the whole frame was decoded.  The end
+     * mark itself was already consumed.
+     */
+    private void endFrame() throws IOException {
+        if (contentChecksum) {
+            if (contentDecoded && contentHash.getValue() != readIntLE(position)) {
+                throw new IOException("LZ4 content checksum mismatch for the frame at position " + frameStart);
+            }
+            position += 4;
+        }
+        contentDecoded = false;
+        inFrame = false;
+    }
+
+    private int readIntLE(long pos) throws IOException {
+        headerBuffer.clear().limit(4);
+        readFully(headerBuffer, pos);
+        return headerBuffer.getInt(0);
+    }
+
+    private void readFully(byte[] dest, int len, long pos) throws IOException {
+        readFully(ByteBuffer.wrap(dest, 0, len), pos);
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of LZ4 stream at position " + pos);
+            }
+            pos += read;
+        }
+    }
+}
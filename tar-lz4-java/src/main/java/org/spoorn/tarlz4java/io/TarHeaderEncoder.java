@@ -0,0 +1,334 @@
+package org.spoorn.tarlz4java.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes tar entry headers straight from entry attributes into a reusable buffer, without building a
+ * {@link org.apache.commons.compress.archivers.tar.TarArchiveEntry} per entry.
+ *
+ * Headers are ustar.  Names that don't fit in the 100 byte name field are split into the 155 byte prefix field at a '/'
+ * where possible, else they get a PAX extended header with the full path.  Non-ASCII names also get a PAX path, as that
+ * is the only place tar defines as UTF-8.  Sizes too large for the 12 byte octal field also go into a PAX extended
+ * header.  In steady state, nothing is allocated per entry.
+ *
+ * Sparse files are written in the GNU PAX 1.0 sparse format, which GNU tar, bsdtar and commons-compress all read.
+ */
+public class TarHeaderEncoder {
+
+    public static final int RECORD_SIZE = 512;
+    public static final int DEFAULT_FILE_PERMISSIONS = 0644;
+    public static final int DEFAULT_DIR_PERMISSIONS = 0755;
+
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;  // Max value of a 12 byte octal field
+    private static final int FILE_TYPE_BITS = 0100000;
+    private static final int DIR_TYPE_BITS = 040000;
+
+    // Field offsets of the ustar header
+    private static final int MODE_OFFSET = 100;
+    private static final int UID_OFFSET = 108;
+    private static final int GID_OFFSET = 116;
+    private static final int SIZE_OFFSET = 124;
+    private static final int MTIME_OFFSET = 136;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int TYPEFLAG_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+    private static final int UNAME_OFFSET = 265;
+    private static final int DEVMAJOR_OFFSET = 329;
+    private static final int DEVMINOR_OFFSET = 337;
+    private static final int PREFIX_OFFSET = 345;
+    private static final int NAME_FIELD_LENGTH = 32;  // uname and gname
+
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_DIRECTORY = '5';
+    private static final byte TYPE_PAX = 'x';
+    private static final byte[] MAGIC = {'u', 's', 't', 'a', 'r', 0, '0', '0'};
+    private static final byte[] PAX_NAME_PREFIX = "./PaxHeaders.X/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAX_PATH_KEY = " path=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAX_SIZE_KEY = " size=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAX_SPARSE_MAJOR_RECORD = "22 GNU.sparse.major=1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAX_SPARSE_MINOR_RECORD = "22 GNU.sparse.minor=0\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAX_SPARSE_NAME_KEY = " GNU.sparse.name=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAX_SPARSE_REALSIZE_KEY = " GNU.sparse.realsize=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SPARSE_NAME_PREFIX = "GNUSparseFile.0/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ZEROS = new byte[RECORD_SIZE];
+
+    private final byte[] header = new byte[RECORD_SIZE];
+    private final byte[] userName;
+    private byte[] paxBuffer = new byte[RECORD_SIZE];
+    private int paxLength;
+
+    public TarHeaderEncoder() {
+        // Same as entries created from files by commons-compress
+        byte[] user = System.getProperty("user.name", "").getBytes(StandardCharsets.UTF_8);
+        this.userName = Arrays.copyOf(user, Math.min(user.length, NAME_FIELD_LENGTH - 1));
+    }
+
+    /**
+     * Writes the header records for an entry, including a preceding PAX extended header if needed.
+     *
+     * @param out Output to write the tar stream to
+     * @param name UTF-8 bytes of the entry path, using '/' as separator.  A trailing '/' is added for directories.
+     * @param nameLength Number of bytes of name to use
+     * @param directory True if the entry is a directory, else it is a regular file
+     * @param size Size of the file content in bytes.  Ignored for directories.
+     * @param lastModifiedMillis Last modified time in milliseconds since the epoch
+     * @param permissions Unix permission bits, such as {@link #DEFAULT_FILE_PERMISSIONS}
+     * @return Number of bytes written
+     * @throws IOException If writing fails
+     */
+    public int writeHeader(OutputStream out, byte[] name, int nameLength, boolean directory, long size,
+                           long lastModifiedMillis, int permissions) throws IOException {
+        int fullLength = directory ? nameLength + 1 : nameLength;
+        if (directory) {
+            size = 0;
+        }
+
+        int written = 0;
+        boolean ascii = isAscii(name, nameLength);
+        int split = fullLength <= NAME_LENGTH || !ascii ? -1 : findPrefixSplit(name, nameLength, fullLength);
+        boolean paxPath = !ascii || (fullLength > NAME_LENGTH && split < 0);
+        boolean paxSize = size > MAX_OCTAL_SIZE;
+        if (paxPath || paxSize) {
+            paxLength = 0;
+            if (paxPath) {
+                addPaxRecord(PAX_PATH_KEY, name, nameLength, directory);
+            }
+            if (paxSize) {
+                byte[] sizeBytes = Long.toString(size).getBytes(StandardCharsets.US_ASCII);
+                addPaxRecord(PAX_SIZE_KEY, sizeBytes, sizeBytes.length, false);
+            }
+            written += writePaxHeader(out, name, nameLength);
+        }
+
+        Arrays.fill(header, (byte) 0);
+        if (paxPath) {
+            // The name field only holds as much of the name as fits, kept 7-bit clean
+            copyName7Bit(name, Math.min(nameLength, NAME_LENGTH), 0);
+            if (directory && nameLength < NAME_LENGTH) {
+                header[nameLength] = '/';
+            }
+        } else if (split < 0) {
+            copyName(name, 0, nameLength, directory);
+        } else {
+            // Prefix holds the path up to the separator, name holds the rest
+            System.arraycopy(name, 0, header, PREFIX_OFFSET, split);
+            copyName(name, split + 1, nameLength - split - 1, directory);
+        }
+        writeFields((directory ? DIR_TYPE_BITS : FILE_TYPE_BITS) | (permissions & 07777), paxSize ? 0 : size,
+                lastModifiedMillis, directory ? TYPE_DIRECTORY : TYPE_FILE);
+        out.write(header);
+        return written + RECORD_SIZE;
+    }
+
+    /**
+     * Writes the header records for a sparse file in the GNU PAX 1.0 sparse format.  The entry's content must then be
+     * the sparse map from {@link #encodeSparseMap(long[], int)}, followed by the data segments it lists.
+     *
+     * The ustar header is named "GNUSparseFile.0/" followed by the file name, so tars without sparse support extract
+     * the stored content there instead of over the real file.
+     *
+     * @param out Output to write the tar stream to
+     * @param name UTF-8 bytes of the entry path, using '/' as separator
+     * @param nameLength Number of bytes of name to use
+     * @param storedSize Size of the entry's content, which is the padded sparse map and the data segments
+     * @param realSize Size of the file once its holes are filled in
+     * @param lastModifiedMillis Last modified time in milliseconds since the epoch
+     * @param permissions Unix permission bits, such as {@link #DEFAULT_FILE_PERMISSIONS}
+     * @return Number of bytes written
+     * @throws IOException If writing fails
+     */
+    public int writeSparseHeader(OutputStream out, byte[] name, int nameLength, long storedSize, long realSize,
+                                 long lastModifiedMillis, int permissions) throws IOException {
+        paxLength = 0;
+        ensurePaxCapacity(PAX_SPARSE_MAJOR_RECORD.length + PAX_SPARSE_MINOR_RECORD.length);
+        System.arraycopy(PAX_SPARSE_MAJOR_RECORD, 0, paxBuffer, paxLength, PAX_SPARSE_MAJOR_RECORD.length);
+        paxLength += PAX_SPARSE_MAJOR_RECORD.length;
+        System.arraycopy(PAX_SPARSE_MINOR_RECORD, 0, paxBuffer, paxLength, PAX_SPARSE_MINOR_RECORD.length);
+        paxLength += PAX_SPARSE_MINOR_RECORD.length;
+        addPaxRecord(PAX_SPARSE_NAME_KEY, name, nameLength, false);
+        byte[] realSizeBytes = Long.toString(realSize).getBytes(StandardCharsets.US_ASCII);
+        addPaxRecord(PAX_SPARSE_REALSIZE_KEY, realSizeBytes, realSizeBytes.length, false);
+        boolean paxSize = storedSize > MAX_OCTAL_SIZE;
+        if (paxSize) {
+            byte[] sizeBytes = Long.toString(storedSize).getBytes(StandardCharsets.US_ASCII);
+            addPaxRecord(PAX_SIZE_KEY, sizeBytes, sizeBytes.length, false);
+        }
+        int written = writePaxHeader(out, name, nameLength);
+
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(SPARSE_NAME_PREFIX, 0, header, 0, SPARSE_NAME_PREFIX.length);
+        int fileNameStart = nameLength;
+        while (fileNameStart > 0 && name[fileNameStart - 1] != '/') {
+            fileNameStart--;
+        }
+        int fileNameLength = Math.min(nameLength - fileNameStart, NAME_LENGTH - SPARSE_NAME_PREFIX.length);
+        for (int i = 0; i < fileNameLength; i++) {
+            header[SPARSE_NAME_PREFIX.length + i] = (byte) (name[fileNameStart + i] & 0x7F);
+        }
+        writeFields(FILE_TYPE_BITS | (permissions & 07777), paxSize ? 0 : storedSize, lastModifiedMillis, TYPE_FILE);
+        out.write(header);
+        return written + RECORD_SIZE;
+    }
+
+    /**
+     * Encodes the sparse map at the start of a GNU PAX 1.0 sparse entry's content.  The map is the number of data
+     * segments followed by the offset and length of each, all as decimal lines, padded with zeros to a whole record.
+     *
+     * @param segments Offset and length of each data segment, in order of offset
+     * @param segmentCount Number of data segments, which is half of the values used in segments
+     * @return The encoded map, a multiple of {@link #RECORD_SIZE} bytes long
+     */
+    public static byte[] encodeSparseMap(long[] segments, int segmentCount) {
+        StringBuilder map = new StringBuilder().append(segmentCount).append('\n');
+        for (int i = 0; i < segmentCount * 2; i++) {
+            map.append(segments[i]).append('\n');
+        }
+        byte[] encoded = map.toString().getBytes(StandardCharsets.US_ASCII);
+        return Arrays.copyOf(encoded, (encoded.length + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE);
+    }
+
+    /**
+     * Writes zeros to pad the content of an entry to a whole record.
+     *
+     * @param out Output to write the tar stream to
+     * @param size Size of the entry's content in bytes
+     * @return Number of bytes written
+     * @throws IOException If writing fails
+     */
+    public static int writePadding(OutputStream out, long size) throws IOException {
+        int padding = (int) ((RECORD_SIZE - size % RECORD_SIZE) % RECORD_SIZE);
+        if (padding > 0) {
+            out.write(ZEROS, 0, padding);
+        }
+        return padding;
+    }
+
+    private int writePaxHeader(OutputStream out, byte[] name, int nameLength) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(PAX_NAME_PREFIX, 0, header, 0, PAX_NAME_PREFIX.length);
+        copyName7Bit(name, Math.min(nameLength, NAME_LENGTH - PAX_NAME_PREFIX.length), PAX_NAME_PREFIX.length);
+        writeFields(FILE_TYPE_BITS | DEFAULT_FILE_PERMISSIONS, paxLength, 0, TYPE_PAX);
+        out.write(header);
+        out.write(paxBuffer, 0, paxLength);
+        return RECORD_SIZE + paxLength + writePadding(out, paxLength);
+    }
+
+    /**
+     * Adds a "length key=value\n" record, where length is the record's length in bytes including itself.
+     */
+    private void addPaxRecord(byte[] key, byte[] value, int valueLength, boolean trailingSlash) {
+        int contentLength = key.length + valueLength + (trailingSlash ? 1 : 0) + 1;
+        int recordLength = contentLength + 1;
+        while (recordLength != contentLength + digits(recordLength)) {
+            recordLength = contentLength + digits(recordLength);
+        }
+        ensurePaxCapacity(paxLength + recordLength);
+
+        int digits = digits(recordLength);
+        for (int i = digits - 1, n = recordLength; i >= 0; i--, n /= 10) {
+            paxBuffer[paxLength + i] = (byte) ('0' + n % 10);
+        }
+        paxLength += digits;
+        System.arraycopy(key, 0, paxBuffer, paxLength, key.length);
+        paxLength += key.length;
+        System.arraycopy(value, 0, paxBuffer, paxLength, valueLength);
+        paxLength += valueLength;
+        if (trailingSlash) {
+            paxBuffer[paxLength++] = '/';
+        }
+        paxBuffer[paxLength++] = '\n';
+    }
+
+    private void ensurePaxCapacity(int capacity) {
+        if (paxBuffer.length < capacity) {
+            paxBuffer = Arrays.copyOf(paxBuffer, Math.max(capacity, paxBuffer.length * 2));
+        }
+    }
+
+    private void writeFields(int mode, long size, long lastModifiedMillis, byte type) {
+        writeOctal(mode, MODE_OFFSET, 8);
+        writeOctal(0, UID_OFFSET, 8);
+        writeOctal(0, GID_OFFSET, 8);
+        writeOctal(size, SIZE_OFFSET, 12);
+        writeOctal(Math.min(Math.max(0, lastModifiedMillis / 1000), MAX_OCTAL_SIZE), MTIME_OFFSET, 12);
+        header[TYPEFLAG_OFFSET] = type;
+        System.arraycopy(MAGIC, 0, header, MAGIC_OFFSET, MAGIC.length);
+        System.arraycopy(userName, 0, header, UNAME_OFFSET, userName.length);
+        writeOctal(0, DEVMAJOR_OFFSET, 8);
+        writeOctal(0, DEVMINOR_OFFSET, 8);
+
+        // Checksum is computed with its own field filled with spaces, and is written as 6 octal digits, NUL and space
+        Arrays.fill(header, CHECKSUM_OFFSET, CHECKSUM_OFFSET + 8, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(checksum, CHECKSUM_OFFSET, 7);
+        header[CHECKSUM_OFFSET + 7] = ' ';
+    }
+
+    /**
+     * Writes a zero padded octal number in length - 1 digits, followed by a NUL.
+     */
+    private void writeOctal(long value, int offset, int length) {
+        int end = offset + length - 1;
+        header[end] = 0;
+        for (int i = end - 1; i >= offset; i--) {
+            header[i] = (byte) ('0' + (value & 7));
+            value >>>= 3;
+        }
+    }
+
+    private void copyName(byte[] name, int from, int length, boolean trailingSlash) {
+        System.arraycopy(name, from, header, 0, length);
+        if (trailingSlash && length < NAME_LENGTH) {
+            header[length] = '/';
+        }
+    }
+
+    private void copyName7Bit(byte[] name, int length, int offset) {
+        for (int i = 0; i < length; i++) {
+            header[offset + i] = (byte) (name[i] & 0x7F);
+        }
+    }
+
+    private static boolean isAscii(byte[] name, int length) {
+        for (int i = 0; i < length; i++) {
+            if (name[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a '/' to split a long name at, so that the part before fits the prefix field and the part after fits the
+     * name field.
+     *
+     * @return Index of the '/' to split at, or -1 if the name can't be split
+     */
+    private static int findPrefixSplit(byte[] name, int nameLength, int fullLength) {
+        // The prefix can't be empty, and neither can the name before a directory's trailing '/'
+        int minSplit = Math.max(1, fullLength - NAME_LENGTH - 1);
+        for (int i = Math.min(PREFIX_LENGTH, nameLength - 2); i >= minSplit; i--) {
+            if (name[i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int digits(int n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
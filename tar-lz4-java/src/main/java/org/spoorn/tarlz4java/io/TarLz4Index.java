@@ -0,0 +1,274 @@
+package org.spoorn.tarlz4java.io;
+
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of the frames and entries of a .tar.lz4 archive, embedded at its end as an LZ4 skippable frame.
+ *
+ * LZ4 readers skip the frame, so an indexed archive is still a plain .tar.lz4 to any other tool.  Readers that know
+ * about it find it from the end of the file, and get every entry with the offset of its content in the tar stream
+ * without walking the tar headers, and where each LZ4 frame starts in both the file and the tar
+ * stream, to split reads of the archive between threads.
+ *
+ * The frame's content is little-endian:
+ * <pre>
+ * version (1 byte)
+ * frame count (4), then per frame: file offset (8), tar stream offset (8)
+ * entry count (4), then per entry: flags (1), tar type flag (1), mode (4), name length (4), UTF-8 name, size (8), mtime millis (8),
+ *     content offset in the tar stream (8), and for sparse files: segment count (4), offset and length per segment (16)
+ * XXHash32 of all of the above (4)
+ * length of the whole skippable frame (4), INDEX_MAGIC (4)
+ * </pre>
+ * The trailing length and magic number let readers find the frame from the end of the file.  Appending to an archive
+ * truncates it from its end-of-archive frame on, which drops the index along with it.
+ */
+public class TarLz4Index {
+
+    public static final int FRAME_MAGIC = SeekableLz4FrameInputStream.MAGIC_SKIPPABLE_BASE | 0x0E;
+    public static final int INDEX_MAGIC = 0x495A4C54;  // "TLZI"
+    private static final byte VERSION = 2;
+    private static final int FOOTER_SIZE = 8;
+    private static final int FLAG_DIRECTORY = 1;
+    private static final int FLAG_SPARSE = 2;
+
+    private final List<long[]> frames = new ArrayList<>();  // File offset and tar stream offset of each LZ4 frame
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Adds an LZ4 frame, in archive order.
+     *
+     * @param fileOffset Offset of the frame's magic number in the archive file
+     * @param streamOffset Offset in the tar stream of the frame's first decoded byte
+     */
+    public void addFrame(long fileOffset, long streamOffset) {
+        frames.add(new long[]{fileOffset, streamOffset});
+    }
+
+    /**
+     * Adds an entry, in archive order.
+     */
+    public void addEntry(Entry entry) {
+        entries.add(entry);
+    }
+
+    /**
+     * @return File offset and tar stream offset of each LZ4 frame, in archive order
+     */
+    public List<long[]> getFrames() {
+        return Collections.unmodifiableList(frames);
+    }
+
+    /**
+     * @return Entries of the archive, in archive order
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Writes the index as a skippable frame, which must be the last thing written to the archive.
+     *
+     * @param out Output positioned at the end of the archive
+     * @throws IOException If writing fails
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream content = new DataOutputStream(bos);
+        content.writeByte(VERSION);
+        content.writeInt(Integer.reverseBytes(frames.size()));
+        for (long[] frame : frames) {
+            content.writeLong(Long.reverseBytes(frame[0]));
+            content.writeLong(Long.reverseBytes(frame[1]));
+        }
+        content.writeInt(Integer.reverseBytes(entries.size()));
+        for (Entry entry : entries) {
+            content.writeByte((entry.directory ? FLAG_DIRECTORY : 0) | (entry.sparseSegments != null ? FLAG_SPARSE : 0));
+            content.writeByte(entry.typeFlag);
+            content.writeInt(Integer.reverseBytes(entry.mode));
+            content.writeInt(Integer.reverseBytes(entry.name.length));
+            content.write(entry.name);
+            content.writeLong(Long.reverseBytes(entry.size));
+            content.writeLong(Long.reverseBytes(entry.lastModifiedMillis));
+            content.writeLong(Long.reverseBytes(entry.dataOffset));
+            if (entry.sparseSegments != null) {
+                content.writeInt(Integer.reverseBytes(entry.sparseSegments.length / 2));
+                for (long value : entry.sparseSegments) {
+                    content.writeLong(Long.reverseBytes(value));
+                }
+            }
+        }
+        content.writeInt(Integer.reverseBytes(XXHashFactory.fastestInstance().hash32().hash(bos.toByteArray(), 0, bos.size(), 0)));
+        int frameSize = 8 + bos.size() + FOOTER_SIZE;  // The content now includes its checksum
+        content.writeInt(Integer.reverseBytes(frameSize));
+        content.writeInt(Integer.reverseBytes(INDEX_MAGIC));
+
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FRAME_MAGIC).putInt(frameSize - 8);
+        out.write(header.array());
+        bos.writeTo(out);
+    }
+
+    /**
+     * Reads the index embedded at the end of an archive.
+     *
+     * @param channel Channel of the archive, which is not moved
+     * @return The index, or null if the archive doesn't end with a valid one
+     * @throws IOException If reading fails
+     */
+    public static TarLz4Index read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < 8 + 1 + 8 + 4 + FOOTER_SIZE) {
+            return null;
+        }
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, footer, fileSize - FOOTER_SIZE);
+        long frameSize = footer.getInt(0) & 0xFFFFFFFFL;
+        if (footer.getInt(4) != INDEX_MAGIC || frameSize > fileSize || frameSize > Integer.MAX_VALUE
+                || frameSize < 8 + 1 + 8 + 4 + FOOTER_SIZE) {
+            return null;
+        }
+        ByteBuffer frame = ByteBuffer.allocate((int) frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, frame, fileSize - frameSize);
+        int contentLength = (int) frameSize - 8 - FOOTER_SIZE - 4;
+        if (frame.getInt(0) != FRAME_MAGIC || (frame.getInt(4) & 0xFFFFFFFFL) != frameSize - 8
+                || frame.getInt(8 + contentLength) != XXHashFactory.fastestInstance().hash32().hash(frame, 8, contentLength, 0)) {
+            return null;
+        }
+
+        frame.position(8);
+        if (frame.get() != VERSION) {
+            return null;
+        }
+        TarLz4Index index = new TarLz4Index();
+        try {
+            int frameCount = frame.getInt();
+            for (int i = 0; i < frameCount; i++) {
+                index.addFrame(frame.getLong(), frame.getLong());
+            }
+            int entryCount = frame.getInt();
+            for (int i = 0; i < entryCount; i++) {
+                int flags = frame.get();
+                byte typeFlag = frame.get();
+                int mode = frame.getInt();
+                byte[] name = new byte[frame.getInt()];
+                frame.get(name);
+                long size = frame.getLong();
+                long lastModifiedMillis = frame.getLong();
+                long dataOffset = frame.getLong();
+                long[] sparseSegments = null;
+                if ((flags & FLAG_SPARSE) != 0) {
+                    sparseSegments = new long[frame.getInt() * 2];
+                    for (int j = 0; j < sparseSegments.length; j++) {
+                        sparseSegments[j] = frame.getLong();
+                    }
+                }
+                index.addEntry(new Entry(name, typeFlag, mode, (flags & FLAG_DIRECTORY) != 0, size, lastModifiedMillis,
+                        dataOffset, sparseSegments));
+            }
+        } catch (RuntimeException e) {
+            // Counts that run past the content, though the checksum matched
+            throw new IOException("Invalid index at the end of the archive", e);
+        }
+        return index;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive while reading its index");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * An entry of an indexed archive.
+     */
+    public static class Entry {
+        private final byte[] name;
+        private final byte typeFlag;
+        private final int mode;
+        private final boolean directory;
+        private final long size;
+        private final long lastModifiedMillis;
+        private final long dataOffset;
+        private final long[] sparseSegments;
+
+        /**
+         * @param name UTF-8 bytes of the entry's name in the archive
+         * @param typeFlag Type flag of the entry's tar header
+         * @param mode Unix permission and file type bits
+         * @param directory True if the entry is a directory, which old archives only tell by a trailing '/'
+         * @param size Size of the entry's content, including the holes of sparse files
+         * @param lastModifiedMillis Last modified time of the entry
+         * @param dataOffset Offset of the entry's content in the tar stream
+         * @param sparseSegments Offset and length of each data segment of a sparse file, or null
+         */
+        public Entry(byte[] name, byte typeFlag, int mode, boolean directory, long size, long lastModifiedMillis, long dataOffset,
+                     long[] sparseSegments) {
+            this.name = name;
+            this.typeFlag = typeFlag;
+            this.mode = mode;
+            this.directory = directory;
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.dataOffset = dataOffset;
+            this.sparseSegments = sparseSegments;
+        }
+
+        public String getName() {
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        public byte getTypeFlag() {
+            return typeFlag;
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public boolean isFile() {
+            return !directory && (typeFlag == TarStreamReader.TYPE_FILE || typeFlag == TarStreamReader.TYPE_OLD_FILE
+                    || typeFlag == TarStreamReader.TYPE_CONTIGUOUS);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModifiedMillis() {
+            return lastModifiedMillis;
+        }
+
+        /**
+         * @return Offset of the entry's content in the tar stream
+         */
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        /**
+         * @return Offset and length of each data segment of a sparse file, one after the other, or null
+         */
+        public long[] getSparseSegments() {
+            return sparseSegments;
+        }
+    }
+}
@@ -0,0 +1,638 @@
+package org.spoorn.tarlz4java.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a tar stream straight out of the blocks decoded by a {@link SeekableLz4FrameInputStream}, without building a
+ * {@link org.apache.commons.compress.archivers.tar.TarArchiveEntry} per entry.
+ *
+ * The reader is positioned on one entry at a time, and the entry's attributes are read from the reader itself.
+ * Headers are parsed from a reused record buffer, and names are kept as UTF-8 bytes in a reused buffer, so nothing is
+ * allocated per entry in steady state.  Payloads are read into the caller's buffers, or in place as slices of the
+ * decoded blocks.  Moving to the next entry skips what is left of the current payload by seeking over whole LZ4 blocks.
+ *
+ * Headers are ustar, with PAX extended headers for path, size and mtime, and GNU long names.  Global PAX headers and
+ * other extended records are skipped.
+ *
+ * Sparse files in the GNU PAX 1.0 sparse format are read with their real size.  {@link #read(byte[], int, int)} fills
+ * in their holes with zeros, while {@link #readSlice()} only returns their data, at {@link #getSliceOffset()}.
+ *
+ * With {@link #setCopy(OutputStream)}, the raw tar stream consumed by the reader is copied out as it is read, so a tar
+ * stream can be rewritten entry by entry without re-encoding its headers.
+ */
+public class TarStreamReader implements Closeable {
+
+    private static final int RECORD_SIZE = TarHeaderEncoder.RECORD_SIZE;
+    private static final int NAME_LENGTH = 100;
+    private static final int MODE_OFFSET = 100;
+    private static final int MODE_LENGTH = 8;
+    private static final int SIZE_OFFSET = 124;
+    private static final int SIZE_LENGTH = 12;
+    private static final int MTIME_OFFSET = 136;
+    private static final int MTIME_LENGTH = 12;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int TYPEFLAG_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+    private static final int PREFIX_OFFSET = 345;
+    private static final int PREFIX_LENGTH = 155;
+    // PAX headers and GNU long names are read whole, so their claimed size is capped before allocating for them
+    private static final int MAX_EXTENDED_SIZE = 8 * 1024 * 1024;
+
+    public static final byte TYPE_FILE = '0';
+    public static final byte TYPE_OLD_FILE = 0;
+    public static final byte TYPE_CONTIGUOUS = '7';
+    public static final byte TYPE_DIRECTORY = '5';
+    public static final byte TYPE_HARD_LINK = '1';
+    public static final byte TYPE_SYMBOLIC_LINK = '2';
+    private static final byte TYPE_PAX = 'x';
+    private static final byte TYPE_PAX_GLOBAL = 'g';
+    private static final byte TYPE_GNU_LONG_NAME = 'L';
+    private static final byte TYPE_GNU_LONG_LINK = 'K';
+
+    private final SeekableLz4FrameInputStream in;
+    private final byte[] record = new byte[RECORD_SIZE];
+    private byte[] extended = new byte[RECORD_SIZE];  // Content of PAX headers and GNU long names
+    private byte[] name = new byte[256];
+    private int nameLength;
+    private byte typeFlag;
+    private int mode;
+    private long size;
+    private long lastModifiedMillis;
+    private long remaining;  // Payload bytes of the current entry not read yet
+    private int padding;  // Zeros after the payload, up to the next record
+    private long position;  // Offset in the current entry's content of the next byte read, including holes
+    private long sliceOffset;  // Offset in the current entry's content of the last slice read
+    private boolean sparse;
+    private long[] segments = new long[16];  // Offset and length of each data segment of a sparse entry
+    private int segmentCount;
+    private int segment;  // Data segment that position is in or before
+    private boolean done;
+    private OutputStream copy;  // Receives the raw tar stream as it is consumed, or null
+
+    public TarStreamReader(SeekableLz4FrameInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Copies every byte of the tar stream consumed from now on to an output, headers included, except for the
+     * end-of-archive records.  Skipping then decodes the payloads being skipped instead of seeking over them.  The
+     * output can be changed between entries, such as after {@link #skipEntry()}.
+     *
+     * @param copy Output to copy the raw tar stream to, or null to stop copying
+     */
+    public void setCopy(OutputStream copy) {
+        this.copy = copy;
+    }
+
+    /**
+     * Skips what is left of the current entry's payload and its padding, so the tar stream is at the next header.
+     *
+     * @throws IOException If reading fails
+     */
+    public void skipEntry() throws IOException {
+        skipFully(remaining + padding);
+        remaining = 0;
+        padding = 0;
+    }
+
+    /**
+     * Moves to the next entry, skipping what is left of the current entry's payload.
+     *
+     * @return True if the reader is on the next entry, else false at the end of the archive
+     * @throws IOException If reading fails, or a header is invalid
+     */
+    public boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        skipEntry();
+        position = 0;
+        sliceOffset = 0;
+        segmentCount = 0;
+        segment = 0;
+
+        boolean hasName = false;  // Set by an extended header
+        boolean hasSparseName = false;  // Takes precedence over a PAX path
+        long sizeOverride = -1;
+        long mtimeOverride = Long.MIN_VALUE;
+        long sparseMajor = -1;
+        long realSize = -1;
+        while (true) {
+            if (!readRecord()) {
+                done = true;
+                // Only padding is left of the frame, which completes its content checksum
+                in.finishFrame();
+                return false;
+            }
+            verifyChecksum();
+            byte type = record[TYPEFLAG_OFFSET];
+            long headerSize = parseNumber(SIZE_OFFSET, SIZE_LENGTH);
+            if (type == TYPE_PAX || type == TYPE_PAX_GLOBAL || type == TYPE_GNU_LONG_NAME || type == TYPE_GNU_LONG_LINK) {
+                int length = readExtended(headerSize);
+                if (type == TYPE_GNU_LONG_NAME) {
+                    // The name is NUL terminated
+                    while (length > 0 && extended[length - 1] == 0) {
+                        length--;
+                    }
+                    setName(extended, 0, length);
+                    hasName = true;
+                } else if (type == TYPE_PAX) {
+                    // Records are formatted as "<length> <key>=<value>\n"
+                    int pos = 0;
+                    while (pos < length) {
+                        long recordLength = parseDecimal(extended, pos, indexOf(extended, pos, length, (byte) ' '));
+                        if (recordLength <= 0) {
+                            break;
+                        }
+                        int keyStart = indexOf(extended, pos, length, (byte) ' ') + 1;
+                        int valueEnd = (int) Math.min(pos + recordLength - 1, length);  // Without the trailing newline
+                        int equals = indexOf(extended, keyStart, valueEnd, (byte) '=');
+                        if (pos + recordLength > length || equals >= valueEnd) {
+                            throw new IOException("Invalid PAX record of length " + recordLength + " at offset " + pos
+                                    + " of a " + length + " byte extended header");
+                        }
+                        int valueStart = equals + 1;
+                        if (isKey(keyStart, equals, "path") && !hasSparseName) {
+                            setName(extended, valueStart, valueEnd - valueStart);
+                            hasName = true;
+                        } else if (isKey(keyStart, equals, "GNU.sparse.name")) {
+                            setName(extended, valueStart, valueEnd - valueStart);
+                            hasName = true;
+                            hasSparseName = true;
+                        } else if (isKey(keyStart, equals, "GNU.sparse.major")) {
+                            sparseMajor = parseDecimal(extended, valueStart, valueEnd);
+                        } else if (isKey(keyStart, equals, "GNU.sparse.realsize")) {
+                            realSize = parseDecimal(extended, valueStart, valueEnd);
+                        } else if (isKey(keyStart, equals, "size")) {
+                            sizeOverride = parseDecimal(extended, valueStart, valueEnd);
+                        } else if (isKey(keyStart, equals, "mtime")) {
+                            mtimeOverride = parseSecondsToMillis(extended, valueStart, valueEnd);
+                        }
+                        pos += recordLength;
+                    }
+                }
+                continue;
+            }
+
+            if (!hasName) {
+                readHeaderName();
+            }
+            typeFlag = type;
+            mode = (int) parseNumber(MODE_OFFSET, MODE_LENGTH);
+            size = sizeOverride >= 0 ? sizeOverride : headerSize;
+            lastModifiedMillis = mtimeOverride != Long.MIN_VALUE ? mtimeOverride : parseNumber(MTIME_OFFSET, MTIME_LENGTH) * 1000;
+            remaining = size;
+            padding = (int) ((RECORD_SIZE - size % RECORD_SIZE) % RECORD_SIZE);
+            sparse = sparseMajor == 1 && realSize >= 0 && isFileType();
+            if (sparse) {
+                // The payload starts with the sparse map, and the rest is the data segments it lists
+                readSparseMap(realSize);
+                size = realSize;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return UTF-8 bytes of the current entry's name.  Only the first {@link #getNameLength()} bytes are the name.
+     */
+    public byte[] getNameBuffer() {
+        return name;
+    }
+
+    public int getNameLength() {
+        return nameLength;
+    }
+
+    /**
+     * @return Name of the current entry.  Unlike the rest of the reader, this creates a new String.
+     */
+    public String getName() {
+        return new String(name, 0, nameLength, StandardCharsets.UTF_8);
+    }
+
+    public byte getTypeFlag() {
+        return typeFlag;
+    }
+
+    public boolean isDirectory() {
+        return typeFlag == TYPE_DIRECTORY || (isFileType() && nameLength > 0 && name[nameLength - 1] == '/');
+    }
+
+    public boolean isFile() {
+        return isFileType() && !isDirectory();
+    }
+
+    private boolean isFileType() {
+        return typeFlag == TYPE_FILE || typeFlag == TYPE_OLD_FILE || typeFlag == TYPE_CONTIGUOUS;
+    }
+
+    /**
+     * @return Unix permission and file type bits
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Size of the current entry's content in bytes, including the holes of sparse files
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    /**
+     * @return True if the current entry is a sparse file, which only stores its data segments
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * @return Offset and length of each data segment of the current sparse entry, one after the other, or null if it
+     *          isn't sparse.  Unlike the rest of the reader, this creates a new array.
+     */
+    public long[] getSparseSegments() {
+        return sparse ? Arrays.copyOf(segments, segmentCount * 2) : null;
+    }
+
+    /**
+     * @return Offset in the current entry's content of the last slice from {@link #readSlice()}
+     */
+    public long getSliceOffset() {
+        return sliceOffset;
+    }
+
+    /**
+     * Reads the current entry's payload.
+     *
+     * @return Number of bytes read, or -1 at the end of the payload
+     * @throws IOException If reading fails, or the tar stream ends within the payload
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (sparse) {
+            if (position >= size) {
+                return -1;
+            }
+            long holeEnd = nextDataOffset();
+            if (position < holeEnd) {
+                int n = (int) Math.min(len, holeEnd - position);
+                Arrays.fill(b, off, off + n, (byte) 0);
+                position += n;
+                return n;
+            }
+            len = (int) Math.min(len, segmentEnd() - position);
+        } else if (remaining == 0) {
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("Unexpected end of tar stream in the payload of " + getName());
+        }
+        copy(b, off, n);
+        remaining -= n;
+        position += n;
+        return n;
+    }
+
+    /**
+     * Reads the current entry's payload in place, as a slice of a decoded block.  The slice is only valid until the
+     * next read, as with {@link SeekableLz4FrameInputStream#readSlice(int)}.  Holes of sparse files are skipped, so the
+     * slice belongs at {@link #getSliceOffset()} in the entry's content.
+     *
+     * @return Slice of the payload with at least one byte remaining, or null at the end of the payload
+     * @throws IOException If reading fails, or the tar stream ends within the payload
+     */
+    public ByteBuffer readSlice() throws IOException {
+        long max = remaining;
+        if (sparse) {
+            // Empty segments, such as the one marking a trailing hole, hold no data
+            while (segment < segmentCount && position >= segmentEnd()) {
+                segment++;
+            }
+            if (segment == segmentCount) {
+                position = size;
+                return null;
+            }
+            position = Math.max(position, segments[segment * 2]);
+            max = Math.min(max, segmentEnd() - position);
+        }
+        if (max == 0) {
+            return null;
+        }
+        ByteBuffer slice = in.readSlice((int) Math.min(Integer.MAX_VALUE, max));
+        if (slice == null) {
+            throw new EOFException("Unexpected end of tar stream in the payload of " + getName());
+        }
+        copy(slice);
+        remaining -= slice.remaining();
+        sliceOffset = position;
+        position += slice.remaining();
+        return slice;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        in.close();
+    }
+
+    /**
+     * @return Offset of the data at or after the position, or the size if only a hole is left
+     */
+    private long nextDataOffset() {
+        while (segment < segmentCount && position >= segmentEnd()) {
+            segment++;
+        }
+        return segment < segmentCount ? Math.max(position, segments[segment * 2]) : size;
+    }
+
+    private long segmentEnd() {
+        return segments[segment * 2] + segments[segment * 2 + 1];
+    }
+
+    /**
+     * Reads the sparse map at the start of a GNU PAX 1.0 sparse entry's payload.  It is the number of data segments,
+     * then the offset and length of each, as decimal lines padded with zeros to a whole record.  Segments must be in
+     * order without overlapping, within the real size, and hold no more data than the payload stores after the map.
+     */
+    private void readSparseMap(long realSize) throws IOException {
+        int pos = RECORD_SIZE;  // Position in the record, starting with none read
+        long count = -1;
+        int values = 0;
+        while (count < 0 || values < count * 2) {
+            long value = 0;
+            int digits = 0;
+            while (true) {
+                if (pos == RECORD_SIZE) {
+                    if (remaining < RECORD_SIZE || readFully(record, 0, RECORD_SIZE) < RECORD_SIZE) {
+                        throw new EOFException("Unexpected end of tar stream in the sparse map of " + getName());
+                    }
+                    copy(record, 0, RECORD_SIZE);
+                    remaining -= RECORD_SIZE;
+                    pos = 0;
+                }
+                byte b = record[pos++];
+                if (b == '\n') {
+                    break;
+                } else if (b < '0' || b > '9' || ++digits > 18) {
+                    throw new IOException("Invalid sparse map in tar entry " + getName());
+                }
+                value = value * 10 + (b - '0');
+            }
+            if (digits == 0) {
+                throw new IOException("Invalid sparse map in tar entry " + getName());
+            }
+            if (count < 0) {
+                count = value;
+                // Each segment takes at least two lines of two bytes, which must fit in what is left of the payload
+                if (count > (remaining + RECORD_SIZE - pos) / 4) {
+                    throw new IOException("Sparse map of tar entry " + getName() + " has more segments than its payload holds");
+                }
+                if (segments.length < count * 2) {
+                    segments = new long[(int) Math.max(count * 2, segments.length * 2L)];
+                }
+            } else {
+                segments[values++] = value;
+            }
+        }
+        segmentCount = (int) count;
+
+        long end = 0;
+        long dataSize = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            long offset = segments[i * 2];
+            long length = segments[i * 2 + 1];
+            if (offset < end || offset > realSize || length > realSize - offset) {
+                throw new IOException("Sparse map of tar entry " + getName() + " has a segment at " + offset + " of "
+                        + length + " bytes out of order or past its size of " + realSize);
+            }
+            end = offset + length;
+            dataSize += length;
+        }
+        if (dataSize > remaining) {
+            throw new IOException("Sparse map of tar entry " + getName() + " lists " + dataSize
+                    + " bytes of data, but its payload only holds " + remaining);
+        }
+    }
+
+    /**
+     * @return False at the end of the archive, which is either two zero records or the end of the stream
+     */
+    private boolean readRecord() throws IOException {
+        int read = readFully(record, 0, RECORD_SIZE);
+        if (read == 0) {
+            return false;
+        } else if (read < RECORD_SIZE) {
+            throw new EOFException("Unexpected end of tar stream in a header");
+        }
+        for (byte b : record) {
+            if (b != 0) {
+                copy(record, 0, RECORD_SIZE);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the content of an extended header, and the padding after it, into the extended buffer.
+     *
+     * @return Length of the content
+     */
+    private int readExtended(long length) throws IOException {
+        if (length > MAX_EXTENDED_SIZE) {
+            throw new IOException("Tar extended header of " + length + " bytes is too large, the max is " + MAX_EXTENDED_SIZE);
+        }
+        int padded = (int) ((length + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE);
+        if (extended.length < padded) {
+            extended = new byte[Math.max(padded, extended.length * 2)];
+        }
+        if (readFully(extended, 0, padded) < padded) {
+            throw new EOFException("Unexpected end of tar stream in an extended header");
+        }
+        copy(extended, 0, padded);
+        return (int) length;
+    }
+
+    private void readHeaderName() {
+        int length = fieldLength(record, 0, NAME_LENGTH);
+        // Only POSIX ustar has a prefix.  Old GNU headers, whose magic is "ustar  ", hold times where the prefix would be.
+        boolean ustar = record[MAGIC_OFFSET] == 'u' && record[MAGIC_OFFSET + 1] == 's' && record[MAGIC_OFFSET + 2] == 't'
+                && record[MAGIC_OFFSET + 3] == 'a' && record[MAGIC_OFFSET + 4] == 'r' && record[MAGIC_OFFSET + 5] == 0;
+        int prefixLength = ustar ? fieldLength(record, PREFIX_OFFSET, PREFIX_LENGTH) : 0;
+        if (prefixLength == 0) {
+            setName(record, 0, length);
+        } else {
+            // The prefix holds the path up to a separator, and the name field the rest
+            ensureNameCapacity(prefixLength + 1 + length);
+            System.arraycopy(record, PREFIX_OFFSET, name, 0, prefixLength);
+            name[prefixLength] = '/';
+            System.arraycopy(record, 0, name, prefixLength + 1, length);
+            nameLength = prefixLength + 1 + length;
+        }
+    }
+
+    private void setName(byte[] buf, int offset, int length) {
+        ensureNameCapacity(length);
+        System.arraycopy(buf, offset, name, 0, length);
+        nameLength = length;
+    }
+
+    private void ensureNameCapacity(int length) {
+        if (name.length < length) {
+            name = new byte[Math.max(length, name.length * 2)];
+        }
+    }
+
+    private void verifyChecksum() throws IOException {
+        long expected = parseNumber(CHECKSUM_OFFSET, CHECKSUM_LENGTH);
+        // The checksum field counts as spaces.  Some writers sum signed bytes, so both sums are accepted.
+        long unsigned = 0;
+        long signed = 0;
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            byte b = i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH ? (byte) ' ' : record[i];
+            unsigned += b & 0xFF;
+            signed += b;
+        }
+        if (expected != unsigned && expected != signed) {
+            throw new IOException("Invalid tar header checksum, expected " + expected + " but was " + unsigned);
+        }
+    }
+
+    /**
+     * Parses a numeric header field, either octal or GNU base-256 for values too large for octal.
+     */
+    private long parseNumber(int offset, int length) {
+        if ((record[offset] & 0x80) != 0) {
+            long value = record[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (record[i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end && (record[i] == ' ' || record[i] == 0)) {
+            i++;
+        }
+        for (; i < end && record[i] >= '0' && record[i] <= '7'; i++) {
+            value = (value << 3) + (record[i] - '0');
+        }
+        return value;
+    }
+
+    private static long parseDecimal(byte[] buf, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses PAX times, which are decimal seconds with an optional fraction.
+     */
+    private static long parseSecondsToMillis(byte[] buf, int start, int end) {
+        boolean negative = start < end && buf[start] == '-';
+        int i = negative ? start + 1 : start;
+        long millis = parseDecimal(buf, i, end) * 1000;
+        int dot = indexOf(buf, i, end, (byte) '.');
+        if (dot < end) {
+            long scale = 100;
+            for (int j = dot + 1; j < end && scale > 0 && buf[j] >= '0' && buf[j] <= '9'; j++, scale /= 10) {
+                millis += (buf[j] - '0') * scale;
+            }
+        }
+        return negative ? -millis : millis;
+    }
+
+    private boolean isKey(int keyStart, int keyEnd, String key) {
+        if (keyEnd - keyStart != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (extended[keyStart + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Index of the first byte equal to the value, or end if there is none
+     */
+    private static int indexOf(byte[] buf, int start, int end, byte value) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return Length of a NUL terminated header field
+     */
+    private static int fieldLength(byte[] buf, int offset, int length) {
+        return indexOf(buf, offset, offset + length, (byte) 0) - offset;
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = in.read(b, off + read, len - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private void copy(byte[] b, int off, int len) throws IOException {
+        if (copy != null) {
+            copy.write(b, off, len);
+        }
+    }
+
+    private void copy(ByteBuffer slice) throws IOException {
+        if (copy != null) {
+            copy.write(slice.array(), slice.arrayOffset() + slice.position(), slice.remaining());
+        }
+    }
+
+    private void skipFully(long n) throws IOException {
+        if (copy != null) {
+            // Skipped bytes are copied as well, so they have to be decoded
+            while (n > 0) {
+                ByteBuffer slice = in.readSlice((int) Math.min(Integer.MAX_VALUE, n));
+                if (slice == null) {
+                    throw new EOFException("Unexpected end of tar stream while skipping " + n + " bytes");
+                }
+                copy(slice);
+                n -= slice.remaining();
+            }
+            return;
+        }
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new EOFException("Unexpected end of tar stream while skipping " + n + " bytes");
+            }
+            n -= skipped;
+        }
+    }
+}
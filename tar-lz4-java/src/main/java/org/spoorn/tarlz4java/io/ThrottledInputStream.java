@@ -0,0 +1,54 @@
+package org.spoorn.tarlz4java.io;
+
+import org.spoorn.tarlz4java.util.concurrent.RateLimiter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * InputStream that limits how fast bytes are read through a {@link RateLimiter}.
+ *
+ * Bytes are paid for after they are read, so a single read is never split up.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final RateLimiter rateLimiter;
+
+    public ThrottledInputStream(InputStream in, RateLimiter rateLimiter) {
+        super(in);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            throttle(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        throttle(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes are never read from disk
+        return in.skip(n);
+    }
+
+    private void throttle(long bytes) throws InterruptedIOException {
+        try {
+            rateLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling reads");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.spoorn.tarlz4java.io;
+
+import org.spoorn.tarlz4java.util.concurrent.RateLimiter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that limits how fast bytes are written through a {@link RateLimiter}.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    private final RateLimiter rateLimiter;
+
+    public ThrottledOutputStream(OutputStream out, RateLimiter rateLimiter) {
+        super(out);
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        throttle(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write byte by byte
+        throttle(len);
+        out.write(b, off, len);
+    }
+
+    private void throttle(long bytes) throws InterruptedIOException {
+        try {
+            rateLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling writes");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.spoorn.tarlz4java.logging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event for extracting a single file of at least {@link #MIN_SIZE} bytes.  Smaller files are not
+ * recorded individually, as archives can hold millions of them.
+ */
+@Name("org.spoorn.tarlz4java.Extract")
+@Label("TarLz4 Extract Entry")
+@Category("TarLz4")
+@Description("Extraction of a large file from an archive")
+public class TarLz4ExtractEvent extends Event {
+
+    public static final long MIN_SIZE = 1024 * 1024;
+
+    @Label("Entry")
+    public String entry;
+
+    @Label("Size")
+    @DataAmount
+    public long size;
+
+    @Label("Bytes Written")
+    @Description("Less than the size when the file was unchanged on disk")
+    @DataAmount
+    public long bytesWritten;
+}
@@ -0,0 +1,30 @@
+package org.spoorn.tarlz4java.logging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event for copying the .tmp file of one slice into its region of the output file.
+ */
+@Name("org.spoorn.tarlz4java.Merge")
+@Label("TarLz4 Merge Region")
+@Category("TarLz4")
+public class TarLz4MergeEvent extends Event {
+
+    @Label("Slice")
+    public int slice;
+
+    @Label("Offset")
+    @DataAmount
+    public long offset;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Destination")
+    public String destination;
+}
@@ -0,0 +1,32 @@
+package org.spoorn.tarlz4java.logging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event for the walk over a source that finds the files to archive.
+ */
+@Name("org.spoorn.tarlz4java.Scan")
+@Label("TarLz4 Scan")
+@Category("TarLz4")
+@Description("Walk over a source to find the files to archive")
+public class TarLz4ScanEvent extends Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("Files")
+    @Description("Files found, excluding files filtered out")
+    public long files;
+
+    @Label("Directories")
+    public long directories;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,44 @@
+package org.spoorn.tarlz4java.logging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event for a compression task archiving one slice of a source.  Comparing the durations and
+ * bytes of the slices of a run shows if work was skewed towards some threads.
+ */
+@Name("org.spoorn.tarlz4java.Slice")
+@Label("TarLz4 Slice")
+@Category("TarLz4")
+@Description("Compression of one slice of a source")
+public class TarLz4SliceEvent extends Event {
+
+    @Label("Slice")
+    public int slice;
+
+    @Label("Total Slices")
+    public int totalSlices;
+
+    @Label("Start")
+    @Description("First file number of the slice, inclusive")
+    public long start;
+
+    @Label("End")
+    @Description("Last file number of the slice, exclusive")
+    public long end;
+
+    @Label("Files")
+    public long files;
+
+    @Label("Bytes")
+    @Description("Uncompressed bytes archived")
+    @DataAmount
+    public long bytes;
+
+    @Label("Destination")
+    public String destination;
+}
@@ -1,84 +1,176 @@
 package org.spoorn.tarlz4java.util;
 
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
+import org.apache.commons.compress.utils.IOUtils;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 public class TarLz4Util {
 
-    public static long fileCount(Path path) throws IOException {
-        return Files.walk(path)
-                .filter(p -> !p.toFile().isDirectory())
-                .count();
-    }
-
-    public static long getDirectorySize(Path path) throws IOException {
-        AtomicLong size = new AtomicLong();
-
-        // Ignores failed files, should be fine for our use case
-        Files.walkFileTree(path, new SimpleFileVisitor<>() {
-
+    /**
+     * Walks the regular files under a path the same way {@link org.spoorn.tarlz4java.core.SourceManifest} scans a
+     * source, following symbolic links, so file numbers and sizes line up with what gets archived.
+     *
+     * @param path Path to walk
+     * @param visitor Called with each regular file and its attributes, in walk order
+     * @throws IOException If walking fails
+     */
+    public static void walkFiles(Path path, BiConsumer<Path, BasicFileAttributes> visitor) throws IOException {
+        Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                size.addAndGet(attrs.size());
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    visitor.accept(file, attrs);
+                }
                 return FileVisitResult.CONTINUE;
             }
         });
+    }
+
+    public static long fileCount(Path path) throws IOException {
+        AtomicLong count = new AtomicLong();
+        walkFiles(path, (file, attrs) -> count.incrementAndGet());
+        return count.get();
+    }
 
+    public static long getDirectorySize(Path path) throws IOException {
+        AtomicLong size = new AtomicLong();
+        walkFiles(path, (file, attrs) -> size.addAndGet(attrs.size()));
         return size.get();
     }
 
     /**
      * Scans through a directory and finds the file count intervals, meaning the file number while walking through the
-     * path, that split all the files evenly by size.  For balancing multi-threaded processing of a directory recursively. 
+     * path, that split all the files evenly by size.  Walks the same files as {@link #walkFiles(Path, BiConsumer)} in a
+     * single pass, and splits them with {@link #getIntervalsFromSizes(long[], int)}.
+     *
+     * Compression doesn't use this, as it doesn't apply the compressor's filters.  Volumes and slices of a source are
+     * split with {@link org.spoorn.tarlz4java.core.SourceManifest#getIntervals(int)} over the files that are actually
+     * archived, and slices of a list of entries with {@link #getIntervalsFromSizes(long[], int)} directly.
      *
      * @param path Path to process
      * @param numIntervals Number of intervals
-     * @return long[] that holds the file number indexes to split at.  The last element will be the total size of the directory in bytes.
-     *          The second to last element will be the number of actual effective indices in the result to read from.
+     * @return Intervals in the format of {@link #getIntervalsFromSizes(long[], int)}
      * @throws IOException If processing files fail
      */
     public static long[] getFileCountIntervalsFromSize(Path path, int numIntervals) throws IOException {
+        long[][] sizes = {new long[1024]};
+        int[] count = {0};
+        walkFiles(path, (file, attrs) -> {
+            if (count[0] == sizes[0].length) {
+                sizes[0] = Arrays.copyOf(sizes[0], count[0] * 2);
+            }
+            sizes[0][count[0]++] = attrs.size();
+        });
+        return getIntervalsFromSizes(Arrays.copyOf(sizes[0], count[0]), numIntervals);
+    }
+
+    /**
+     * Finds the file count intervals that split a list of files evenly by size.  For balancing multi-threaded
+     * processing of files, such as the slices and volumes of an archive.
+     *
+     * @param sizes Size of each file, in order
+     * @param numIntervals Number of intervals
+     * @return long[] that holds the file indexes to split at.  The last element will be the total size in bytes.
+     *          The second to last element will be the number of actual effective indices in the result to read from.
+     *          Effective indices are strictly increasing, so no interval is empty.
+     */
+    public static long[] getIntervalsFromSizes(long[] sizes, int numIntervals) {
         long[] res = new long[numIntervals + 2];
-        // index of res, file count, current size, previous size
-        long[] state = {1, 0, 0, 0};
-        long directorySize = getDirectorySize(path);
-        long sliceLength = directorySize / numIntervals;
+        long totalSize = 0;
+        for (long size : sizes) {
+            totalSize += size;
+        }
+        long sliceLength = Math.max(1, totalSize / numIntervals);
+        int intervals = 1;
+        long currentSize = 0;
+        for (int i = 0; i < sizes.length && intervals < numIntervals; i++) {
+            long previousSize = currentSize;
+            currentSize += sizes[i];
+            // A single file can cross multiple slice lengths, or be the very first file, in which case we
+            // don't split again so there are never empty intervals
+            if (previousSize / sliceLength < currentSize / sliceLength && i > res[intervals - 1]) {
+                res[intervals++] = i;
+            }
+        }
+        res[res.length - 2] = intervals;
+        res[res.length - 1] = totalSize;
+        return res;
+    }
 
-        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+    /**
+     * Copies a raw tar stream from the input to the output, stopping right before the tar end-of-archive records.
+     * Entries are walked by their header sizes without being parsed into entries, so this works for any entry type.
+     *
+     * @param in Tar stream, starting at an entry header
+     * @param out Output to copy entries to
+     * @return Number of bytes copied, which is the offset of the end-of-archive records in the input
+     * @throws IOException If the tar stream ends unexpectedly
+     */
+    public static long copyUntilEndOfArchive(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[TarConstants.DEFAULT_RCDSIZE];
+        long copied = 0;
+        long paxSize = -1;  // Size override from a preceding PAX extended header, for entries too large for ustar
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (state[0] < res.length - 1) {
-                    state[2] += attrs.size();
-                    if (state[3] / sliceLength < state[2] / sliceLength) {
-                        res[(int) state[0]] = state[1];
-                        state[0]++;
-                    }
-                    state[3] = state[2];
-                    state[1]++;
-                    return FileVisitResult.CONTINUE;
-                } else {
-                    return FileVisitResult.TERMINATE;
+        while (IOUtils.readFully(in, buf) == buf.length && !isZeros(buf)) {
+            out.write(buf);
+            copied += buf.length;
+
+            long size = paxSize >= 0 ? paxSize : TarUtils.parseOctalOrBinary(buf, TarConstants.NAMELEN + TarConstants.MODELEN
+                    + TarConstants.UIDLEN + TarConstants.GIDLEN, TarConstants.SIZELEN);
+            byte typeFlag = buf[TarConstants.NAMELEN + TarConstants.MODELEN + TarConstants.UIDLEN + TarConstants.GIDLEN
+                    + TarConstants.SIZELEN + TarConstants.MODTIMELEN + TarConstants.CHKSUMLEN];
+            paxSize = -1;
+
+            long padded = (size + buf.length - 1) / buf.length * buf.length;
+            if (typeFlag == TarConstants.LF_PAX_EXTENDED_HEADER_LC || typeFlag == TarConstants.LF_PAX_EXTENDED_HEADER_UC) {
+                byte[] pax = new byte[(int) padded];
+                if (IOUtils.readFully(in, pax) != pax.length) {
+                    throw new IOException("Unexpected end of tar stream in PAX header");
                 }
+                out.write(pax);
+                paxSize = parsePaxSize(new String(pax, 0, (int) size, StandardCharsets.UTF_8));
+            } else if (IOUtils.copyRange(in, padded, out) != padded) {
+                throw new IOException("Unexpected end of tar stream in entry data");
             }
+            copied += padded;
+        }
+        return copied;
+    }
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                state[1]++;
-                return super.visitFileFailed(file, exc);
+    private static long parsePaxSize(String records) {
+        // Records are formatted as "<length> <key>=<value>\n"
+        for (String record : records.split("\n")) {
+            int keyStart = record.indexOf(' ') + 1;
+            if (record.startsWith("size=", keyStart)) {
+                return Long.parseLong(record.substring(keyStart + "size=".length()));
             }
-        });
-        
-        res[res.length - 2] = state[0] - 1;  // -1 since we started at 1, and state[0] will be the "next" index
-        res[res.length - 1] = directorySize;
-        return res;
+        }
+        return -1;
+    }
+
+    private static boolean isZeros(byte[] buf) {
+        for (byte b : buf) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -0,0 +1,185 @@
+package org.spoorn.tarlz4java.util.concurrent;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the CPU used by a group of worker threads under a budget, by adjusting how many of them may do CPU heavy work
+ * at the same time.
+ *
+ * Workers {@link #register()} themselves, and wrap each unit of CPU heavy work between {@link #acquire()} and
+ * {@link #release()}.  A monitor thread periodically measures the CPU time used by registered workers, and lowers or
+ * raises the number of permits by one at a time to converge on the budget.  Work between units, such as waiting on disk
+ * reads, doesn't hold a permit.
+ *
+ * If the JVM doesn't support measuring thread CPU time, parallelism is fixed to the budget rounded up.
+ */
+public class CpuThrottle implements Closeable {
+
+    public static final long INTERVAL_MILLIS = 200;
+    private static final double LOWER_THRESHOLD = 0.9;  // Raise parallelism when usage is under this ratio of the budget
+
+    private final double cpuBudget;
+    private final int maxParallelism;
+    private final ResizableSemaphore permits;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Map<Thread, Long> workers = new ConcurrentHashMap<>();  // Worker to its CPU time at the last check
+    private final AtomicLong finishedCpuNanos = new AtomicLong();  // CPU time of workers that unregistered since the last check
+    private final ScheduledExecutorService monitor;
+    private volatile int parallelism;
+    private volatile int minParallelism;
+    private long lastCheckNanos;
+
+    /**
+     * @param cpuBudget Number of CPU cores the workers may use in total, i.e. 1.5 means one and a half cores
+     * @param maxParallelism Max number of workers doing CPU heavy work at the same time
+     */
+    public CpuThrottle(double cpuBudget, int maxParallelism) {
+        if (cpuBudget <= 0) {
+            throw new IllegalArgumentException("cpuBudget must be positive, got " + cpuBudget);
+        }
+        this.cpuBudget = cpuBudget;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.parallelism = Math.min(this.maxParallelism, (int) Math.ceil(cpuBudget));
+        this.minParallelism = this.parallelism;
+        this.permits = new ResizableSemaphore(this.parallelism);
+        this.lastCheckNanos = System.nanoTime();
+
+        if (isSupported()) {
+            this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "TarLz4CpuThrottle");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.monitor.scheduleAtFixedRate(this::adjust, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            this.monitor = null;
+        }
+    }
+
+    /**
+     * @return True if the JVM can measure thread CPU time, which is needed to adjust parallelism
+     */
+    public boolean isSupported() {
+        return threadMXBean.isThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+    }
+
+    /**
+     * Registers the current thread as a worker whose CPU time counts against the budget.
+     */
+    public void register() {
+        workers.put(Thread.currentThread(), currentCpuNanos());
+    }
+
+    /**
+     * Unregisters the current thread.  Must be called from the same thread that registered.
+     */
+    public void unregister() {
+        Long last = workers.remove(Thread.currentThread());
+        if (last != null) {
+            finishedCpuNanos.addAndGet(Math.max(0, currentCpuNanos() - last));
+        }
+    }
+
+    /**
+     * Blocks until the current thread may do a unit of CPU heavy work.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /**
+     * Releases the permit acquired by {@link #acquire()}.
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * @return Current number of workers allowed to do CPU heavy work at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return Lowest parallelism used since this throttle was created
+     */
+    public int getMinParallelism() {
+        return minParallelism;
+    }
+
+    @Override
+    public void close() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+        }
+    }
+
+    private void adjust() {
+        long now = System.nanoTime();
+        long used = finishedCpuNanos.getAndSet(0);
+        for (Map.Entry<Thread, Long> worker : workers.entrySet()) {
+            long cpuNanos = threadMXBean.getThreadCpuTime(worker.getKey().getId());
+            if (cpuNanos >= 0) {
+                used += Math.max(0, cpuNanos - worker.getValue());
+                // Only move the baseline if the worker didn't unregister concurrently
+                workers.replace(worker.getKey(), worker.getValue(), cpuNanos);
+            }
+        }
+        long elapsed = now - lastCheckNanos;
+        lastCheckNanos = now;
+        adjust(used, elapsed);
+    }
+
+    /**
+     * Moves parallelism by one towards the budget, given the CPU time workers used over an interval.
+     *
+     * @param usedNanos CPU time used by all workers over the interval
+     * @param elapsedNanos Wall time of the interval
+     */
+    synchronized void adjust(long usedNanos, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return;
+        }
+        double cores = (double) usedNanos / elapsedNanos;
+        if (cores > cpuBudget && parallelism > 1) {
+            permits.reducePermits(1);
+            parallelism--;
+            minParallelism = Math.min(minParallelism, parallelism);
+        } else if (cores < cpuBudget * LOWER_THRESHOLD && parallelism < maxParallelism) {
+            permits.release();
+            parallelism++;
+        }
+    }
+
+    private long currentCpuNanos() {
+        return isSupported() ? Math.max(0, threadMXBean.getCurrentThreadCpuTime()) : 0;
+    }
+
+    /**
+     * Semaphore that can take permits away without waiting for them to be released.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.spoorn.tarlz4java.util.concurrent;
+
+/**
+ * Caps the memory used by buffers across compressors and decompressors sharing this budget.
+ *
+ * Before allocating its buffers, a task {@link #reserve(long)}s their size, blocking while the reservation would go over
+ * the limit, and {@link #release(long)}s it once its buffers are no longer used.  So tasks wait for each other to
+ * finish instead of allocating past the budget.
+ *
+ * A single reservation larger than the whole limit is let through once nothing else is reserved, so an undersized budget
+ * makes work run one task at a time rather than blocking forever.
+ */
+public class MemoryBudget {
+
+    private final long limit;
+    private long reserved;
+    private long peakReserved;
+
+    /**
+     * @param limit Max bytes reserved at the same time.  Must be positive.
+     */
+    public MemoryBudget(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive, got " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Reserves bytes from the budget, blocking until enough of it is released by others.
+     *
+     * @param bytes Number of bytes to reserve
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void reserve(long bytes) throws InterruptedException {
+        while (reserved > 0 && reserved + bytes > limit) {
+            wait();
+        }
+        reserved += bytes;
+        peakReserved = Math.max(peakReserved, reserved);
+    }
+
+    /**
+     * Releases bytes previously reserved.
+     *
+     * @param bytes Number of bytes to release
+     */
+    public synchronized void release(long bytes) {
+        reserved -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * @return Max bytes reserved at the same time
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return Bytes currently reserved
+     */
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return Highest number of bytes that were reserved at the same time
+     */
+    public synchronized long getPeakReserved() {
+        return peakReserved;
+    }
+}
@@ -0,0 +1,77 @@
+package org.spoorn.tarlz4java.util.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limiting a number of bytes per second, shared across threads.
+ *
+ * Instead of refilling tokens on a timer, the bucket tracks the time at which all bytes acquired so far are paid for.
+ * Each {@link #acquire(long)} moves that time forward with a single compare-and-set, then sleeps outside of any lock
+ * until its own bytes are paid for.  Callers are expected to acquire whole buffers at a time, so contention stays low
+ * even with many threads.  Unused capacity carries over for up to {@link #BURST_NANOS}, so short pauses don't
+ * permanently lower the throughput.
+ */
+public class RateLimiter {
+
+    public static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final long bytesPerSecond;
+    private final double nanosPerByte;
+    private final AtomicLong paidUntilNanos;  // Time at which all bytes acquired so far are paid for
+    private final LongAdder waitedNanos = new LongAdder();
+
+    /**
+     * @param bytesPerSecond Max bytes per second.  Must be positive.
+     */
+    public RateLimiter(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive, got " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanosPerByte = (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        this.paidUntilNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Acquires permits for a number of bytes, blocking until the rate allows it.
+     *
+     * @param bytes Number of bytes about to be read or written
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytes <= 0) {
+            return;
+        }
+        long cost = (long) (bytes * nanosPerByte);
+        long now = System.nanoTime();
+        long prev;
+        long next;
+        do {
+            prev = paidUntilNanos.get();
+            // If the bucket sat idle, only carry over up to the burst allowance
+            next = Math.max(prev, now - BURST_NANOS) + cost;
+        } while (!paidUntilNanos.compareAndSet(prev, next));
+
+        long wait = next - BURST_NANOS - now;
+        if (wait > 0) {
+            waitedNanos.add(wait);
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @return Max bytes per second
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return Total time threads spent waiting on this limiter, in nanoseconds
+     */
+    public long getWaitedNanos() {
+        return waitedNanos.sum();
+    }
+}
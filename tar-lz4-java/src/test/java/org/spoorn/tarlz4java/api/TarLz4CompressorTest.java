@@ -1,25 +1,41 @@
 package org.spoorn.tarlz4java.api;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.spoorn.tarlz4java.api.TarLz4Compressor.TAR_LZ4_EXTENSION;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.spoorn.tarlz4java.logging.Verbosity;
 import org.spoorn.tarlz4java.util.TarLz4Util;
+import org.spoorn.tarlz4java.util.concurrent.MemoryBudget;
 import org.spoorn.tarlz4java.util.concurrent.NamedThreadFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TarLz4CompressorTest {
     
@@ -143,6 +159,317 @@ public class TarLz4CompressorTest {
         assertTrue(TarLz4Util.checkDirsAreEqual(test1Excludes.toPath(), decompressedPath.resolve(test1.getName())));
     }
     
+    @Test
+    public void small_overall_multiThreaded_prefetch() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).prefetchDepth(4).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        assertTrue(compressor.getLastStats().getPrefetchMaxDepth() <= 4);
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_adaptiveCompression() throws Exception {
+        // Copy of the test source with an added incompressible file
+        Path source = Path.of(tmpDir, randomBaseName + "_source", test1.getName());
+        resourcesCreated.add(source.getParent());
+        FileUtils.copyDirectory(test1, source.toFile());
+        byte[] random = new byte[1024 * 1024];
+        new Random(42).nextBytes(random);
+        Files.write(source.resolve("random.bin"), random);
+        
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).adaptiveCompression(true).build();
+        Path outputPath = compressor.compress(source.toString(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        assertEquals(1, compressor.getLastStats().getIncompressibleFiles());
+        assertEquals(random.length, compressor.getLastStats().getIncompressibleBytes());
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(source, decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_resumable() throws Exception {
+        // A directory in place of the output file makes the final merge fail after all slices completed
+        Path outputPath = Path.of(tmpDir, randomBaseName + TAR_LZ4_EXTENSION);
+        Files.createDirectories(outputPath);
+        resourcesCreated.add(outputPath);
+
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).resumable(true).build();
+        assertThrows(RuntimeException.class, () -> compressor.compress(test1.getPath(), tmpDir, randomBaseName));
+        assertEquals(0, compressor.getLastStats().getResumedSlices());
+
+        Files.delete(outputPath);
+        assertEquals(outputPath, compressor.compress(test1.getPath(), tmpDir, randomBaseName));
+        assertEquals(6, compressor.getLastStats().getResumedSlices());
+        // Neither .tmp files nor the hidden file the archive was written to are left behind
+        try (var files = Files.list(Path.of(tmpDir))) {
+            assertTrue(files.noneMatch(p -> p.getFileName().toString().startsWith("." + randomBaseName)));
+        }
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_resumable_changedFile() throws Exception {
+        Path source = Path.of(tmpDir, randomBaseName + "_source", test1.getName());
+        resourcesCreated.add(source.getParent());
+        FileUtils.copyDirectory(test1, source.toFile());
+        Path outputPath = Path.of(tmpDir, randomBaseName + TAR_LZ4_EXTENSION);
+        Files.createDirectories(outputPath);
+        resourcesCreated.add(outputPath);
+
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).resumable(true).build();
+        assertThrows(RuntimeException.class, () -> compressor.compress(source.toString(), tmpDir, randomBaseName));
+
+        // Same file count and total size, but one file has new content
+        Path changed;
+        try (Stream<Path> files = Files.walk(source)) {
+            changed = files.filter(Files::isRegularFile).findFirst().orElseThrow();
+        }
+        FileTime lastModified = Files.getLastModifiedTime(changed);
+        byte[] content = Files.readAllBytes(changed);
+        Arrays.fill(content, (byte) 'x');
+        Files.write(changed, content);
+        Files.setLastModifiedTime(changed, FileTime.fromMillis(lastModified.toMillis() + 2000));
+
+        Files.delete(outputPath);
+        assertEquals(outputPath, compressor.compress(source.toString(), tmpDir, randomBaseName));
+        assertEquals(5, compressor.getLastStats().getResumedSlices());
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(source, decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_throttled() throws Exception {
+        // Source is ~9.6 MB, so this should take at least half a second
+        long bytesPerSecond = 16 * 1024 * 1024;
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6)
+                .readBytesPerSecond(bytesPerSecond).writeBytesPerSecond(bytesPerSecond).cpuBudget(1).build();
+        long start = System.nanoTime();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        long elapsed = System.nanoTime() - start;
+        resourcesCreated.add(outputPath);
+        assertTrue(elapsed >= 500_000_000L, "Compression was not throttled, took " + elapsed + "ns");
+        assertTrue(compressor.getLastStats().getThrottleWaitNanos() > 0);
+        assertEquals(1, compressor.getLastStats().getMinCpuParallelism());
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_memoryBudget() throws Exception {
+        MemoryBudget memoryBudget = new MemoryBudget(2 * 1024 * 1024);
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).prefetchDepth(4).memoryBudget(memoryBudget).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        assertTrue(memoryBudget.getPeakReserved() <= memoryBudget.getLimit());
+        assertEquals(0, memoryBudget.getReserved());
+
+        // Extraction needs more than the whole budget, so it runs alone
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().memoryBudget(memoryBudget).build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertEquals(0, memoryBudget.getReserved());
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_directIO() throws Exception {
+        // Falls back to the page cache where the temp directory's file system doesn't support direct I/O
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).directIO(true).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        Path icon = test1.toPath().resolve("icon.png");
+        compressor.append(outputPath, icon);
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+        assertTrue(Arrays.equals(Files.readAllBytes(icon), Files.readAllBytes(decompressedPath.resolve(icon.getFileName()))));
+    }
+
+    @Test
+    public void small_overall_autoTune() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).autoTune(true).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        // The small source isn't worth slicing, so it is compressed on one thread without .tmp files
+        assertEquals(1, compressor.getLastStats().getNumThreads());
+        assertTrue(compressor.getLastStats().getBufferSize() >= 8192);
+        assertFalse(Files.exists(Path.of(outputPath + "_0.tmp")));
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_volumes_multiThreaded() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(4).build();
+        long volumeSize = TarLz4Util.getDirectorySize(test1.toPath()) / 3;
+        List<Path> volumes = compressor.compressVolumes(test1.toPath(), Path.of(tmpDir), randomBaseName, volumeSize);
+        resourcesCreated.addAll(volumes);
+        assertTrue(volumes.size() > 1);
+        assertEquals(Path.of(tmpDir, randomBaseName + ".000" + TAR_LZ4_EXTENSION), volumes.get(0));
+
+        // Each volume is a complete archive on its own
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path firstVolumePath = decompressor.decompress(volumes.get(0).toString(), tmpDir);
+        resourcesCreated.add(firstVolumePath);
+        assertTrue(Files.isDirectory(firstVolumePath.resolve(test1.getName())));
+
+        Path decompressedPath = decompressor.decompressVolumes(volumes, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        assertEquals(Path.of(tmpDir, randomBaseName), decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+    }
+
+    @Test
+    public void small_overall_multiThreaded_patterns() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6)
+                .exclude("playerdata", "**/*.json").include("regex:.*[^k]").build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+
+        // Excluded directories are pruned, and everything else is only archived if it matches the includes
+        Path source = test1.toPath();
+        List<Path> expected;
+        try (Stream<Path> files = Files.walk(source)) {
+            expected = files.filter(Files::isRegularFile)
+                    .map(source::relativize)
+                    .filter(file -> !file.startsWith("playerdata") && !(file.getNameCount() > 1 && file.toString().endsWith(".json"))
+                            && !file.toString().endsWith("session.lock"))
+                    .collect(Collectors.toList());
+        }
+        long expectedBytes = 0;
+        for (Path file : expected) {
+            expectedBytes += Files.size(source.resolve(file));
+        }
+        assertEquals(expectedBytes, compressor.getLastStats().getBytesProcessed());
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        Path restored = decompressedPath.resolve(test1.getName());
+        assertFalse(Files.exists(restored.resolve("playerdata")));
+        assertTrue(Files.isDirectory(restored.resolve("stats")));
+        try (Stream<Path> files = Files.walk(restored)) {
+            assertEquals(expected.size(), files.filter(Files::isRegularFile).count());
+        }
+        for (Path file : expected) {
+            assertTrue(Arrays.equals(Files.readAllBytes(source.resolve(file)), Files.readAllBytes(restored.resolve(file.toString()))));
+        }
+    }
+
+    @Test
+    public void small_entries_multiThreaded() throws Exception {
+        byte[] data = new byte[300 * 1024];
+        new Random(7).nextBytes(data);
+        Path zipPath = Path.of(tmpDir, randomBaseName + ".zip");
+        resourcesCreated.add(zipPath);
+        try (FileSystem zipFs = FileSystems.newFileSystem(zipPath, Map.of("create", "true"))) {
+            Path zippedIcon = zipFs.getPath("icon.png");
+            Files.copy(test1.toPath().resolve("icon.png"), zippedIcon);
+
+            List<TarLz4EntrySource> entries = List.of(
+                    TarLz4EntrySource.of("summary.txt", "in memory".getBytes(StandardCharsets.UTF_8)),
+                    TarLz4EntrySource.of("reports/2026/data.bin", ByteBuffer.wrap(data)),
+                    TarLz4EntrySource.of("reports/icon.png", zippedIcon));
+            TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(3).build();
+            Path outputPath = compressor.compress(entries, Path.of(tmpDir), randomBaseName);
+            resourcesCreated.add(outputPath);
+            assertEquals(9 + data.length + Files.size(zippedIcon), compressor.getLastStats().getBytesProcessed());
+
+            TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+            Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+            resourcesCreated.add(decompressedPath);
+            assertEquals("in memory", Files.readString(decompressedPath.resolve("summary.txt")));
+            assertTrue(Arrays.equals(data, Files.readAllBytes(decompressedPath.resolve("reports/2026/data.bin"))));
+            assertTrue(Arrays.equals(Files.readAllBytes(test1.toPath().resolve("icon.png")), 
+                    Files.readAllBytes(decompressedPath.resolve("reports/icon.png"))));
+        }
+    }
+
+    @Test
+    public void entrySource_invalidNames() {
+        byte[] content = new byte[1];
+        for (String name : List.of("", "/abs.txt", "dir/", "a//b.txt", "../escape.txt", "dir/../../escape.txt", "dir/..", "./a.txt")) {
+            assertThrows(IllegalArgumentException.class, () -> TarLz4EntrySource.of(name, content), name);
+        }
+        assertEquals("dir/..a/b..txt", TarLz4EntrySource.of("dir/..a/b..txt", content).getName());
+    }
+
+    @Test
+    public void small_append_multiThreaded() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        long originalSize = Files.size(outputPath);
+        
+        Path icon = test1.toPath().resolve("icon.png");
+        assertEquals(outputPath, compressor.append(outputPath, test1Excludes.toPath(), icon));
+        assertTrue(Files.size(outputPath) > originalSize);
+
+        TarLz4Decompressor decompressor = new TarLz4DecompressorBuilder().build();
+        Path decompressedPath = decompressor.decompress(outputPath.toString(), tmpDir);
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1Excludes.toPath(), decompressedPath.resolve(test1Excludes.getName())));
+        assertTrue(Arrays.equals(Files.readAllBytes(icon), Files.readAllBytes(decompressedPath.resolve(icon.getFileName()))));
+    }
+    
+    @Test
+    public void small_flightRecorderEvents_multiThreaded() throws Exception {
+        Path recordingPath = Path.of(tmpDir, randomBaseName + ".jfr");
+        resourcesCreated.add(recordingPath);
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("Scan", "Slice", "Merge", "Extract")) {
+                recording.enable("org.spoorn.tarlz4java." + event);
+            }
+            recording.start();
+            TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(3).build();
+            Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+            resourcesCreated.add(outputPath);
+            Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+            resourcesCreated.add(decompressedPath);
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(recordingPath).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+        RecordedEvent scan = events.get("org.spoorn.tarlz4java.Scan").get(0);
+        List<RecordedEvent> slices = events.get("org.spoorn.tarlz4java.Slice");
+        assertEquals(3, slices.size());
+        assertEquals(scan.getLong("files"), slices.stream().mapToLong(event -> event.getLong("files")).sum());
+        assertEquals(scan.getLong("bytes"), slices.stream().mapToLong(event -> event.getLong("bytes")).sum());
+        assertEquals(3, events.get("org.spoorn.tarlz4java.Merge").size());
+        // Only files of at least 1 MiB are recorded when extracting
+        List<RecordedEvent> extracts = events.get("org.spoorn.tarlz4java.Extract");
+        assertEquals(3, extracts.size());
+        for (RecordedEvent extract : extracts) {
+            assertEquals(extract.getLong("size"), extract.getLong("bytesWritten"));
+        }
+    }
+
     @AfterEach
     public void cleanup() throws IOException {
         for (Path path : resourcesCreated) {
@@ -0,0 +1,675 @@
+package org.spoorn.tarlz4java.api;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.spoorn.tarlz4java.fs.TarLz4FileSystem;
+import org.spoorn.tarlz4java.io.SeekableLz4FrameInputStream;
+import org.spoorn.tarlz4java.io.TarLz4Index;
+import org.spoorn.tarlz4java.util.TarLz4Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TarLz4DecompressorTest {
+
+    private String tmpDir;
+    private final String randomBaseName = UUID.randomUUID().toString();
+    private File test1;
+    private List<Path> resourcesCreated;
+
+    @BeforeEach
+    public void setup() {
+        tmpDir = System.getProperty("java.io.tmpdir");
+        File small = new File(this.getClass().getClassLoader().getResource("small").getFile());
+        test1 = Path.of(small.getPath(), "sources", "small_test1_tarlz4").toFile();
+        this.resourcesCreated = new ArrayList<>();
+    }
+
+    @Test
+    public void small_list_multiThreaded() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+
+        Map<String, TarLz4ArchiveEntry> listed = new HashMap<>();
+        try (TarLz4ArchiveIterator entries = new TarLz4DecompressorBuilder().build().list(outputPath)) {
+            entries.forEachRemaining(entry -> listed.put(entry.getName(), entry));
+        }
+
+        Path root = test1.toPath().getParent();
+        try (Stream<Path> files = Files.walk(test1.toPath())) {
+            files.forEach(file -> {
+                TarLz4ArchiveEntry entry = listed.get(root.relativize(file).toString() + (Files.isDirectory(file) ? "/" : ""));
+                assertTrue(entry != null, "Missing entry for " + file);
+                if (Files.isDirectory(file)) {
+                    assertTrue(entry.isDirectory());
+                } else {
+                    assertTrue(entry.isFile());
+                    assertEquals(file.toFile().length(), entry.getSize());
+                }
+            });
+        }
+        assertTrue(Files.exists(outputPath));
+    }
+
+    @Test
+    public void small_fileSystem_multiThreaded() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+
+        try (FileSystem fs = FileSystems.newFileSystem(outputPath, Map.of(), getClass().getClassLoader())) {
+            assertTrue(fs instanceof TarLz4FileSystem);
+            Path archivedRoot = fs.getPath("/", test1.getName());
+            List<Path> archived;
+            try (Stream<Path> files = Files.walk(archivedRoot)) {
+                archived = files.collect(Collectors.toList());
+            }
+            try (Stream<Path> files = Files.walk(test1.toPath())) {
+                assertEquals(files.count(), archived.size());
+            }
+            for (Path path : archived) {
+                Path file = test1.toPath().resolve(archivedRoot.relativize(path).toString());
+                assertEquals(Files.isDirectory(file), Files.isDirectory(path), "Mismatched type for " + path);
+                if (Files.isRegularFile(file)) {
+                    assertEquals(Files.size(file), Files.size(path));
+                    assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(path), "Mismatched content for " + path);
+                }
+            }
+
+            // Nearby reads are served from the block cache
+            Path icon = archivedRoot.resolve("icon.png");
+            byte[] expected = Files.readAllBytes(test1.toPath().resolve("icon.png"));
+            long misses = ((TarLz4FileSystem) fs).getBlockCacheMisses();
+            try (SeekableByteChannel channel = Files.newByteChannel(icon)) {
+                ByteBuffer buf = ByteBuffer.allocate(16);
+                channel.position(expected.length - 16).read(buf);
+                assertArrayEquals(Arrays.copyOfRange(expected, expected.length - 16, expected.length), buf.array());
+            }
+            assertEquals(misses, ((TarLz4FileSystem) fs).getBlockCacheMisses());
+            assertThrows(ReadOnlyFileSystemException.class, () -> Files.delete(icon));
+        }
+    }
+
+    @Test
+    public void small_sync_multiThreaded() throws Exception {
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(6).build();
+        Path outputPath = compressor.compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        Path restored = decompressedPath.resolve(test1.getName());
+
+        // Change a file in place without changing its size or last modified time, and add files missing from the archive
+        Path icon = restored.resolve("icon.png");
+        FileTime lastModifiedTime = Files.getLastModifiedTime(icon);
+        byte[] changed = Files.readAllBytes(icon);
+        changed[changed.length - 1]++;
+        Files.write(icon, changed);
+        Files.setLastModifiedTime(icon, lastModifiedTime);
+        Files.createDirectories(restored.resolve("extra"));
+        Files.writeString(restored.resolve("extra").resolve("extra.txt"), "extra");
+        Files.writeString(restored.resolve("extra.txt"), "extra");
+
+        // Size and last modified time alone don't catch the change
+        new TarLz4DecompressorBuilder().skipUnchanged(true).deleteExtraneous(true).build().decompress(outputPath, Path.of(tmpDir));
+        assertArrayEquals(changed, Files.readAllBytes(icon));
+        assertTrue(Files.notExists(restored.resolve("extra")));
+        assertTrue(Files.notExists(restored.resolve("extra.txt")));
+
+        new TarLz4DecompressorBuilder().skipUnchanged(true).compareContent(true).build().decompress(outputPath, Path.of(tmpDir));
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), restored));
+    }
+
+    @Test
+    public void small_sync_keepsSkippedEntries() throws Exception {
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(new LZ4FrameOutputStream(Files.newOutputStream(outputPath)))) {
+            TarArchiveEntry file = new TarArchiveEntry("s/f");
+            file.setSize(1);
+            taos.putArchiveEntry(file);
+            taos.write('f');
+            taos.closeArchiveEntry();
+            TarArchiveEntry link = new TarArchiveEntry("s/link", TarConstants.LF_SYMLINK);
+            link.setLinkName("f");
+            taos.putArchiveEntry(link);
+            taos.closeArchiveEntry();
+        }
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+
+        // Links aren't extracted, but one that is already there is in the archive, so it isn't extraneous
+        Path link = decompressedPath.resolve("s").resolve("link");
+        Files.createSymbolicLink(link, Path.of("f"));
+        Files.writeString(decompressedPath.resolve("s").resolve("extra"), "extra");
+        new TarLz4DecompressorBuilder().skipUnchanged(true).deleteExtraneous(true).build().decompress(outputPath, Path.of(tmpDir));
+        assertTrue(Files.isSymbolicLink(link));
+        assertTrue(Files.notExists(decompressedPath.resolve("s").resolve("extra")));
+    }
+
+    @Test
+    public void small_foreignArchive() throws Exception {
+        // Written by commons-compress with GNU long names, PAX headers and block checksums, unlike our own archives
+        String longName = "long/" + "a".repeat(150) + "/" + "b".repeat(120) + ".txt";
+        String paxName = "pax/" + "c".repeat(200) + ".txt";
+        byte[] data = new byte[1024 * 1024 + 3];
+        new Random(7).nextBytes(data);
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(new LZ4FrameOutputStream(Files.newOutputStream(outputPath),
+                LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE, 
+                LZ4FrameOutputStream.FLG.Bits.BLOCK_CHECKSUM))) {
+            for (String name : List.of(longName, paxName, "data.bin")) {
+                taos.setLongFileMode(name.equals(paxName) ? TarArchiveOutputStream.LONGFILE_POSIX : TarArchiveOutputStream.LONGFILE_GNU);
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                byte[] content = name.equals("data.bin") ? data : name.getBytes(StandardCharsets.UTF_8);
+                entry.setSize(content.length);
+                taos.putArchiveEntry(entry);
+                taos.write(content);
+                taos.closeArchiveEntry();
+            }
+        }
+
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        assertEquals(longName, Files.readString(decompressedPath.resolve(longName)));
+        assertEquals(paxName, Files.readString(decompressedPath.resolve(paxName)));
+        assertArrayEquals(data, Files.readAllBytes(decompressedPath.resolve("data.bin")));
+    }
+
+    @Test
+    public void small_foreignArchive_contentChecksum() throws Exception {
+        byte[] data = new byte[200 * 1024];
+        new Random(7).nextBytes(data);
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(new LZ4FrameOutputStream(Files.newOutputStream(outputPath),
+                LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE,
+                LZ4FrameOutputStream.FLG.Bits.CONTENT_CHECKSUM))) {
+            TarArchiveEntry entry = new TarArchiveEntry("data.bin");
+            entry.setSize(data.length);
+            taos.putArchiveEntry(entry);
+            taos.write(data);
+            taos.closeArchiveEntry();
+        }
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        assertArrayEquals(data, Files.readAllBytes(decompressedPath.resolve("data.bin")));
+
+        // Random data is stored as is, so without block checksums only the content checksum catches a flipped byte
+        byte[] archive = Files.readAllBytes(outputPath);
+        archive[archive.length / 2] ^= 1;
+        Files.write(outputPath, archive);
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir)));
+        assertTrue(e.getCause() instanceof IOException && e.getCause().getMessage().contains("content checksum"), e.toString());
+    }
+
+    @Test
+    public void small_foreignArchive_invalidPaxRecord() throws Exception {
+        String paxName = "pax/" + "c".repeat(200) + ".txt";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(tar)) {
+            taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            TarArchiveEntry entry = new TarArchiveEntry(paxName);
+            entry.setSize(1);
+            taos.putArchiveEntry(entry);
+            taos.write('a');
+            taos.closeArchiveEntry();
+        }
+        // The path record's length now runs past the end of the extended header
+        byte[] tarBytes = tar.toByteArray();
+        String records = new String(tarBytes, StandardCharsets.ISO_8859_1);
+        int recordStart = records.indexOf(" path=") - 3;
+        tarBytes[recordStart] = '9';
+        tarBytes[recordStart + 1] = '9';
+        tarBytes[recordStart + 2] = '9';
+
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        try (LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(Files.newOutputStream(outputPath))) {
+            lz4.write(tarBytes);
+        }
+        resourcesCreated.add(Path.of(tmpDir, randomBaseName));
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir)));
+        assertTrue(e.getCause() instanceof IOException && e.getCause().getMessage().contains("Invalid PAX record"), e.toString());
+    }
+
+    @Test
+    public void small_foreignArchive_oversizedPaxHeader() throws Exception {
+        // Claims a PAX header of almost 2 GB, which must not be allocated up front
+        byte[] header = tarHeader("PaxHeaders/a.txt", (byte) 'x', 0x7FFFF000L, "ustar\0" + "00");
+        setTarChecksum(header);
+        Path outputPath = writeLz4Tar(header);
+
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir)));
+        assertTrue(e.getCause() instanceof IOException && e.getCause().getMessage().contains("too large"), e.toString());
+    }
+
+    @Test
+    public void small_foreignArchive_oldGnuHeader() throws Exception {
+        // Old GNU headers, as written by tar --format=gnu -G, keep the atime and ctime where ustar keeps its prefix
+        byte[] header = tarHeader("src/a.txt", (byte) '0', 5, "ustar  \0");
+        System.arraycopy("15265363723\0".getBytes(StandardCharsets.US_ASCII), 0, header, 345, 12);
+        System.arraycopy("15265363723\0".getBytes(StandardCharsets.US_ASCII), 0, header, 357, 12);
+        setTarChecksum(header);
+        byte[] content = Arrays.copyOf("hello".getBytes(StandardCharsets.US_ASCII), 512);
+        Path outputPath = writeLz4Tar(header, content);
+
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        assertEquals("hello", Files.readString(decompressedPath.resolve("src/a.txt")));
+        assertTrue(Files.notExists(decompressedPath.resolve("15265363723")));
+    }
+
+    @Test
+    public void small_sparseFiles_multiThreaded() throws Exception {
+        // Data at the start and in the middle, with holes between and at the end
+        byte[] image = new byte[4 * 1024 * 1024 + 100];
+        Random random = new Random(7);
+        byte[] data = new byte[100_000];
+        random.nextBytes(data);
+        System.arraycopy(data, 0, image, 0, data.length);
+        random.nextBytes(data);
+        System.arraycopy(data, 0, image, 2 * 1024 * 1024, 70_000);
+        byte[] dense = new byte[2 * 1024 * 1024];
+        random.nextBytes(dense);
+        Path source = Path.of(tmpDir, randomBaseName + "_sparse");
+        resourcesCreated.add(source);
+        Files.createDirectories(source);
+        Files.write(source.resolve("disk.img"), image);
+        Files.write(source.resolve("dense.bin"), dense);
+
+        TarLz4Compressor compressor = new TarLz4CompressorBuilder().numThreads(2).sparseFiles(true).build();
+        Path outputPath = compressor.compress(source.toString(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        assertEquals(1, compressor.getLastStats().getSparseFiles());
+        assertEquals(image.length - 100_000 - 70_000, compressor.getLastStats().getSparseHoleBytes(), 2 * 64 * 1024);
+
+        // Other tar readers see a GNU PAX 1.0 sparse entry with the same content
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(new LZ4FrameInputStream(Files.newInputStream(outputPath)))) {
+            TarArchiveEntry entry;
+            while ((entry = tais.getNextTarEntry()) != null) {
+                if (entry.getName().endsWith("disk.img")) {
+                    assertTrue(entry.isPaxGNU1XSparse());
+                    assertEquals(image.length, entry.getRealSize());
+                    assertArrayEquals(image, tais.readAllBytes());
+                }
+            }
+        }
+
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        Path restored = decompressedPath.resolve(source.getFileName());
+        assertArrayEquals(image, Files.readAllBytes(restored.resolve("disk.img")));
+        assertArrayEquals(dense, Files.readAllBytes(restored.resolve("dense.bin")));
+
+        try (FileSystem fs = FileSystems.newFileSystem(outputPath, Map.of(), getClass().getClassLoader())) {
+            Path archived = fs.getPath("/", source.getFileName().toString(), "disk.img");
+            assertEquals(image.length, Files.size(archived));
+            assertArrayEquals(image, Files.readAllBytes(archived));
+            try (SeekableByteChannel channel = Files.newByteChannel(archived)) {
+                ByteBuffer buf = ByteBuffer.allocate(64);
+                // Reads stop at the end of a hole, like other short reads
+                channel.position(2 * 1024 * 1024 - 32);
+                while (buf.hasRemaining() && channel.read(buf) > 0) {
+                }
+                assertArrayEquals(Arrays.copyOfRange(image, 2 * 1024 * 1024 - 32, 2 * 1024 * 1024 + 32), buf.array());
+            }
+        }
+    }
+
+    @Test
+    public void small_sparseFiles_invalidSparseMap() throws Exception {
+        // Valid, then too many segments, past the real size, overlapping, and more data than stored
+        List<String> maps = List.of("1\n4096\n4\n", "1000000000\n0\n4\n", "1\n1099511627776\n4\n",
+                "2\n0\n4\n2\n2\n", "1\n0\n8192\n");
+        for (String map : maps) {
+            byte[] pax = Arrays.copyOf((paxRecord("GNU.sparse.major", "1") + paxRecord("GNU.sparse.minor", "0")
+                    + paxRecord("GNU.sparse.name", "disk.img") + paxRecord("GNU.sparse.realsize", "4194304"))
+                    .getBytes(StandardCharsets.US_ASCII), 512);
+            byte[] paxHeader = tarHeader("PaxHeaders/disk.img", (byte) 'x', pax.length, "ustar\0" + "00");
+            setTarChecksum(paxHeader);
+            byte[] payload = new byte[1024];
+            System.arraycopy(map.getBytes(StandardCharsets.US_ASCII), 0, payload, 0, map.length());
+            System.arraycopy("data".getBytes(StandardCharsets.US_ASCII), 0, payload, 512, 4);
+            byte[] header = tarHeader("GNUSparseFile.0/disk.img", (byte) '0', 512 + 4, "ustar\0" + "00");
+            setTarChecksum(header);
+            Path outputPath = writeLz4Tar(paxHeader, pax, header, payload);
+
+            if (map.equals(maps.get(0))) {
+                Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+                Path restored = decompressedPath.resolve("disk.img");
+                assertEquals(4194304, Files.size(restored));
+                byte[] expected = new byte[4194304];
+                System.arraycopy("data".getBytes(StandardCharsets.US_ASCII), 0, expected, 4096, 4);
+                assertArrayEquals(expected, Files.readAllBytes(restored));
+                FileUtils.deleteDirectory(decompressedPath.toFile());
+                continue;
+            }
+            RuntimeException e = assertThrows(RuntimeException.class,
+                    () -> new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir)), map);
+            assertTrue(e.getCause() instanceof IOException && e.getCause().getMessage().contains("Sparse map"), e.toString());
+        }
+    }
+
+    @Test
+    public void small_transcode_singleThreaded() throws Exception {
+        Path outputPath = new TarLz4CompressorBuilder().build().compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+
+        // Rewritten in place into frames of about 256 KB
+        new TarLz4TranscoderBuilder().frameSize(256 * 1024).blockSize(64 * 1024).build().transcode(outputPath, outputPath);
+        try (FileChannel channel = FileChannel.open(outputPath)) {
+            List<Long> frameOffsets = new SeekableLz4FrameInputStream(channel, 0).scanFrameOffsets();
+            assertTrue(frameOffsets.size() > 3, "Expected multiple frames, got " + frameOffsets);
+            TarLz4Index index = TarLz4Index.read(channel);
+            assertTrue(index != null);
+            assertEquals(frameOffsets, index.getFrames().stream().map(frame -> frame[0]).collect(Collectors.toList()));
+            try (Stream<Path> files = Files.walk(test1.toPath())) {
+                assertEquals(files.count(), index.getEntries().size());
+            }
+        }
+
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        assertTrue(TarLz4Util.checkDirsAreEqual(test1.toPath(), decompressedPath.resolve(test1.getName())));
+
+        // Mounted from the embedded index
+        try (FileSystem fs = FileSystems.newFileSystem(outputPath, Map.of(), getClass().getClassLoader())) {
+            Path archivedRoot = fs.getPath("/", test1.getName());
+            try (Stream<Path> files = Files.walk(test1.toPath())) {
+                for (Path file : files.collect(Collectors.toList())) {
+                    Path path = archivedRoot.resolve(test1.toPath().relativize(file).toString());
+                    assertEquals(Files.isDirectory(file), Files.isDirectory(path), "Mismatched type for " + path);
+                    if (Files.isRegularFile(file)) {
+                        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(path), "Mismatched content for " + path);
+                    }
+                }
+            }
+        }
+
+        // Appending drops the index along with the end-of-archive frame
+        new TarLz4CompressorBuilder().build().append(outputPath, test1.toPath());
+        try (FileChannel channel = FileChannel.open(outputPath)) {
+            assertTrue(TarLz4Index.read(channel) == null);
+        }
+    }
+
+    @Test
+    public void small_transcode_list() throws Exception {
+        Path outputPath = new TarLz4CompressorBuilder().build().compress(test1.getPath(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        List<String> expected = listEntries(outputPath);
+
+        // Listed from the embedded index, with the same attributes as from the tar headers
+        new TarLz4TranscoderBuilder().frameSize(256 * 1024).build().transcode(outputPath, outputPath);
+        List<String> indexed = listEntries(outputPath);
+        assertEquals(expected, indexed);
+        try (FileChannel channel = FileChannel.open(outputPath)) {
+            assertEquals(indexed.size(), TarLz4Index.read(channel).getEntries().size());
+        }
+    }
+
+    @Test
+    public void small_transcode_sparseFiles() throws Exception {
+        byte[] image = new byte[3 * 1024 * 1024];
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+        System.arraycopy(data, 0, image, 1024 * 1024, data.length);
+        Path source = Path.of(tmpDir, randomBaseName + "_sparse");
+        resourcesCreated.add(source);
+        Files.createDirectories(source);
+        Files.write(source.resolve("disk.img"), image);
+
+        Path outputPath = new TarLz4CompressorBuilder().sparseFiles(true).build().compress(source.toString(), tmpDir, randomBaseName);
+        resourcesCreated.add(outputPath);
+        new TarLz4TranscoderBuilder().frameSize(64 * 1024).build().transcode(outputPath, outputPath);
+        try (FileChannel channel = FileChannel.open(outputPath)) {
+            TarLz4Index index = TarLz4Index.read(channel);
+            assertTrue(index.getEntries().stream().anyMatch(entry -> entry.getSparseSegments() != null));
+        }
+
+        List<TarLz4ArchiveEntry> entries = new ArrayList<>();
+        try (TarLz4ArchiveIterator iterator = new TarLz4DecompressorBuilder().build().list(outputPath)) {
+            iterator.forEachRemaining(entries::add);
+        }
+        TarLz4ArchiveEntry listed = entries.stream().filter(entry -> entry.getName().endsWith("disk.img")).findFirst().get();
+        assertTrue(listed.isFile());
+        assertEquals(image.length, listed.getSize());
+
+        try (FileSystem fs = FileSystems.newFileSystem(outputPath, Map.of(), getClass().getClassLoader())) {
+            Path archived = fs.getPath("/", source.getFileName().toString(), "disk.img");
+            assertEquals(image.length, Files.size(archived));
+            assertArrayEquals(image, Files.readAllBytes(archived));
+        }
+    }
+
+    @Test
+    public void small_transcode_contentChecksumMismatch() throws Exception {
+        byte[] data = new byte[200 * 1024];
+        new Random(7).nextBytes(data);
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(new LZ4FrameOutputStream(Files.newOutputStream(outputPath),
+                LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB, LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE,
+                LZ4FrameOutputStream.FLG.Bits.CONTENT_CHECKSUM))) {
+            TarArchiveEntry entry = new TarArchiveEntry("data.bin");
+            entry.setSize(data.length);
+            taos.putArchiveEntry(entry);
+            taos.write(data);
+            taos.closeArchiveEntry();
+        }
+        byte[] archive = Files.readAllBytes(outputPath);
+        archive[archive.length / 2] ^= 1;
+        Files.write(outputPath, archive);
+
+        // The source is left as is, and no partial archive is left behind
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> new TarLz4TranscoderBuilder().build().transcode(outputPath, outputPath));
+        assertTrue(e.getCause() instanceof IOException && e.getCause().getMessage().contains("content checksum"), e.toString());
+        assertArrayEquals(archive, Files.readAllBytes(outputPath));
+        try (Stream<Path> files = Files.list(Path.of(tmpDir))) {
+            assertEquals(List.of(), files.filter(path -> path.getFileName().toString().endsWith(".part")).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * @return Name, size, type, mode and last modified time of every entry listed
+     */
+    private List<String> listEntries(Path archivePath) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (TarLz4ArchiveIterator iterator = new TarLz4DecompressorBuilder().build().list(archivePath)) {
+            iterator.forEachRemaining(entry -> entries.add(entry.getName() + " " + entry.getSize() + " " + entry.getType()
+                    + " " + Integer.toOctalString(entry.getMode()) + " " + entry.getLastModifiedTime()));
+        }
+        return entries;
+    }
+
+    @Test
+    public void small_list_flushedBlocks() throws Exception {
+        Path outputPath = writeFlushedArchive();
+        List<String> names = new ArrayList<>();
+        try (TarLz4ArchiveIterator entries = new TarLz4DecompressorBuilder().build().list(outputPath)) {
+            entries.forEachRemaining(entry -> names.add(entry.getName()));
+        }
+        assertEquals(List.of("flushed.txt", "after.txt", "stored.bin", "last.txt"), names);
+    }
+
+    @Test
+    public void small_fileSystem_flushedBlocks() throws Exception {
+        Path outputPath = writeFlushedArchive();
+        Map<String, byte[]> expected = new HashMap<>();
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(new LZ4FrameInputStream(Files.newInputStream(outputPath)))) {
+            TarArchiveEntry entry;
+            while ((entry = tais.getNextTarEntry()) != null) {
+                expected.put(entry.getName(), tais.readAllBytes());
+            }
+        }
+
+        // Entries after a short block, and within one, are found at their real offsets
+        try (FileSystem fs = FileSystems.newFileSystem(outputPath, Map.of(), getClass().getClassLoader())) {
+            for (String name : List.of("after.txt", "stored.bin", "last.txt", "flushed.txt")) {
+                assertArrayEquals(expected.get(name), Files.readAllBytes(fs.getPath("/", name)), "Mismatched content for " + name);
+            }
+        }
+    }
+
+    @Test
+    public void small_sync_flushedBlocks() throws Exception {
+        Path outputPath = writeFlushedArchive();
+        Path decompressedPath = new TarLz4DecompressorBuilder().build().decompress(outputPath, Path.of(tmpDir));
+        resourcesCreated.add(decompressedPath);
+        Map<String, byte[]> expected = new HashMap<>();
+        for (String name : List.of("flushed.txt", "after.txt", "stored.bin", "last.txt")) {
+            expected.put(name, Files.readAllBytes(decompressedPath.resolve(name)));
+        }
+
+        // Unchanged entries are skipped over the short blocks, and the entries after them must still be found
+        Files.writeString(decompressedPath.resolve("after.txt"), "changed");
+        Files.delete(decompressedPath.resolve("last.txt"));
+        new TarLz4DecompressorBuilder().skipUnchanged(true).build().decompress(outputPath, Path.of(tmpDir));
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), Files.readAllBytes(decompressedPath.resolve(entry.getKey())),
+                    "Mismatched content for " + entry.getKey());
+        }
+    }
+
+    /**
+     * Writes an archive with lz4-java, flushing within entries so frames have short blocks before their last block.
+     * flushed.txt compresses, and stored.bin doesn't.
+     */
+    private Path writeFlushedArchive() throws IOException {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300 * 1024) {
+            text.append("line ").append(random.nextInt(1000)).append(" of flushed text\n");
+        }
+        byte[] flushed = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] stored = new byte[200 * 1024];
+        random.nextBytes(stored);
+
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(Files.newOutputStream(outputPath), LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB);
+        try (TarArchiveOutputStream taos = new TarArchiveOutputStream(lz4)) {
+            for (String name : List.of("flushed.txt", "after.txt", "stored.bin", "last.txt")) {
+                byte[] content = name.equals("flushed.txt") ? flushed : name.equals("stored.bin") ? stored : name.getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(content.length);
+                taos.putArchiveEntry(entry);
+                taos.write(content, 0, 100_000 % content.length);
+                lz4.flush();
+                taos.write(content, 100_000 % content.length, content.length - 100_000 % content.length);
+                taos.closeArchiveEntry();
+            }
+        }
+        return outputPath;
+    }
+
+    /**
+     * @return A tar header without its checksum, which {@link #setTarChecksum(byte[])} fills in once it is complete
+     */
+    private static byte[] tarHeader(String name, byte typeFlag, long size, String magic) {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, 1_600_000_000L);
+        header[156] = typeFlag;
+        byte[] magicBytes = magic.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magicBytes, 0, header, 257, magicBytes.length);
+        return header;
+    }
+
+    /**
+     * @return A PAX record, whose length counts its own digits
+     */
+    private static String paxRecord(String key, String value) {
+        int withoutLength = key.length() + value.length() + 3;  // Space, '=' and newline
+        int length = withoutLength + String.valueOf(withoutLength).length();
+        if (String.valueOf(length).length() > String.valueOf(withoutLength).length()) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+    }
+
+    private static void setTarChecksum(byte[] header) {
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        System.arraycopy(String.format("%06o\0", sum).getBytes(StandardCharsets.US_ASCII), 0, header, 148, 7);
+    }
+
+    /**
+     * Writes raw tar records as a .tar.lz4, followed by the end-of-archive records.
+     */
+    private Path writeLz4Tar(byte[]... records) throws IOException {
+        Path outputPath = Path.of(tmpDir, randomBaseName + TarLz4Compressor.TAR_LZ4_EXTENSION);
+        resourcesCreated.add(outputPath);
+        resourcesCreated.add(Path.of(tmpDir, randomBaseName));
+        try (LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(Files.newOutputStream(outputPath))) {
+            for (byte[] record : records) {
+                lz4.write(record);
+            }
+            lz4.write(new byte[1024]);
+        }
+        return outputPath;
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        for (Path path : resourcesCreated) {
+            if (path.toFile().isFile()) {
+                Files.deleteIfExists(path);
+            } else {
+                FileUtils.deleteDirectory(path.toFile());
+            }
+        }
+    }
+}
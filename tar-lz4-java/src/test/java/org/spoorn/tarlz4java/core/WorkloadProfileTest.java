@@ -0,0 +1,58 @@
+package org.spoorn.tarlz4java.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+public class WorkloadProfileTest {
+
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+    private static final long GB = 1024 * MB;
+
+    @Test
+    public void smallFiles() {
+        // Thread count is bound by bytes per slice, as many small files spread evenly
+        WorkloadProfile profile = WorkloadProfile.of(10_000, 40 * MB, 64 * KB);
+        assertEquals(2, profile.suggestNumThreads(8));
+        assertEquals(WorkloadProfile.MIN_BUFFER_SIZE, profile.suggestBufferSize());
+
+        // Too small for more than one slice
+        WorkloadProfile tiny = WorkloadProfile.of(100, MB, 64 * KB);
+        assertEquals(1, tiny.suggestNumThreads(8));
+        assertEquals(8 * KB, tiny.suggestBufferSize());
+    }
+
+    @Test
+    public void largeFiles() {
+        // A single file can't be split between slices
+        WorkloadProfile single = WorkloadProfile.of(1, 10 * GB, 10 * GB);
+        assertEquals(1, single.suggestNumThreads(8));
+        assertEquals(WorkloadProfile.MAX_BUFFER_SIZE, single.suggestBufferSize());
+
+        // Bound by how many slices the largest file leaves room for, and by the max threads
+        WorkloadProfile four = WorkloadProfile.of(4, 4 * GB, GB);
+        assertEquals(4, four.suggestNumThreads(8));
+        assertEquals(2, four.suggestNumThreads(2));
+        assertEquals(WorkloadProfile.MAX_BUFFER_SIZE, four.suggestBufferSize());
+    }
+
+    @Test
+    public void mixedFiles() {
+        // One large file among many small ones bounds the spread
+        WorkloadProfile dominated = WorkloadProfile.of(1000, GB, 256 * MB);
+        assertEquals(4, dominated.suggestNumThreads(16));
+        assertEquals(MB, dominated.suggestBufferSize());
+
+        // Evenly sized medium files use every thread, with a buffer rounded down to a power of 2 of the average
+        WorkloadProfile medium = WorkloadProfile.of(10_000, 10_000 * 100_000L, 2 * MB);
+        assertEquals(16, medium.suggestNumThreads(16));
+        assertEquals(64 * KB, medium.suggestBufferSize());
+    }
+
+    @Test
+    public void emptySource() {
+        WorkloadProfile empty = WorkloadProfile.of(0, 0, 0);
+        assertEquals(1, empty.suggestNumThreads(8));
+        assertEquals(WorkloadProfile.MIN_BUFFER_SIZE, empty.suggestBufferSize());
+    }
+}
@@ -0,0 +1,107 @@
+package org.spoorn.tarlz4java.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class TarHeaderEncoderTest {
+
+    private static final long MTIME = 1_600_000_000_000L;
+
+    @Test
+    public void longName_splitIntoUstarPrefix() throws Exception {
+        String name = "a".repeat(90) + "/" + "b".repeat(60) + ".txt";
+        byte[] tar = writeEntry(name, false, "content".getBytes(StandardCharsets.UTF_8));
+        // A single ustar header with the path split at the '/', and no PAX header
+        assertEquals('0', tar[156]);
+        assertEquals("a".repeat(90), new String(tar, 345, 90, StandardCharsets.US_ASCII));
+        assertEquals(0, tar[345 + 90]);
+
+        TarArchiveEntry entry = readEntry(tar, "content".getBytes(StandardCharsets.UTF_8));
+        assertEquals(name, entry.getName());
+        assertEquals(MTIME / 1000, entry.getLastModifiedDate().getTime() / 1000);
+    }
+
+    @Test
+    public void longDirectory_splitIntoUstarPrefix() throws Exception {
+        String name = "c".repeat(120) + "/" + "d".repeat(80);
+        byte[] tar = writeEntry(name, true, new byte[0]);
+        assertEquals('5', tar[156]);
+
+        TarArchiveEntry entry = readEntry(tar, new byte[0]);
+        assertTrue(entry.isDirectory());
+        assertEquals(name + "/", entry.getName());
+    }
+
+    @Test
+    public void veryLongName_inPaxPath() throws Exception {
+        String name = "e".repeat(200) + "/" + "f".repeat(100) + ".txt";
+        byte[] tar = writeEntry(name, false, "content".getBytes(StandardCharsets.UTF_8));
+        assertEquals('x', tar[156]);
+        assertEquals(name, readEntry(tar, "content".getBytes(StandardCharsets.UTF_8)).getName());
+    }
+
+    @Test
+    public void nameWithoutSeparatorToSplitAt_inPaxPath() throws Exception {
+        String name = "g".repeat(150) + ".txt";
+        byte[] tar = writeEntry(name, false, new byte[0]);
+        assertEquals('x', tar[156]);
+        assertEquals(name, readEntry(tar, new byte[0]).getName());
+    }
+
+    @Test
+    public void nonAsciiName_inPaxPath() throws Exception {
+        String name = "d\u00e9j\u00e0/\u00fcber/\u65e5\u672c.txt";
+        byte[] content = name.getBytes(StandardCharsets.UTF_8);
+        byte[] tar = writeEntry(name, false, content);
+        assertEquals('x', tar[156]);
+        assertEquals(name, readEntry(tar, content).getName());
+    }
+
+    @Test
+    public void sizeOver8GB_inPaxSize() throws Exception {
+        long size = 9L * 1024 * 1024 * 1024;
+        TarHeaderEncoder encoder = new TarHeaderEncoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] name = "huge.bin".getBytes(StandardCharsets.UTF_8);
+        encoder.writeHeader(out, name, name.length, false, size, MTIME, TarHeaderEncoder.DEFAULT_FILE_PERMISSIONS);
+        byte[] tar = out.toByteArray();
+        assertEquals('x', tar[156]);
+
+        // Only the header is read, so the content doesn't need to be there
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(new ByteArrayInputStream(tar))) {
+            TarArchiveEntry entry = tais.getNextTarEntry();
+            assertEquals("huge.bin", entry.getName());
+            assertEquals(size, entry.getSize());
+        }
+    }
+
+    private static byte[] writeEntry(String name, boolean directory, byte[] content) throws IOException {
+        TarHeaderEncoder encoder = new TarHeaderEncoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        encoder.writeHeader(out, nameBytes, nameBytes.length, directory, content.length, MTIME,
+                directory ? TarHeaderEncoder.DEFAULT_DIR_PERMISSIONS : TarHeaderEncoder.DEFAULT_FILE_PERMISSIONS);
+        out.write(content);
+        TarHeaderEncoder.writePadding(out, content.length);
+        out.write(new byte[2 * TarHeaderEncoder.RECORD_SIZE]);
+        return out.toByteArray();
+    }
+
+    private static TarArchiveEntry readEntry(byte[] tar, byte[] expectedContent) throws IOException {
+        try (TarArchiveInputStream tais = new TarArchiveInputStream(new ByteArrayInputStream(tar))) {
+            TarArchiveEntry entry = tais.getNextTarEntry();
+            assertArrayEquals(expectedContent, tais.readAllBytes());
+            assertEquals(null, tais.getNextTarEntry());
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.spoorn.tarlz4java.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class TarLz4IndexTest {
+
+    private Path indexPath;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        indexPath = Files.createTempFile("index", ".tar.lz4");
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        TarLz4Index index = new TarLz4Index();
+        index.addFrame(0, 0);
+        index.addFrame(1000, 65536);
+        index.addEntry(new TarLz4Index.Entry(bytes("dir/"), TarStreamReader.TYPE_DIRECTORY, 040755, true, 0, 1_600_000_000_000L, 512, null));
+        index.addEntry(new TarLz4Index.Entry(bytes("dir/disk.img"), TarStreamReader.TYPE_FILE, 0100600, false, 1 << 20,
+                1_600_000_001_000L, 2048, new long[]{0, 4096, 65536, 100}));
+        index.addEntry(new TarLz4Index.Entry(bytes("dir/link"), TarStreamReader.TYPE_SYMBOLIC_LINK, 0120777, false, 0,
+                1_600_000_002_000L, 8192, null));
+        try (OutputStream out = Files.newOutputStream(indexPath)) {
+            // Stands in for the frames before the index
+            out.write(new byte[100]);
+            index.write(out);
+        }
+
+        TarLz4Index read;
+        try (FileChannel channel = FileChannel.open(indexPath)) {
+            read = TarLz4Index.read(channel);
+        }
+        assertEquals(2, read.getFrames().size());
+        assertArrayEquals(new long[]{1000, 65536}, read.getFrames().get(1));
+        List<TarLz4Index.Entry> entries = read.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("dir/", entries.get(0).getName());
+        assertTrue(entries.get(0).isDirectory());
+        assertFalse(entries.get(0).isFile());
+        assertEquals(040755, entries.get(0).getMode());
+
+        TarLz4Index.Entry sparse = entries.get(1);
+        assertTrue(sparse.isFile());
+        assertEquals(0100600, sparse.getMode());
+        assertEquals(1 << 20, sparse.getSize());
+        assertEquals(1_600_000_001_000L, sparse.getLastModifiedMillis());
+        assertEquals(2048, sparse.getDataOffset());
+        assertArrayEquals(new long[]{0, 4096, 65536, 100}, sparse.getSparseSegments());
+
+        TarLz4Index.Entry link = entries.get(2);
+        assertFalse(link.isFile());
+        assertFalse(link.isDirectory());
+        assertEquals(TarStreamReader.TYPE_SYMBOLIC_LINK, link.getTypeFlag());
+        assertNull(link.getSparseSegments());
+    }
+
+    @Test
+    public void frameSizeOverIntRange() throws Exception {
+        // A footer claiming a frame larger than any array, in a sparse file large enough to hold it
+        long frameSize = Integer.MAX_VALUE + 16L;
+        try (RandomAccessFile file = new RandomAccessFile(indexPath.toFile(), "rw")) {
+            file.setLength(frameSize + 8);
+            ByteBuffer footer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            footer.putInt((int) frameSize).putInt(TarLz4Index.INDEX_MAGIC);
+            file.seek(frameSize);
+            file.write(footer.array());
+        }
+        try (FileChannel channel = FileChannel.open(indexPath)) {
+            assertNull(TarLz4Index.read(channel));
+        }
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(indexPath);
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+}
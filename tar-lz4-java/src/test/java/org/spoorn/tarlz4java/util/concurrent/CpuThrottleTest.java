@@ -0,0 +1,90 @@
+package org.spoorn.tarlz4java.util.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CpuThrottleTest {
+
+    @Test
+    public void adjust_shrinksAndGrowsParallelism() {
+        CpuThrottle throttle = new CpuThrottle(2.5, 4);
+        // Adjusted by hand from here on
+        throttle.close();
+        assertEquals(3, throttle.getParallelism());
+
+        long elapsed = CpuThrottle.INTERVAL_MILLIS * 1_000_000;
+        throttle.adjust(3 * elapsed, elapsed);
+        assertEquals(2, throttle.getParallelism());
+        throttle.adjust(3 * elapsed, elapsed);
+        assertEquals(1, throttle.getParallelism());
+        // Never below one
+        throttle.adjust(3 * elapsed, elapsed);
+        assertEquals(1, throttle.getParallelism());
+        assertEquals(1, throttle.getMinParallelism());
+
+        // Within the budget, but not under the lower threshold, stays put
+        throttle.adjust((long) (2.4 * elapsed), elapsed);
+        assertEquals(1, throttle.getParallelism());
+        throttle.adjust(elapsed, elapsed);
+        throttle.adjust(elapsed, elapsed);
+        throttle.adjust(elapsed, elapsed);
+        throttle.adjust(elapsed, elapsed);
+        assertEquals(4, throttle.getParallelism());
+        assertEquals(1, throttle.getMinParallelism());
+    }
+
+    @Test
+    public void busyWorkers_shrinkParallelism() throws Exception {
+        // Workers need more than the budget's cores to go over it
+        assumeTrue(Runtime.getRuntime().availableProcessors() >= 3);
+        CpuThrottle throttle = new CpuThrottle(1.5, 3);
+        assumeTrue(throttle.isSupported());
+        assertEquals(2, throttle.getParallelism());
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread worker = new Thread(() -> {
+                throttle.register();
+                try {
+                    while (running.get()) {
+                        throttle.acquire();
+                        try {
+                            long end = System.nanoTime() + 1_000_000;
+                            while (System.nanoTime() < end) {
+                                Thread.onSpinWait();
+                            }
+                        } finally {
+                            throttle.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    throttle.unregister();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (throttle.getMinParallelism() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(CpuThrottle.INTERVAL_MILLIS);
+            }
+        } finally {
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            throttle.close();
+        }
+        assertTrue(throttle.getMinParallelism() < 2, "Parallelism did not shrink under the budget");
+    }
+}